@@ -10,8 +10,11 @@ import ca.odell.glazedlists.impl.adt.barcode2.Element;
 import ca.odell.glazedlists.impl.adt.barcode2.SimpleTree;
 import ca.odell.glazedlists.impl.adt.barcode2.SimpleTreeIterator;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A list that acts like a tree in that it contains child elements to nodes
@@ -71,6 +74,13 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
     /** the Lists and EventLists that this is composed of */
     private final SimpleTree<ChildElement<E>> childElements = new SimpleTree<ChildElement<E>>();
 
+    /**
+     * The nodes of {@link #childElements} for each List of children, by
+     * identity, or <code>null</code> unless {@link #trackChildLists()} has been
+     * called. This allows a List of children to be located without a scan.
+     */
+    private Map<List<E>, List<Element<ChildElement<E>>>> childListNodes = null;
+
     /**
      * Create a {@link CollectionList} with its contents being the children of
      * the elements in the specified source {@link EventList}.
@@ -253,6 +263,7 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
         // update the list of child lists
         Element<ChildElement<E>> node = childElements.add(parentIndex, EMPTY_CHILD_ELEMENT, 1);
         node.set(createChildElementForList(children, node));
+        if(childListNodes != null) addChildListNode(node);
 
         // update the barcode
         barcode.addBlack(absoluteIndex, 1);
@@ -275,19 +286,22 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
         final int nextParentIndex = getAbsoluteIndex(sourceIndex + 1);
         final int childCount = nextParentIndex - parentIndex - 1; // subtract one for the parent
 
-        // record the delete events first while the deleted values still exist
+        final Element<ChildElement<E>> removedChildElement = childElements.get(sourceIndex);
+
+        // record the delete events first while the deleted values still exist,
+        // reading them from the child list directly rather than through the barcode
         if(childCount > 0) {
-            int firstDeletedChildIndex = parentIndex - sourceIndex;
-            int firstNotDeletedChildIndex = firstDeletedChildIndex + childCount;
+            final ChildElement<E> removedChildren = removedChildElement.get();
+            final int firstDeletedChildIndex = parentIndex - sourceIndex;
 
-            for (int i = firstDeletedChildIndex; i < firstNotDeletedChildIndex; i++) {
-                updates.elementDeleted(firstDeletedChildIndex, get(i));
+            for (int i = 0; i < childCount; i++) {
+                updates.elementDeleted(firstDeletedChildIndex, removedChildren.get(i));
             }
         }
 
         // update the list of child lists
-        Element<ChildElement<E>> removedChildElement = childElements.get(sourceIndex);
         childElements.remove(removedChildElement);
+        if(childListNodes != null) removeChildListNode(removedChildElement);
         removedChildElement.get().dispose();
 
         // update the barcode
@@ -316,6 +330,63 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
             return new SimpleChildElement(children, node);
     }
 
+    /**
+     * Start maintaining a lookup from each List of children to the parents
+     * which provided it, so that {@link #indexOfChildList(List)} runs in
+     * O(log N) rather than scanning all parents.
+     */
+    void trackChildLists() {
+        if(childListNodes != null) return;
+
+        childListNodes = new IdentityHashMap<List<E>, List<Element<ChildElement<E>>>>();
+        for(int i = 0, n = childElements.size(); i < n; i++) {
+            addChildListNode(childElements.get(i));
+        }
+    }
+
+    /**
+     * Get the index of the first parent whose children are exactly the
+     * specified List, compared by identity. This requires that
+     * {@link #trackChildLists()} has been called.
+     *
+     * @return the parent index, or <code>-1</code> if no parent has the
+     *      specified List of children
+     */
+    int indexOfChildList(List<E> children) {
+        final List<Element<ChildElement<E>>> nodes = childListNodes.get(children);
+        if(nodes == null) return -1;
+
+        // the same List may be the children of several parents
+        int firstIndex = Integer.MAX_VALUE;
+        for(int i = 0, n = nodes.size(); i < n; i++) {
+            firstIndex = Math.min(firstIndex, childElements.indexOfNode(nodes.get(i), (byte)1));
+        }
+        return firstIndex;
+    }
+
+    /**
+     * Record the specified node in {@link #childListNodes}.
+     */
+    private void addChildListNode(Element<ChildElement<E>> node) {
+        final List<E> children = node.get().getChildren();
+        List<Element<ChildElement<E>>> nodes = childListNodes.get(children);
+        if(nodes == null) {
+            nodes = new ArrayList<Element<ChildElement<E>>>(1);
+            childListNodes.put(children, nodes);
+        }
+        nodes.add(node);
+    }
+
+    /**
+     * Forget the specified node in {@link #childListNodes}.
+     */
+    private void removeChildListNode(Element<ChildElement<E>> node) {
+        final List<E> children = node.get().getChildren();
+        final List<Element<ChildElement<E>>> nodes = childListNodes.get(children);
+        nodes.remove(node);
+        if(nodes.isEmpty()) childListNodes.remove(children);
+    }
+
     /**
      * Get the absolute index for the specified parent index. This may be
      * virtual if the parent index is one greater than the last element. This
@@ -336,6 +407,7 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
      * Models a list held by the CollectionList.
      */
     private interface ChildElement<E> {
+        public List<E> getChildren();
         public E get(int index);
         public E remove(int index);
         public E set(int index, E element);
@@ -373,6 +445,11 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
             this.node = node;
         }
 
+        @Override
+        public List<E> getChildren() {
+            return children;
+        }
+
         @Override
         public E get(int index) {
             return children.get(index);
@@ -428,9 +505,13 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
         private final EventList<E> children;
         private final Element<ChildElement<E>> node;
 
+        /** the number of children represented in the barcode */
+        private int size;
+
         public EventChildElement(EventList<E> children, Element<ChildElement<E>> node) {
             this.children = children;
             this.node = node;
+            this.size = children.size();
 
             // ensure the EventList of children uses the same publisher as the CollectionList
             if(!getPublisher().equals(children.getPublisher()))
@@ -444,6 +525,11 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
             children.addListEventListener(this);
         }
 
+        @Override
+        public List<E> getChildren() {
+            return children;
+        }
+
         @Override
         public E get(int index) {
             return children.get(index);
@@ -465,13 +551,13 @@ public class CollectionList<S, E> extends TransformedList<S, E> implements ListE
         public void listChanged(ListEvent<E> listChanges) {
             int parentIndex = childElements.indexOfNode(node, (byte)1);
             int absoluteIndex = getAbsoluteIndex(parentIndex);
-            int nextNodeIndex = getAbsoluteIndex(parentIndex+1);
 
-            // update the barcode
+            // update the barcode, all children are white so only the size matters
             int firstChildIndex = absoluteIndex + 1;
-            int previousChildrenCount = nextNodeIndex - firstChildIndex;
-            if(previousChildrenCount > 0) barcode.remove(firstChildIndex, previousChildrenCount);
-            if(!children.isEmpty()) barcode.addWhite(firstChildIndex, children.size());
+            int sizeChange = children.size() - size;
+            if(sizeChange > 0) barcode.addWhite(firstChildIndex, sizeChange);
+            else if(sizeChange < 0) barcode.remove(firstChildIndex, -sizeChange);
+            size = children.size();
 
             // get the offset of this child list
             int childOffset = absoluteIndex - parentIndex;
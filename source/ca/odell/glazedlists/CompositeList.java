@@ -6,8 +6,6 @@ package ca.odell.glazedlists;
 import ca.odell.glazedlists.event.ListEventPublisher;
 import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
 
-import java.util.Iterator;
-
 /**
  * An {@link EventList} composed of multiple source {@link EventList}s. This list
  * shows the contents of its source lists.
@@ -42,6 +40,7 @@ public class CompositeList<E> extends CollectionList<EventList<E>, E> {
 
     public CompositeList() {
         super(new BasicEventList<EventList<E>>(), (Model)GlazedLists.listCollectionListModel());
+        trackChildLists();
     }
 
     /**
@@ -60,6 +59,7 @@ public class CompositeList<E> extends CollectionList<EventList<E>, E> {
     @Deprecated
     public CompositeList(ReadWriteLock lock) {
         super(new BasicEventList<EventList<E>>(lock), (Model)GlazedLists.listCollectionListModel());
+        trackChildLists();
     }
 
     /**
@@ -76,6 +76,7 @@ public class CompositeList<E> extends CollectionList<EventList<E>, E> {
      */
     public CompositeList(ListEventPublisher publisher, ReadWriteLock lock) {
         super(new BasicEventList<EventList<E>>(publisher, lock), (Model)GlazedLists.listCollectionListModel());
+        trackChildLists();
     }
 
     /**
@@ -117,15 +118,14 @@ public class CompositeList<E> extends CollectionList<EventList<E>, E> {
 
     /**
      * Removes the specified {@link EventList} as a source {@link EventList}
-     * to this {@link CompositeList}.
+     * to this {@link CompositeList}. The member list is located by reference
+     * in O(log N) time, without scanning the other member lists.
      */
     public void removeMemberList(EventList<E> list) {
-        for(Iterator<EventList<E>> i = source.iterator(); i.hasNext(); ) {
-            if(i.next() == list) {
-                i.remove();
-                return;
-            }
-        }
-        throw new IllegalArgumentException("Cannot remove list " + list + " which is not in this CompositeList");
+        final int index = indexOfChildList(list);
+        if(index == -1)
+            throw new IllegalArgumentException("Cannot remove list " + list + " which is not in this CompositeList");
+
+        source.remove(index);
     }
 }
\ No newline at end of file
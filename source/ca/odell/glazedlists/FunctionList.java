@@ -6,8 +6,14 @@ package ca.odell.glazedlists;
 import ca.odell.glazedlists.event.ListEvent;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This List is meant to simplify the task of transforming each element of a
@@ -40,6 +46,22 @@ import java.util.RandomAccess;
  * <p> <strong>o.equals(reverseFunction.evaluate(forwardFunction.evaluate(o)))</strong>
  * for any o that is non-null.
  *
+ * <p>By default every source element is transformed as soon as it is added
+ * or updated and the result is stored for the lifetime of the element. For
+ * expensive functions, a lazy FunctionList may be constructed using
+ * {@link #FunctionList(EventList, Function, Function, int)}. It transforms
+ * elements only when they are first read and keeps a bounded number of the
+ * most recently read results. Source updates invalidate the stored result,
+ * which is then reevaluated when the element is next read.
+ *
+ * <p>If the forward {@link Function} is free of side effects and safe to call
+ * from several threads at once, an {@link ExecutorService} may be supplied via
+ * {@link #FunctionList(EventList, Function, Function, ExecutorService)} or
+ * {@link #setExecutor}. Large batches of inserted or updated elements are
+ * then transformed in parallel chunks on the executor. The results are
+ * applied in order before the change is forwarded, so listeners observe
+ * exactly the same events as for serial evaluation.
+ *
  * <p><strong>Note:</strong> if two source elements share the same identity
  * (i.e. source.get(i) == source.get(j) when i != j), it is up to author of the
  * {@link Function} to decide <stong>if</strong> and <stong>how</strong> to
@@ -65,15 +87,51 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
 
     private final List<S> sourceElements;
 
-    /** A list of the Objects produced by running the source elements through the {@link #forward} Function. */
+    /**
+     * A list of the Objects produced by running the source elements through
+     * the {@link #forward} Function. This is <code>null</code> if this list
+     * evaluates lazily.
+     */
     private final List<E> mappedElements;
 
+    /**
+     * A list of the lazily evaluated elements, parallel to the source list.
+     * This is <code>null</code> unless this list evaluates lazily.
+     */
+    private final List<LazyElement<S,E>> lazyElements;
+
+    /**
+     * The lazily evaluated elements which currently hold a value, in order of
+     * least to most recently read. Eldest entries are evicted when it grows
+     * beyond its maximum size. All access to lazily evaluated elements is
+     * guarded by this map's monitor, since reads may happen concurrently.
+     */
+    private final LazyElementCache lazyCache;
+
+    /** the number of reads which were served from the {@link #lazyCache} */
+    private int cacheHits;
+
+    /** the number of reads which required the {@link #forward} Function to be evaluated */
+    private int cacheMisses;
+
     /** The Function that maps source elements to FunctionList elements. */
     private AdvancedFunction<S,E> forward;
 
     /** The Function that maps FunctionList elements back to source elements. It may be null. */
     private Function<E,S> reverse;
 
+    /** The executor used to transform large batches of elements in parallel. It may be null. */
+    private ExecutorService executor;
+
+    /** the smallest number of elements which is worth transforming in parallel */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    /** the smallest number of elements transformed by a single parallel task */
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /** marks an element which has no previously transformed value to reevaluate */
+    private static final Object NOT_EVALUATED = new Object();
+
     /**
      * Construct a {@link FunctionList} which stores the result of transforming
      * each source element using the given forward {@link Function}. No reverse
@@ -106,19 +164,85 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
      *      element values in the source list
      */
     public FunctionList(EventList<S> source, Function<S,E> forward, Function<E,S> reverse) {
+        this(source, forward, reverse, (ExecutorService) null);
+    }
+
+    /**
+     * Construct a {@link FunctionList} which stores the result of transforming
+     * each source element using the given forward {@link Function}, and which
+     * transforms large batches of elements in parallel using the given
+     * <code>executor</code>. This includes the initial transformation of all
+     * elements in <code>source</code>.
+     *
+     * <p>The forward {@link Function} must be safe to call concurrently from
+     * the executor's threads. The executor is not shut down by this list.
+     *
+     * @param source the EventList to decorate with a function transformation
+     * @param forward the function to execute on each source element
+     * @param reverse the function to map elements of FunctionList back to
+     *      element values in the source list, or <code>null</code>
+     * @param executor the executor to transform elements on, or
+     *      <code>null</code> to transform all elements on the calling thread
+     */
+    public FunctionList(EventList<S> source, Function<S,E> forward, Function<E,S> reverse, ExecutorService executor) {
         super(source);
 
         updateForwardFunction(forward);
         setReverseFunction(reverse);
+        setExecutor(executor);
 
         // save a reference to the source elements
         this.sourceElements = new ArrayList<S>(source);
 
         // map all of the elements within source
         this.mappedElements = new ArrayList<E>(source.size());
+        this.mappedElements.addAll(forwardAll(sourceElements, Collections.nCopies(sourceElements.size(), NOT_EVALUATED)));
+        this.lazyElements = null;
+        this.lazyCache = null;
+
+        source.addListEventListener(this);
+    }
+
+    /**
+     * Construct a lazy {@link FunctionList} which transforms each source
+     * element using the given forward {@link Function} only when it is read,
+     * and which keeps at most <code>maxCacheSize</code> transformed values.
+     * When a cached value is evicted it is disposed as though it were removed
+     * from this list, and the source element is transformed again when it is
+     * next read.
+     *
+     * <p>Source updates do not transform the updated element immediately.
+     * Instead the cached value is marked stale, and is passed to
+     * {@link AdvancedFunction#reevaluate} when the element is next read. As a
+     * consequence, ListEvents fired by a lazy FunctionList report new values
+     * as {@link ListEvent#UNKNOWN_VALUE}, and old values only when they are
+     * cached and current.
+     *
+     * @param source the EventList to decorate with a function transformation
+     * @param forward the function to execute on each source element
+     * @param reverse the function to map elements of FunctionList back to
+     *      element values in the source list, or <code>null</code>
+     * @param maxCacheSize the maximum number of transformed values to keep
+     */
+    public FunctionList(EventList<S> source, Function<S,E> forward, Function<E,S> reverse, int maxCacheSize) {
+        super(source);
+
+        if (maxCacheSize < 1)
+            throw new IllegalArgumentException("maxCacheSize must be positive: " + maxCacheSize);
+
+        updateForwardFunction(forward);
+        setReverseFunction(reverse);
+
+        // save a reference to the source elements
+        this.sourceElements = new ArrayList<S>(source);
+
+        // prepare a placeholder for each element, but transform nothing yet
+        this.mappedElements = null;
+        this.lazyElements = new ArrayList<LazyElement<S,E>>(source.size());
         for (int i = 0, n = source.size(); i < n; i++) {
-            this.mappedElements.add(forward(source.get(i)));
+            this.lazyElements.add(new LazyElement<S,E>(source.get(i)));
         }
+        this.lazyCache = new LazyElementCache(maxCacheSize);
 
         source.addListEventListener(this);
     }
@@ -146,6 +270,76 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
         return forward.reevaluate(s, e);
     }
 
+    /**
+     * Transforms each of the given source elements using the forward
+     * {@link Function}, in parallel chunks on the {@link #executor} if one
+     * is set and there are enough elements to make it worthwhile.
+     *
+     * @param sourceValues the source elements to be transformed
+     * @param previousValues the last prior result of transforming each source
+     *      element, or {@link #NOT_EVALUATED} if it has not been transformed
+     * @return the results of transforming the source elements, in order
+     */
+    @SuppressWarnings("unchecked")
+    private List<E> forwardAll(final List<S> sourceValues, final List<?> previousValues) {
+        final int n = sourceValues.size();
+        final Object[] results = new Object[n];
+
+        if (executor == null || n < PARALLEL_THRESHOLD) {
+            forwardRange(sourceValues, previousValues, results, 0, n);
+
+        } else {
+            final int chunkSize = Math.max(MIN_CHUNK_SIZE, n / (4 * Runtime.getRuntime().availableProcessors()));
+            final List<Future<?>> chunks = new ArrayList<Future<?>>(n / chunkSize + 1);
+            for (int start = 0; start < n; start += chunkSize) {
+                final int from = start;
+                final int to = Math.min(n, start + chunkSize);
+                chunks.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        forwardRange(sourceValues, previousValues, results, from, to);
+                    }
+                }));
+            }
+
+            // wait for every chunk, which also publishes its results to this thread
+            for (int i = 0; i < chunks.size(); i++) {
+                try {
+                    chunks.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while transforming elements", e);
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+
+        final List<E> transformed = new ArrayList<E>(n);
+        for (int i = 0; i < n; i++) {
+            transformed.add((E) results[i]);
+        }
+        return transformed;
+    }
+
+    /**
+     * Transforms the source elements in the range <code>[from, to)</code>
+     * into the same range of <code>results</code>.
+     */
+    @SuppressWarnings("unchecked")
+    private void forwardRange(List<S> sourceValues, List<?> previousValues, Object[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final Object previousValue = previousValues.get(i);
+            if (previousValue == NOT_EVALUATED)
+                results[i] = forward(sourceValues.get(i));
+            else
+                results[i] = forward((E) previousValue, sourceValues.get(i));
+        }
+    }
+
     /**
      * A convenience method to map a {@link FunctionList} element to a source
      * element using the reverse {@link Function}.
@@ -174,10 +368,24 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
 
         updates.beginEvent(true);
 
-        // remap all of the elements within source
-        for (int i = 0, n = source.size(); i < n; i++) {
-            final E oldValue = this.mappedElements.set(i, forward(source.get(i)));
-            updates.elementUpdated(i, oldValue);
+        if (lazyElements != null) {
+            // discard all cached values so they are evaluated with the new function
+            synchronized(lazyCache) {
+                for (int i = 0, n = lazyElements.size(); i < n; i++) {
+                    final LazyElement<S,E> lazyElement = lazyElements.get(i);
+                    updates.elementUpdated(i, lazyElement.getCurrentValue(), ListEvent.<E>unknownValue());
+                    lazyElement.evaluated = false;
+                    lazyElement.value = null;
+                }
+                lazyCache.clear();
+            }
+        } else {
+            // remap all of the elements within source
+            final List<E> newValues = forwardAll(sourceElements, Collections.nCopies(sourceElements.size(), NOT_EVALUATED));
+            for (int i = 0, n = newValues.size(); i < n; i++) {
+                final E oldValue = this.mappedElements.set(i, newValues.get(i));
+                updates.elementUpdated(i, oldValue);
+            }
         }
 
         updates.commitEvent();
@@ -239,6 +447,30 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
         return reverse;
     }
 
+    /**
+     * Changes the {@link ExecutorService} used to transform large batches of
+     * inserted or updated elements in parallel. The forward {@link Function}
+     * must be safe to call concurrently from the executor's threads.
+     *
+     * <p>Lazily evaluated FunctionLists transform elements as they are read,
+     * so they never use the executor.
+     *
+     * @param executor the executor to transform elements on, or
+     *      <code>null</code> to transform all elements on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the {@link ExecutorService} used to transform large batches of
+     * elements in parallel, or <code>null</code> if all elements are
+     * transformed on the calling thread.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected boolean isWritable() {
@@ -248,6 +480,11 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
     /** {@inheritDoc} */
     @Override
     public void listChanged(ListEvent<S> listChanges) {
+        if (lazyElements != null) {
+            lazyListChanged(listChanges);
+            return;
+        }
+
         updates.beginEvent(true);
 
         if (listChanges.isReordering()) {
@@ -260,13 +497,17 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
             updates.reorder(reorderMap);
 
         } else {
+            // with an executor, transform all inserted and updated elements up front
+            final List<E> transformedInAdvance = executor == null ? null : forwardChanges(listChanges);
+            int nextTransformed = 0;
+
             while (listChanges.next()) {
                 final int changeIndex = listChanges.getIndex();
                 final int changeType = listChanges.getType();
 
                 if (changeType == ListEvent.INSERT) {
                     final S newValue = source.get(changeIndex);
-                    final E newValueTransformed = forward(newValue);
+                    final E newValueTransformed = transformedInAdvance != null ? transformedInAdvance.get(nextTransformed++) : forward(newValue);
                     sourceElements.add(changeIndex, newValue);
                     mappedElements.add(changeIndex, newValueTransformed);
                     updates.elementInserted(changeIndex, newValueTransformed);
@@ -274,7 +515,7 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
                 } else if (changeType == ListEvent.UPDATE) {
                     final E oldValueTransformed = get(changeIndex);
                     final S newValue = source.get(changeIndex);
-                    final E newValueTransformed = forward(oldValueTransformed, newValue);
+                    final E newValueTransformed = transformedInAdvance != null ? transformedInAdvance.get(nextTransformed++) : forward(oldValueTransformed, newValue);
                     sourceElements.set(changeIndex, newValue);
                     mappedElements.set(changeIndex, newValueTransformed);
                     updates.elementUpdated(changeIndex, oldValueTransformed, newValueTransformed);
@@ -290,10 +531,161 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
         updates.commitEvent();
     }
 
+    /**
+     * Transforms all of the elements inserted or updated by the given
+     * <code>listChanges</code>, possibly in parallel. The changes are
+     * {@link ListEvent#reset() reset} afterwards so they may be applied.
+     *
+     * @return the transformed values, in the order of the changes
+     */
+    private List<E> forwardChanges(ListEvent<S> listChanges) {
+        final List<S> newValues = new ArrayList<S>();
+        final List<Object> previousValues = new ArrayList<Object>();
+
+        // changes arrive in increasing order, so the net number of inserts
+        // so far maps an index of the changed list to one of mappedElements
+        int offset = 0;
+        while (listChanges.next()) {
+            final int changeIndex = listChanges.getIndex();
+            final int changeType = listChanges.getType();
+
+            if (changeType == ListEvent.INSERT) {
+                newValues.add(source.get(changeIndex));
+                previousValues.add(NOT_EVALUATED);
+                offset++;
+            } else if (changeType == ListEvent.UPDATE) {
+                newValues.add(source.get(changeIndex));
+                previousValues.add(mappedElements.get(changeIndex - offset));
+            } else if (changeType == ListEvent.DELETE) {
+                offset--;
+            }
+        }
+        listChanges.reset();
+
+        return forwardAll(newValues, previousValues);
+    }
+
+    /**
+     * Handles a change to the source list when this list evaluates lazily.
+     * Inserted and updated elements are not transformed until they are read.
+     */
+    private void lazyListChanged(ListEvent<S> listChanges) {
+        updates.beginEvent(true);
+
+        synchronized(lazyCache) {
+            if (listChanges.isReordering()) {
+                final int[] reorderMap = listChanges.getReorderMap();
+                final List<S> originalSourceElements = new ArrayList<S>(sourceElements);
+                final List<LazyElement<S,E>> originalLazyElements = new ArrayList<LazyElement<S,E>>(lazyElements);
+                for (int i = 0; i < reorderMap.length; i++) {
+                    final int sourceIndex = reorderMap[i];
+                    sourceElements.set(i, originalSourceElements.get(sourceIndex));
+                    lazyElements.set(i, originalLazyElements.get(sourceIndex));
+                }
+                updates.reorder(reorderMap);
+
+            } else {
+                while (listChanges.next()) {
+                    final int changeIndex = listChanges.getIndex();
+                    final int changeType = listChanges.getType();
+
+                    if (changeType == ListEvent.INSERT) {
+                        final S newValue = source.get(changeIndex);
+                        sourceElements.add(changeIndex, newValue);
+                        lazyElements.add(changeIndex, new LazyElement<S,E>(newValue));
+                        updates.elementInserted(changeIndex, ListEvent.<E>unknownValue());
+
+                    } else if (changeType == ListEvent.UPDATE) {
+                        final LazyElement<S,E> lazyElement = lazyElements.get(changeIndex);
+                        final E oldValueTransformed = lazyElement.getCurrentValue();
+                        final S newValue = source.get(changeIndex);
+                        sourceElements.set(changeIndex, newValue);
+                        lazyElement.sourceValue = newValue;
+                        lazyElement.stale = true;
+                        updates.elementUpdated(changeIndex, oldValueTransformed, ListEvent.<E>unknownValue());
+
+                    } else if (changeType == ListEvent.DELETE) {
+                        sourceElements.remove(changeIndex);
+                        final LazyElement<S,E> lazyElement = lazyElements.remove(changeIndex);
+                        final E oldValueTransformed = lazyElement.getCurrentValue();
+                        if (lazyCache.remove(lazyElement) != null)
+                            forward.dispose(lazyElement.evaluatedSourceValue, lazyElement.value);
+                        updates.elementDeleted(changeIndex, oldValueTransformed);
+                    }
+                }
+            }
+        }
+
+        updates.commitEvent();
+    }
+
     /** {@inheritDoc} */
     @Override
     public E get(int index) {
-        return mappedElements.get(index);
+        if (lazyElements == null)
+            return mappedElements.get(index);
+
+        synchronized(lazyCache) {
+            final LazyElement<S,E> lazyElement = lazyElements.get(index);
+
+            // a current value is cached, so touch it to mark it recently used
+            if (lazyElement.evaluated && !lazyElement.stale) {
+                cacheHits++;
+                lazyCache.get(lazyElement);
+                return lazyElement.value;
+            }
+
+            // reevaluate a stale value, or evaluate an element for the first time
+            cacheMisses++;
+            final E value = lazyElement.evaluated ? forward(lazyElement.value, lazyElement.sourceValue) : forward(lazyElement.sourceValue);
+            lazyElement.value = value;
+            lazyElement.evaluatedSourceValue = lazyElement.sourceValue;
+            lazyElement.evaluated = true;
+            lazyElement.stale = false;
+            lazyCache.put(lazyElement, Boolean.TRUE);
+            return value;
+        }
+    }
+
+    /**
+     * Gets the total number of times that this list has returned a cached
+     * value rather than evaluating the forward {@link Function}. This is
+     * always <code>0</code> unless this list evaluates lazily.
+     *
+     * @return The number of times the cache satisfied a read
+     */
+    public int getCacheHits() {
+        if (lazyCache == null) return 0;
+        synchronized(lazyCache) {
+            return cacheHits;
+        }
+    }
+
+    /**
+     * Gets the total number of times that this list has evaluated the forward
+     * {@link Function} to satisfy a read. This is always <code>0</code> unless
+     * this list evaluates lazily.
+     *
+     * @return The number of times the cache couldn't satisfy a read
+     */
+    public int getCacheMisses() {
+        if (lazyCache == null) return 0;
+        synchronized(lazyCache) {
+            return cacheMisses;
+        }
+    }
+
+    /**
+     * Gets the ratio of cache hits to all reads. This is a number between 0
+     * and 1, where 0 means the cache is unused and 1 means the cache was used
+     * exclusively.
+     */
+    public float getCacheHitRatio() {
+        if (lazyCache == null) return 0.0F;
+        synchronized(lazyCache) {
+            if(cacheHits + cacheMisses == 0) return 0.0F;
+            return (float)cacheHits / (float)(cacheHits + cacheMisses);
+        }
     }
 
     /** {@inheritDoc} */
@@ -318,6 +710,67 @@ public final class FunctionList<S, E> extends TransformedList<S, E> implements R
         source.add(index, reverse(value));
     }
 
+    /**
+     * The state of a single element of a lazily evaluated FunctionList.
+     */
+    private static final class LazyElement<S,E> {
+        /** the source element to be transformed */
+        S sourceValue;
+
+        /** the last transformed value, valid only if {@link #evaluated} */
+        E value;
+
+        /** the source element that {@link #value} was transformed from, which differs from {@link #sourceValue} if {@link #stale} */
+        S evaluatedSourceValue;
+
+        /** <tt>true</tt> if {@link #value} holds a transformed value */
+        boolean evaluated;
+
+        /** <tt>true</tt> if the source element has changed since {@link #value} was transformed */
+        boolean stale;
+
+        LazyElement(S sourceValue) {
+            this.sourceValue = sourceValue;
+        }
+
+        /**
+         * Returns the transformed value if it is current, or
+         * {@link ListEvent#UNKNOWN_VALUE} otherwise.
+         */
+        E getCurrentValue() {
+            return evaluated && !stale ? value : ListEvent.<E>unknownValue();
+        }
+    }
+
+    /**
+     * A bounded, access-ordered cache of the lazily evaluated elements which
+     * hold a transformed value. The least recently read value is disposed
+     * and forgotten when the cache is full.
+     */
+    private final class LazyElementCache extends LinkedHashMap<LazyElement<S,E>, Boolean> {
+        private static final long serialVersionUID = -2394061286423176823L;
+
+        private final int maxSize;
+
+        LazyElementCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LazyElement<S,E>, Boolean> eldest) {
+            if (size() <= maxSize) return false;
+
+            final LazyElement<S,E> lazyElement = eldest.getKey();
+            forward.dispose(lazyElement.evaluatedSourceValue, lazyElement.value);
+            lazyElement.value = null;
+            lazyElement.evaluatedSourceValue = null;
+            lazyElement.evaluated = false;
+            lazyElement.stale = false;
+            return true;
+        }
+    }
+
     /**
      * A Function encapsulates the logic for transforming a list element into
      * any kind of Object. Implementations should typically create and return
@@ -8,8 +8,14 @@ import ca.odell.glazedlists.impl.adt.Barcode;
 import ca.odell.glazedlists.impl.adt.BarcodeIterator;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EventListener;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 /**
  * A list that fires update events whenever elements are modified in place.
@@ -20,6 +26,15 @@ import java.util.List;
  * which contains the necessary logic for registering and unregistering a
  * listener capable of detecting modifications to an observable list element.
  *
+ * <p>By default each call to {@link #elementChanged(Object)} fires its own
+ * {@link ListEvent}. When many properties of an element change in quick
+ * succession, this list may instead be configured via
+ * {@link #setCoalescingWindow(long)} to queue the changed elements and fire a
+ * single UPDATE event for all of them when the window elapses or when
+ * {@link #flush()} is called. When the window elapses, that event is fired
+ * on a background timer thread, unless an {@link Executor} is provided to
+ * fire it elsewhere, such as on the event dispatch thread.
+ *
  * <p><strong><font color="#FF0000">Warning:</font></strong> This class is
  * thread ready but not thread safe. See {@link EventList} for an example
  * of thread safe code.
@@ -93,6 +108,35 @@ public class ObservableElementList<E> extends TransformedList<E, E> {
      */
     private Barcode singleEventListenerRegistry = null;
 
+    /**
+     * The number of milliseconds to queue changed elements before broadcasting
+     * their updates. <code>0</code> indicates that coalescing is disabled and
+     * each change is broadcast immediately.
+     */
+    private long coalescingWindow = 0;
+
+    /**
+     * The elements which have changed but whose updates have not yet been
+     * broadcast. Elements are compared by identity, just like in
+     * {@link #elementChanged(Object)}. All access is guarded by this set's monitor.
+     */
+    private final Set<Object> pendingElements = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    /** the number of notifications received since the last flush */
+    private int pendingNotifications = 0;
+
+    /** the number of notifications which were merged into another notification's event */
+    private int coalescedNotifications = 0;
+
+    /** the Timer which flushes the pending elements, created on demand */
+    private Timer coalescingTimer = null;
+
+    /** <tt>true</tt> if a flush has been scheduled on the {@link #coalescingTimer} */
+    private boolean flushScheduled = false;
+
+    /** runs the flush when the coalescing window elapses, or null to run it on the {@link #coalescingTimer} */
+    private Executor flushExecutor = null;
+
     /**
      * Constructs an <code>ObservableElementList</code> which wraps the given
      * <code>source</code> and uses the given <code>elementConnector</code> to
@@ -374,6 +418,17 @@ public class ObservableElementList<E> extends TransformedList<E, E> {
      */
     @Override
     public void dispose() {
+        // discard any queued changes and stop the flushing thread
+        synchronized(pendingElements) {
+            pendingElements.clear();
+            pendingNotifications = 0;
+            if (coalescingTimer != null) {
+                coalescingTimer.cancel();
+                coalescingTimer = null;
+            }
+            flushScheduled = false;
+        }
+
         // remove all listeners from all list elements
         for (int i = 0, n = this.observedElements.size(); i < n; i++) {
             final E element = this.observedElements.get(i);
@@ -414,6 +469,21 @@ public class ObservableElementList<E> extends TransformedList<E, E> {
         if (this.observedElements == null)
             throw new IllegalStateException("This list has been disposed and can no longer be used.");
 
+        // queue the element to be broadcast later if we're coalescing
+        synchronized(pendingElements) {
+            if (coalescingWindow > 0) {
+                pendingElements.add(listElement);
+                pendingNotifications++;
+                if (!flushScheduled) {
+                    if (coalescingTimer == null)
+                        coalescingTimer = new Timer("ObservableElementList coalescing", true);
+                    coalescingTimer.schedule(new FlushTask(), coalescingWindow);
+                    flushScheduled = true;
+                }
+                return;
+            }
+        }
+
         getReadWriteLock().writeLock().lock();
         try {
             this.updates.beginEvent();
@@ -432,6 +502,152 @@ public class ObservableElementList<E> extends TransformedList<E, E> {
         }
     }
 
+    /**
+     * Set the number of milliseconds for which changed elements are queued
+     * before their updates are broadcast. All of the elements which change
+     * within the window are reported by a single {@link ListEvent}, so an
+     * element whose properties change several times in a row is only
+     * reported once. Use {@link #flush()} to broadcast the queued elements
+     * before the window elapses.
+     *
+     * <p>When the window elapses, the event is fired on a background timer
+     * thread, and not on the thread that changed the elements. So a list
+     * shown in Swing must be proxied to the event dispatch thread after this
+     * list, or use {@link #setCoalescingWindow(long, Executor)} instead.
+     *
+     * <p>Disabling coalescing flushes any elements which are still queued.
+     *
+     * @param coalescingWindow the number of milliseconds to queue changed
+     *      elements, or <code>0</code> to broadcast each change immediately,
+     *      which is the default
+     */
+    public void setCoalescingWindow(long coalescingWindow) {
+        setCoalescingWindow(coalescingWindow, null);
+    }
+
+    /**
+     * Set the number of milliseconds for which changed elements are queued
+     * before their updates are broadcast, and where they are broadcast when
+     * that window elapses.
+     *
+     * @param coalescingWindow the number of milliseconds to queue changed
+     *      elements, or <code>0</code> to broadcast each change immediately
+     * @param flushExecutor runs the {@link #flush()} when the window elapses,
+     *      such as an Executor that calls
+     *      {@link javax.swing.SwingUtilities#invokeLater} to fire the event
+     *      on the event dispatch thread, or <code>null</code> to fire it on a
+     *      background timer thread
+     * @see #setCoalescingWindow(long)
+     */
+    public void setCoalescingWindow(long coalescingWindow, Executor flushExecutor) {
+        if (coalescingWindow < 0)
+            throw new IllegalArgumentException("Coalescing window must not be negative: " + coalescingWindow);
+
+        synchronized(pendingElements) {
+            this.coalescingWindow = coalescingWindow;
+            this.flushExecutor = flushExecutor;
+            if (coalescingWindow == 0 && coalescingTimer != null) {
+                coalescingTimer.cancel();
+                coalescingTimer = null;
+                flushScheduled = false;
+            }
+        }
+        if (coalescingWindow == 0)
+            flush();
+    }
+
+    /**
+     * Get the number of milliseconds for which changed elements are queued
+     * before their updates are broadcast.
+     *
+     * @return the coalescing window, or <code>0</code> if each change is
+     *      broadcast immediately
+     */
+    public long getCoalescingWindow() {
+        synchronized(pendingElements) {
+            return coalescingWindow;
+        }
+    }
+
+    /**
+     * Broadcast a single {@link ListEvent} containing an update at every
+     * location of every element which has changed since the last flush.
+     * This method does nothing if no changes are queued.
+     *
+     * <p>Like {@link #elementChanged(Object)}, this method acquires the
+     * write lock for this list and may be called on any Thread.
+     */
+    public void flush() {
+        getReadWriteLock().writeLock().lock();
+        try {
+            final Set<Object> changed;
+            synchronized(pendingElements) {
+                if (pendingElements.isEmpty()) return;
+                changed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>(pendingElements.size()));
+                changed.addAll(pendingElements);
+                pendingElements.clear();
+                coalescedNotifications += pendingNotifications - 1;
+                pendingNotifications = 0;
+            }
+
+            // the list may have been disposed while the changes were queued
+            if (this.observedElements == null) return;
+
+            this.updates.beginEvent();
+
+            // locate all indexes containing any of the changed elements in a single pass
+            for (int i = 0, n = size(); i < n; i++) {
+                final E currentElement = get(i);
+                if (changed.contains(currentElement)) {
+                    this.updates.elementUpdated(i, currentElement, currentElement);
+                }
+            }
+
+            this.updates.commitEvent();
+        } finally {
+            getReadWriteLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of element change notifications which did not fire an
+     * event of their own because they were merged into a coalesced event.
+     * For example, if six properties of a single element change within the
+     * coalescing window, five notifications were coalesced.
+     *
+     * @return the number of coalesced notifications since this list was created
+     */
+    public int getCoalescedNotificationCount() {
+        synchronized(pendingElements) {
+            return coalescedNotifications;
+        }
+    }
+
+    /**
+     * Flushes the queued elements when the coalescing window elapses, on the
+     * {@link #flushExecutor} if there is one.
+     */
+    private class FlushTask extends TimerTask {
+        @Override
+        public void run() {
+            final Executor executor;
+            synchronized(pendingElements) {
+                flushScheduled = false;
+                executor = flushExecutor;
+            }
+            if (executor == null) {
+                flush();
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+        }
+    }
+
 
     /**
      * An interface defining the methods required for registering and
@@ -0,0 +1,433 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists;
+
+import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.impl.adt.Barcode;
+import ca.odell.glazedlists.impl.adt.BarcodeIterator;
+import ca.odell.glazedlists.impl.adt.barcode2.Element;
+import ca.odell.glazedlists.impl.adt.barcode2.SimpleTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An {@link EventList} that shows the first <code>k</code> elements of its
+ * source {@link EventList} in the order of a {@link Comparator}, such as the
+ * 100 largest trades out of millions. It produces the same elements as a
+ * {@link SortedList} limited by a {@link RangeList}, but without sorting
+ * elements that can never be shown.
+ *
+ * <p>This list tracks the best <code>2k</code> source elements in a small
+ * sorted tree and shows the first <code>k</code> of them. The additional
+ * <code>k</code> elements are an overflow that replaces shown elements as
+ * they are removed or become worse. Only when the overflow is exhausted
+ * does this list rescan all source elements to find the next best ones.
+ * All other source elements are recorded in a run-length encoded barcode,
+ * so memory use is proportional to <code>k</code> rather than to the size
+ * of the source list.
+ *
+ * <p>Elements which compare equally may be shown in any order.
+ *
+ * <p><strong><font color="#FF0000">Warning:</font></strong> This class is
+ * thread ready but not thread safe. See {@link EventList} for an example
+ * of thread safe code.
+ *
+ * <p><table border="1" width="100%" cellpadding="3" cellspacing="0">
+ * <tr class="TableHeadingColor"><td colspan=2><font size="+2"><b>EventList Overview</b></font></td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Writable:</b></td><td>yes</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Concurrency:</b></td><td>thread ready, not thread safe</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Performance:</b></td><td>reads: O(log k), writes O(log N + log k), removal of a shown element when the overflow is exhausted O(N log k)</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Memory:</b></td><td>O(k)</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Unit Tests:</b></td><td>TopKListTest</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Issues:</b></td><td>N/A</td></tr>
+ * </table>
+ *
+ * @see SortedList
+ * @see RangeList
+ */
+public final class TopKList<E> extends TransformedList<E, E> {
+
+    /** the only colour used in the trees */
+    private static final byte ALL_COLORS = 1;
+
+    /** the number of elements to show */
+    private final int k;
+
+    /** the number of source elements to track, including the overflow */
+    private final int capacity;
+
+    /** orders the source elements */
+    private final Comparator<? super E> comparator;
+
+    /**
+     * A barcode parallel to the source list. {@link Barcode#BLACK} marks a
+     * tracked element and {@link Barcode#WHITE} marks an element which is
+     * not better than any tracked element.
+     */
+    private final Barcode tracked = new Barcode();
+
+    /** the tracked elements in the order of the source list */
+    private final SimpleTree<Tracked<E>> unsorted = new SimpleTree<Tracked<E>>();
+
+    /** the tracked elements in the order of the comparator */
+    private final SimpleTree<Tracked<E>> sorted;
+
+    /** the number of times all source elements have been rescanned */
+    private int rescanCount = 0;
+
+    /**
+     * Creates a {@link TopKList} that shows the first <code>k</code> elements
+     * of the specified source {@link EventList} in the order of the specified
+     * {@link Comparator}.
+     *
+     * @param source the list of all elements
+     * @param comparator the order of the elements, where the smallest
+     *      elements are shown
+     * @param k the maximum number of elements to show
+     */
+    public TopKList(EventList<E> source, Comparator<? super E> comparator, int k) {
+        super(source);
+        if(comparator == null) throw new IllegalArgumentException("comparator cannot be null");
+        if(k < 1) throw new IllegalArgumentException("k must be positive: " + k);
+
+        this.comparator = comparator;
+        this.k = k;
+        this.capacity = k > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : 2 * k;
+        this.sorted = new SimpleTree<Tracked<E>>(new TrackedComparator<E>(comparator));
+
+        // consider every source element, without firing events
+        tracked.addWhite(0, source.size());
+        updates.beginEvent(true);
+        rescan();
+        updates.discardEvent();
+
+        source.addListEventListener(this);
+    }
+
+    /**
+     * Get the maximum number of elements shown by this list.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Get the number of times this list has scanned all of its source
+     * elements because too few elements were tracked to show <code>k</code>
+     * of them.
+     */
+    public int getRescanCount() {
+        return rescanCount;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return Math.min(k, sorted.size());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public E get(int index) {
+        if(index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return sorted.get(index).get().value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getSourceIndex(int mutationIndex) {
+        return sourceIndexOf(sorted.get(mutationIndex).get());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean isWritable() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void listChanged(ListEvent<E> listChanges) {
+        updates.beginEvent(true);
+
+        // the tracked elements are unchanged, only their source order differs
+        if(listChanges.isReordering()) {
+            reorder(listChanges.getReorderMap());
+            updates.commitEvent();
+            return;
+        }
+
+        while(listChanges.next()) {
+            final int changeIndex = listChanges.getIndex();
+            final int changeType = listChanges.getType();
+
+            if(changeType == ListEvent.INSERT) {
+                tracked.addWhite(changeIndex, 1);
+                considerWhite(changeIndex, source.get(changeIndex));
+
+            } else if(changeType == ListEvent.DELETE) {
+                if(tracked.get(changeIndex) == Barcode.BLACK) {
+                    final Tracked<E> element = unsorted.get(tracked.getBlackIndex(changeIndex)).get();
+                    removeTracked(element);
+                }
+                tracked.remove(changeIndex, 1);
+
+            } else if(changeType == ListEvent.UPDATE) {
+                final E newValue = source.get(changeIndex);
+                if(tracked.get(changeIndex) == Barcode.BLACK) {
+                    final Tracked<E> element = unsorted.get(tracked.getBlackIndex(changeIndex)).get();
+                    updateTracked(element, newValue);
+                } else {
+                    considerWhite(changeIndex, newValue);
+                }
+            }
+        }
+
+        // the overflow is exhausted, so find the next best elements
+        if(sorted.size() < k && tracked.whiteSize() > 0) rescan();
+
+        updates.commitEvent();
+    }
+
+    /**
+     * Track the untracked element at the specified source index if it is
+     * better than the worst tracked element, or if there is room for it and
+     * no other element could be better.
+     */
+    private void considerWhite(int sourceIndex, E value) {
+        final boolean room = sorted.size() < capacity && tracked.whiteSize() == 1;
+        if(!room && (sorted.size() == 0 || comparator.compare(value, worst().value) >= 0)) return;
+
+        tracked.setBlack(sourceIndex, 1);
+        addTracked(sourceIndex, value);
+
+        // make room by untracking the worst element, which is still no
+        // better than any other untracked element
+        if(sorted.size() > capacity) untrack(worst());
+    }
+
+    /**
+     * Handle the tracked element changing to the specified value.
+     */
+    private void updateTracked(Tracked<E> element, E newValue) {
+        final E worstValue = worst().value;
+
+        // an element worse than the worst is untracked, since untracked
+        // elements may be better than it
+        if(comparator.compare(newValue, worstValue) > 0 && tracked.whiteSize() > 0) {
+            untrack(element);
+            return;
+        }
+
+        // move the element to its new place in the sorted order
+        final int oldIndex = sorted.indexOfNode(element.sortedNode, ALL_COLORS);
+        final E oldValue = element.value;
+        sorted.remove(element.sortedNode);
+        element.value = newValue;
+        element.sortedNode = sorted.addInSortedOrder(ALL_COLORS, element, 1);
+        if(sorted.indexOfNode(element.sortedNode, ALL_COLORS) == oldIndex) {
+            if(oldIndex < k) updates.elementUpdated(oldIndex, oldValue, newValue);
+            return;
+        }
+
+        // the element has moved, so fire its removal and insert separately
+        // since each depends on the state of the tree at the time
+        sorted.remove(element.sortedNode);
+        fireRemoved(oldIndex, oldValue);
+        element.sortedNode = sorted.addInSortedOrder(ALL_COLORS, element, 1);
+        fireAdded(sorted.indexOfNode(element.sortedNode, ALL_COLORS), newValue);
+    }
+
+    /**
+     * Stop tracking the specified element, leaving it in the source list.
+     */
+    private void untrack(Tracked<E> element) {
+        final int sourceIndex = sourceIndexOf(element);
+        removeTracked(element);
+        tracked.setWhite(sourceIndex, 1);
+    }
+
+    /**
+     * Find the best untracked elements to fill the overflow. This is the only
+     * operation that reads every source element.
+     */
+    private void rescan() {
+        rescanCount++;
+        final int room = capacity - sorted.size();
+
+        // keep the best untracked elements in a heap whose head is the worst of them
+        final PriorityQueue<Candidate<E>> best = new PriorityQueue<Candidate<E>>(Math.min(room, tracked.whiteSize()) + 1, new CandidateComparator<E>(comparator));
+        for(BarcodeIterator i = tracked.iterator(); i.hasNextWhite(); ) {
+            i.nextWhite();
+            final int sourceIndex = i.getIndex();
+            final E value = source.get(sourceIndex);
+            if(best.size() < room) {
+                best.add(new Candidate<E>(sourceIndex, value));
+            } else if(comparator.compare(value, best.peek().value) < 0) {
+                best.poll();
+                best.add(new Candidate<E>(sourceIndex, value));
+            }
+        }
+
+        // track them in source order so the unsorted tree is built in order
+        final List<Candidate<E>> candidates = new ArrayList<Candidate<E>>(best);
+        Collections.sort(candidates);
+        for(int c = 0; c < candidates.size(); c++) {
+            final Candidate<E> candidate = candidates.get(c);
+            tracked.setBlack(candidate.sourceIndex, 1);
+            addTracked(candidate.sourceIndex, candidate.value);
+        }
+    }
+
+    /**
+     * Reorder the tracked elements to follow a reordering of the source list.
+     */
+    private void reorder(int[] reorderMap) {
+        // find the new source index of each tracked element
+        final List<Candidate<Tracked<E>>> moved = new ArrayList<Candidate<Tracked<E>>>(sorted.size());
+        for(int i = 0; i < reorderMap.length; i++) {
+            if(tracked.get(reorderMap[i]) == Barcode.BLACK) {
+                final Tracked<E> element = unsorted.get(tracked.getBlackIndex(reorderMap[i])).get();
+                moved.add(new Candidate<Tracked<E>>(i, element));
+            }
+        }
+
+        // rebuild the barcode and the source order, the sorted order is unchanged
+        tracked.clear();
+        tracked.addWhite(0, reorderMap.length);
+        unsorted.clear();
+        for(int m = 0; m < moved.size(); m++) {
+            final Candidate<Tracked<E>> element = moved.get(m);
+            tracked.setBlack(element.sourceIndex, 1);
+            element.value.unsortedNode = unsorted.add(m, element.value, 1);
+        }
+    }
+
+    /**
+     * Start tracking the element at the specified source index, which must
+     * already be black in the {@link #tracked} barcode.
+     */
+    private void addTracked(int sourceIndex, E value) {
+        final Tracked<E> element = new Tracked<E>(value);
+        element.unsortedNode = unsorted.add(tracked.getBlackIndex(sourceIndex), element, 1);
+        element.sortedNode = sorted.addInSortedOrder(ALL_COLORS, element, 1);
+        fireAdded(sorted.indexOfNode(element.sortedNode, ALL_COLORS), value);
+    }
+
+    /**
+     * Stop tracking the specified element. The caller is responsible for the
+     * {@link #tracked} barcode.
+     */
+    private void removeTracked(Tracked<E> element) {
+        final int sortedIndex = sorted.indexOfNode(element.sortedNode, ALL_COLORS);
+        sorted.remove(element.sortedNode);
+        unsorted.remove(element.unsortedNode);
+        fireRemoved(sortedIndex, element.value);
+    }
+
+    /**
+     * Fire the events for a tracked element which has been added at the
+     * specified sorted index. That may push the last shown element into the
+     * overflow.
+     */
+    private void fireAdded(int sortedIndex, E value) {
+        if(sortedIndex >= k) return;
+        updates.elementInserted(sortedIndex, value);
+        if(sorted.size() > k) updates.elementDeleted(k, sorted.get(k).get().value);
+    }
+
+    /**
+     * Fire the events for a tracked element which has been removed from the
+     * specified sorted index. That may pull the first overflow element into
+     * view.
+     */
+    private void fireRemoved(int sortedIndex, E value) {
+        if(sortedIndex >= k) return;
+        updates.elementDeleted(sortedIndex, value);
+        if(sorted.size() >= k) updates.elementInserted(k - 1, sorted.get(k - 1).get().value);
+    }
+
+    /**
+     * Get the worst tracked element.
+     */
+    private Tracked<E> worst() {
+        return sorted.get(sorted.size() - 1).get();
+    }
+
+    /**
+     * Get the index in the source list of the specified tracked element.
+     */
+    private int sourceIndexOf(Tracked<E> element) {
+        return tracked.getIndex(unsorted.indexOfNode(element.unsortedNode, ALL_COLORS), Barcode.BLACK);
+    }
+
+    /**
+     * A tracked source element, which is a node in both the unsorted and
+     * sorted trees.
+     */
+    private static final class Tracked<E> {
+        private E value;
+        private Element<Tracked<E>> unsortedNode;
+        private Element<Tracked<E>> sortedNode;
+
+        Tracked(E value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Compares tracked elements by their values.
+     */
+    private static final class TrackedComparator<E> implements Comparator<Tracked<E>> {
+        private final Comparator<? super E> comparator;
+
+        TrackedComparator(Comparator<? super E> comparator) {
+            this.comparator = comparator;
+        }
+
+        @Override
+        public int compare(Tracked<E> a, Tracked<E> b) {
+            return comparator.compare(a.value, b.value);
+        }
+    }
+
+    /**
+     * A value at a source index, naturally ordered by that index.
+     */
+    private static final class Candidate<V> implements Comparable<Candidate<V>> {
+        private final int sourceIndex;
+        private final V value;
+
+        Candidate(int sourceIndex, V value) {
+            this.sourceIndex = sourceIndex;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Candidate<V> other) {
+            return sourceIndex - other.sourceIndex;
+        }
+    }
+
+    /**
+     * Orders candidates from worst to best, so the head of a
+     * {@link PriorityQueue} is the worst candidate.
+     */
+    private static final class CandidateComparator<E> implements Comparator<Candidate<E>> {
+        private final Comparator<? super E> comparator;
+
+        CandidateComparator(Comparator<? super E> comparator) {
+            this.comparator = comparator;
+        }
+
+        @Override
+        public int compare(Candidate<E> a, Candidate<E> b) {
+            return comparator.compare(b.value, a.value);
+        }
+    }
+}
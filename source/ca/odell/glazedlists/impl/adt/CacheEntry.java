@@ -0,0 +1,60 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.adt;
+
+/**
+ * A cached value. Each entry is linked into exactly one of the queues of its
+ * {@link CachePolicy}, so that it can be moved or removed in constant time.
+ */
+public final class CacheEntry {
+
+    /** The corresponding node in the index tree */
+    private SparseListNode indexNode = null;
+
+    /** The cached value */
+    private final Object value;
+
+    /** The share of the cache's capacity used by this entry */
+    private final int weight;
+
+    /** The neighbours of this entry in its queue */
+    CacheEntry previous = null;
+    CacheEntry next = null;
+
+    /** The queue holding this entry, as known by its policy */
+    int queue = -1;
+
+    /**
+     * Creates a new CacheEntry for the specified value.
+     */
+    public CacheEntry(Object value, int weight) {
+        if(weight < 0) throw new IllegalArgumentException("weight must be non-negative: " + weight);
+        this.value = value;
+        this.weight = weight;
+    }
+
+    /**
+     * Gets the cached value.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the share of the cache's capacity used by this entry.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Gets the node in the index tree that refers to this entry.
+     */
+    public SparseListNode getIndexNode() {
+        return indexNode;
+    }
+    public void setIndexNode(SparseListNode indexNode) {
+        this.indexNode = indexNode;
+    }
+}
@@ -0,0 +1,311 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.adt;
+
+/**
+ * Decides which {@link CacheEntry} to evict when a cache is full.
+ *
+ * <p>Entries are kept in intrusive doubly-linked queues, so that adding,
+ * accessing and removing an entry all take constant time and allocate
+ * nothing.
+ */
+public abstract class CachePolicy {
+
+    /** the total weight of the entries held */
+    protected long weight = 0;
+
+    /**
+     * Creates a policy that evicts the least recently used entry.
+     */
+    public static CachePolicy leastRecentlyUsed() {
+        return new LeastRecentlyUsed();
+    }
+
+    /**
+     * Creates a policy that admits new entries through a small window, and
+     * only keeps them if they are requested more often than the entries they
+     * would replace. This keeps a frequently used working set cached when
+     * many entries are requested just once, such as during a scroll through
+     * the whole list.
+     *
+     * @param maxWeight the total weight of the entries that the cache holds.
+     */
+    public static CachePolicy windowTinyLFU(long maxWeight) {
+        return new WindowTinyLFU(maxWeight);
+    }
+
+    /**
+     * Gets the total weight of the entries held by this policy.
+     */
+    public final long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Records that the element at the specified index has been requested,
+     * whether it was cached or not.
+     */
+    public void recordRequest(int index) {
+        // only frequency-aware policies care
+    }
+
+    /**
+     * Adds a newly cached entry.
+     */
+    public abstract void add(CacheEntry entry);
+
+    /**
+     * Records that the specified cached entry has been requested.
+     */
+    public abstract void access(CacheEntry entry);
+
+    /**
+     * Removes the specified entry, which is no longer cached.
+     */
+    public abstract void remove(CacheEntry entry);
+
+    /**
+     * Chooses an entry to evict and removes it.
+     *
+     * @return the evicted entry, or <code>null</code> if this policy holds
+     *      no entries.
+     */
+    public abstract CacheEntry evict();
+
+    /**
+     * Holds entries in order of last access.
+     */
+    private static class LeastRecentlyUsed extends CachePolicy {
+        private final Queue queue = new Queue(0);
+
+        @Override
+        public void add(CacheEntry entry) {
+            queue.addLast(entry);
+            weight += entry.getWeight();
+        }
+        @Override
+        public void access(CacheEntry entry) {
+            queue.moveToLast(entry);
+        }
+        @Override
+        public void remove(CacheEntry entry) {
+            queue.remove(entry);
+            weight -= entry.getWeight();
+        }
+        @Override
+        public CacheEntry evict() {
+            CacheEntry eldest = queue.first();
+            if(eldest != null) remove(eldest);
+            return eldest;
+        }
+    }
+
+    /**
+     * New entries go into a small LRU window. When the window overflows, its
+     * eldest entry becomes a candidate for the main space, which is a segmented
+     * LRU. The candidate is only kept if it has been requested more often than
+     * the eldest entry of the main space, as estimated by a {@link FrequencySketch}.
+     * Entries that are accessed again while on probation in the main space are
+     * protected from eviction until they age out of the protected segment.
+     */
+    private static class WindowTinyLFU extends CachePolicy {
+        private static final int WINDOW = 0;
+        private static final int PROBATION = 1;
+        private static final int PROTECTED = 2;
+
+        private final Queue window = new Queue(WINDOW);
+        private final Queue probation = new Queue(PROBATION);
+        private final Queue protectedQueue = new Queue(PROTECTED);
+
+        /** the most each of the bounded queues may hold */
+        private final long maxWindowWeight;
+        private final long maxMainWeight;
+        private final long maxProtectedWeight;
+
+        /** how often each index has been requested recently */
+        private final FrequencySketch sketch;
+
+        WindowTinyLFU(long maxWeight) {
+            maxWindowWeight = Math.max(1, maxWeight / 100);
+            maxMainWeight = maxWeight - maxWindowWeight;
+            maxProtectedWeight = maxMainWeight * 8 / 10;
+            sketch = new FrequencySketch((int)Math.min(Math.max(maxWeight, 16), 1 << 16));
+        }
+
+        @Override
+        public void recordRequest(int index) {
+            sketch.increment(index);
+        }
+        @Override
+        public void add(CacheEntry entry) {
+            window.addLast(entry);
+            weight += entry.getWeight();
+        }
+        @Override
+        public void access(CacheEntry entry) {
+            if(entry.queue == WINDOW) {
+                window.moveToLast(entry);
+            } else if(entry.queue == PROTECTED) {
+                protectedQueue.moveToLast(entry);
+
+            // promote from probation, demoting the eldest protected entries
+            } else {
+                probation.remove(entry);
+                protectedQueue.addLast(entry);
+                while(protectedQueue.getWeight() > maxProtectedWeight) {
+                    CacheEntry demoted = protectedQueue.first();
+                    protectedQueue.remove(demoted);
+                    probation.addLast(demoted);
+                }
+            }
+        }
+        @Override
+        public void remove(CacheEntry entry) {
+            if(entry.queue == WINDOW) window.remove(entry);
+            else if(entry.queue == PROBATION) probation.remove(entry);
+            else protectedQueue.remove(entry);
+            weight -= entry.getWeight();
+        }
+        @Override
+        public CacheEntry evict() {
+            // the window's overflow moves into the main space while there's room
+            while(window.getWeight() > maxWindowWeight) {
+                CacheEntry overflow = window.first();
+                if(probation.getWeight() + protectedQueue.getWeight() + overflow.getWeight() > maxMainWeight) break;
+                window.remove(overflow);
+                probation.addLast(overflow);
+            }
+
+            // without an overflowing window, evict from the main space
+            if(window.getWeight() <= maxWindowWeight) {
+                CacheEntry eldest = probation.first();
+                if(eldest == null) eldest = protectedQueue.first();
+                if(eldest == null) eldest = window.first();
+                if(eldest != null) remove(eldest);
+                return eldest;
+            }
+
+            // the window's eldest entry competes with the main space's eldest
+            CacheEntry candidate = window.first();
+            window.remove(candidate);
+            probation.addLast(candidate);
+            CacheEntry victim = probation.first();
+            if(victim == candidate) victim = protectedQueue.first();
+
+            CacheEntry evicted;
+            if(victim == null || frequency(candidate) <= frequency(victim)) evicted = candidate;
+            else evicted = victim;
+            remove(evicted);
+            return evicted;
+        }
+        private int frequency(CacheEntry entry) {
+            return sketch.frequency(entry.getIndexNode().getIndex());
+        }
+    }
+
+    /**
+     * An intrusive doubly-linked queue of entries, eldest first.
+     */
+    private static final class Queue {
+        private final int id;
+        private CacheEntry first = null;
+        private CacheEntry last = null;
+        private long weight = 0;
+
+        Queue(int id) {
+            this.id = id;
+        }
+        CacheEntry first() {
+            return first;
+        }
+        CacheEntry last() {
+            return last;
+        }
+        long getWeight() {
+            return weight;
+        }
+        void addLast(CacheEntry entry) {
+            entry.queue = id;
+            entry.previous = last;
+            entry.next = null;
+            if(last != null) last.next = entry;
+            else first = entry;
+            last = entry;
+            weight += entry.getWeight();
+        }
+        void remove(CacheEntry entry) {
+            if(entry.previous != null) entry.previous.next = entry.next;
+            else first = entry.next;
+            if(entry.next != null) entry.next.previous = entry.previous;
+            else last = entry.previous;
+            entry.previous = null;
+            entry.next = null;
+            entry.queue = -1;
+            weight -= entry.getWeight();
+        }
+        void moveToLast(CacheEntry entry) {
+            if(entry == last) return;
+            remove(entry);
+            addLast(entry);
+        }
+    }
+
+    /**
+     * Estimates how often each index has been requested recently, in a fixed
+     * amount of memory. This is a count-min sketch of 4-bit counters that are
+     * halved periodically so that old requests are forgotten.
+     */
+    static final class FrequencySketch {
+        private static final int[] SEEDS = { 0x97CB3127, 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35 };
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] counts;
+        private final int mask;
+
+        /** the number of increments before the counters are halved */
+        private final int sampleSize;
+        private int increments = 0;
+
+        FrequencySketch(int capacity) {
+            // 16 counters per entry keeps collisions between entries rare
+            int size = (Integer.highestOneBit(capacity - 1) << 1) * 16;
+            counts = new byte[size];
+            mask = size - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        void increment(int key) {
+            int frequency = frequency(key);
+            if(frequency == MAX_COUNT) return;
+
+            // increment only the smallest counters, which overestimate the least
+            for(int row = 0; row < SEEDS.length; row++) {
+                int slot = slot(key, row);
+                if(counts[slot] == frequency) counts[slot]++;
+            }
+            if(++increments == sampleSize) age();
+        }
+
+        int frequency(int key) {
+            int frequency = MAX_COUNT;
+            for(int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counts[slot(key, row)]);
+            }
+            return frequency;
+        }
+
+        private void age() {
+            for(int i = 0; i < counts.length; i++) counts[i] >>= 1;
+            increments /= 2;
+        }
+
+        private int slot(int key, int row) {
+            int hash = (key + SEEDS[row]) * 0x9E3779B9;
+            hash ^= hash >>> 15;
+            hash *= 0x2C1B3C6D;
+            hash ^= hash >>> 13;
+            return hash & mask;
+        }
+    }
+}
@@ -31,8 +31,17 @@ import java.util.logging.Logger;
  * <li>it can read and write only chunked-encoding
  * <li>it can only read and write a single URI, "/glazedlists"
  * <li>as a client, it sends only the headers, "Host", "Transfer-Encoding"
- * <li>as a server, it sends only the header, "Transfer-Encoding"
- * <li>it interprets only the header, "Transfer-Encoding".
+ *     and "Accept-Chunk-Encoding"
+ * <li>as a server, it sends only the headers, "Transfer-Encoding" and
+ *     "Chunk-Encoding"
+ * <li>it interprets only the headers, "Transfer-Encoding", "Host",
+ *     "Accept-Chunk-Encoding" and "Chunk-Encoding".
+ *
+ * <p>The "Accept-Chunk-Encoding" and "Chunk-Encoding" headers are not part of
+ * HTTP/1.1. They negotiate the compression of the data within each chunk: a
+ * client that can decompress chunks offers "deflate", and a server that agrees
+ * replies with the same value. Peers that don't know these headers ignore
+ * them, so that connections to them are not compressed.
  *
  * @author <a href="mailto:jesse@swank.ca">Jesse Wilson</a>
  */
@@ -102,8 +111,11 @@ public final class CTPConnection implements NIOAttachment {
     /** the channel where communication occurs */
     SocketChannel socketChannel = null;
 
-    /** parse the input channel */
-    private Bufferlo parser;
+    /** read the input channel */
+    private Bufferlo reader;
+
+    /** parse the framing of the input channel */
+    private CTPParser parser = new CTPParser();
 
     /** write the output channel */
     Bufferlo writer;
@@ -126,6 +138,14 @@ public final class CTPConnection implements NIOAttachment {
     /** if our source is not chunked, we have to break up chunks arbitrarily */
     boolean sourceChunked = false;
 
+    /** headers that negotiate chunk compression */
+    static final String ACCEPT_CHUNK_ENCODING = "Accept-Chunk-Encoding";
+    static final String CHUNK_ENCODING = "Chunk-Encoding";
+    static final String DEFLATE = "deflate";
+
+    /** compresses the chunks of this connection, or null if they are sent as is */
+    ChunkCompressor compressor = null;
+
     /**
      * Creates a new CTPConnection.
      *
@@ -138,7 +158,7 @@ public final class CTPConnection implements NIOAttachment {
         this.handler = handler;
         this.manager = manager;
         this.socketChannel = (SocketChannel)selectionKey.channel();
-        this.parser = new Bufferlo();
+        this.reader = new Bufferlo();
         this.writer = new Bufferlo();
     }
 
@@ -188,7 +208,7 @@ public final class CTPConnection implements NIOAttachment {
     public void handleRead() {
         // read at least a byte of data
         try {
-            int bytesIn = parser.readFromChannel(socketChannel);
+            int bytesIn = reader.readFromChannel(socketChannel);
             if(bytesIn < 0) throw new EOFException("End of stream");
         } catch(IOException e) {
             close(e);
@@ -247,7 +267,8 @@ public final class CTPConnection implements NIOAttachment {
             logger.fine("Opened connection to " + this);
             selectionKey.interestOps(SelectionKey.OP_READ);
             state = STATE_CLIENT_CONSTRUCTING_REQUEST;
-            sendRequest(CTP_URI, Collections.EMPTY_MAP);
+            if(manager.isCompressionEnabled()) sendRequest(CTP_URI, Collections.singletonMap(ACCEPT_CHUNK_ENCODING, DEFLATE));
+            else sendRequest(CTP_URI, Collections.EMPTY_MAP);
 
         // the connection is successful for a server
         } else if(state == STATE_SERVER_AWAITING_CONNECT) {
@@ -310,23 +331,25 @@ public final class CTPConnection implements NIOAttachment {
 
         try {
             // if the entire header has not loaded, load more
-            if(parser.indexOf("\\r\\n\\r\\n") == -1) return false;
+            if(!parser.readHeader(reader)) return false;
 
-            // parse the status line
-            parser.consume("POST( )+");
-            String uri = parser.readUntil("( )+");
-            parser.consume("HTTP\\/1\\.1 *");
-            parser.consume("\\r\\n");
+            // parse the request line
+            String[] requestLine = splitStartLine(parser.getStartLine());
+            if(!"POST".equals(requestLine[0]) || !"HTTP/1.1".equals(requestLine[2])) throw new ParseException("Unexpected request line " + parser.getStartLine(), 0);
+            String uri = requestLine[1];
 
             // parse the headers
-            Map headers = readHeaders();
-            handleHeaders(headers);
-            parser.consume("\\r\\n");
+            handleHeaders(parser.getHeaders());
 
-            // handle the request
+            // handle the request, compressing chunks if both parties can
             if(CTP_URI.equals(uri)) {
                 state = STATE_SERVER_CONSTRUCTING_RESPONSE;
-                sendResponse(RESPONSE_OK, Collections.EMPTY_MAP);
+                if(sourceChunked && manager.isCompressionEnabled() && DEFLATE.equals(parser.getHeaders().get(ACCEPT_CHUNK_ENCODING))) {
+                    compressor = new ChunkCompressor();
+                    sendResponse(RESPONSE_OK, Collections.singletonMap(CHUNK_ENCODING, DEFLATE));
+                } else {
+                    sendResponse(RESPONSE_OK, Collections.EMPTY_MAP);
+                }
                 return true;
             } else {
                 close(new Exception("Could not find URI \"" + uri + "\""));
@@ -336,9 +359,6 @@ public final class CTPConnection implements NIOAttachment {
         } catch(ParseException e) {
             close(new IOException("Failed to decode HTTP request, " + e.getMessage()));
             return false;
-        } catch(IOException e) {
-            close(e);
-            return false;
         }
     }
 
@@ -396,21 +416,19 @@ public final class CTPConnection implements NIOAttachment {
 
         try {
             // if the entire header has not loaded, load more
-            if(parser.indexOf("\\r\\n\\r\\n") == -1) return false;
+            if(!parser.readHeader(reader)) return false;
 
             // parse the status line
-            parser.consume("HTTP\\/1\\.1( )+");
-            String codeString = parser.readUntil("( )+");
-            int code = Integer.parseInt(codeString);
-            String description = parser.readUntil("\\r\\n");
+            String[] statusLine = splitStartLine(parser.getStartLine());
+            if(!"HTTP/1.1".equals(statusLine[0])) throw new ParseException("Unexpected status line " + parser.getStartLine(), 0);
+            int code = Integer.parseInt(statusLine[1]);
 
             // parse the headers
-            Map headers = readHeaders();
-            handleHeaders(headers);
-            parser.consume("\\r\\n");
+            handleHeaders(parser.getHeaders());
 
             // handle the response
             if(code == RESPONSE_OK) {
+                if(sourceChunked && DEFLATE.equals(parser.getHeaders().get(CHUNK_ENCODING))) compressor = new ChunkCompressor();
                 logger.info("Established connection to " + this);
                 state = STATE_READY;
                 handler.connectionReady(this);
@@ -426,9 +444,6 @@ public final class CTPConnection implements NIOAttachment {
         } catch(NumberFormatException e) {
             close(new IOException("Failed to decode HTTP request, " + e.getMessage()));
             return false;
-        } catch(IOException e) {
-            close(e);
-            return false;
         }
     }
 
@@ -463,27 +478,13 @@ public final class CTPConnection implements NIOAttachment {
     private boolean handleChunk() {
         try {
             if(sourceChunked) {
-                // if the chunk size has not loaded, load more
-                int chunkEndIndex = parser.indexOf("\\r\\n");
-                if(chunkEndIndex == -1) return false;
-
-                // calculate the chunk size
-                String chunkSizeInHex = parser.readUntil("(\\;[^\\r\\n]*)?\\r\\n", false);
-                int chunkSize = Integer.parseInt(chunkSizeInHex, 16);
-
                 // if the full chunk has not loaded, load more
-                int bytesRequired = chunkEndIndex + 2 + chunkSize + 2;
-                if(parser.length() < bytesRequired) {
-                    return false;
-                }
-
-                // load the chunk
-                parser.consume("[^\\r\\n]*\\r\\n");
-                Bufferlo chunkData = parser.consume(chunkSize);
-                parser.consume("\\r\\n");
+                Bufferlo chunkData = parser.readChunk(reader);
+                if(chunkData == null) return false;
 
                 // handle the chunk
                 if(chunkData.length() > 0) {
+                    if(compressor != null) chunkData = compressor.decompress(chunkData);
                     handler.receiveChunk(this, chunkData);
                     return true;
                 } else {
@@ -492,7 +493,7 @@ public final class CTPConnection implements NIOAttachment {
                 }
 
             } else {
-                Bufferlo chunkData = parser.consume(parser.length());
+                Bufferlo chunkData = reader.consume(reader.length());
 
                 // handle the simulated chunk
                 if(chunkData.length() > 0) {
@@ -503,12 +504,12 @@ public final class CTPConnection implements NIOAttachment {
                 }
             }
 
-        } catch(NumberFormatException e) {
-            close(new IOException("Failed to decode HTTP request, " + e.getMessage()));
-            return false;
         } catch(ParseException e) {
             close(new IOException("Failed to decode HTTP request, " + e.getMessage()));
             return false;
+        } catch(IOException e) {
+            close(e);
+            return false;
         }
     }
 
@@ -560,17 +561,14 @@ public final class CTPConnection implements NIOAttachment {
     }
 
     /**
-     * Reads the headers, one per line in standard HTTP form.
+     * Splits a request or status line into its three space-separated parts.
+     * The last part of a status line may contain spaces.
      */
-    private Map readHeaders() throws IOException, ParseException {
-        Map headers = new TreeMap();
-        while(true) {
-            if(parser.indexOf("\\r\\n") == 0) break;
-            String key = parser.readUntil("\\:( )*");
-            String value = parser.readUntil("\\r\\n");
-            headers.put(key, value);
-        }
-        return headers;
+    private static String[] splitStartLine(String startLine) throws ParseException {
+        String[] parts = startLine.trim().split(" +", 3);
+        if(parts.length < 2) throw new ParseException("Malformed start line " + startLine, 0);
+        if(parts.length == 2) return new String[] { parts[0], parts[1], "" };
+        return parts;
     }
 
     /**
@@ -12,6 +12,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The CTPConnectionManager provides managed access to multiple CTP connections
@@ -37,6 +38,13 @@ public final class CTPConnectionManager implements NIOServer {
     /** the I/O event queue daemon */
     private NIODaemon nioDaemon = null;
 
+    /** whether new connections offer or accept compressed chunks */
+    private volatile boolean compressionEnabled = true;
+
+    /** the size of the chunks sent, before and after compression */
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+
     /**
      * Creates a connection manager that handles incoming connections using the
      * specified connect handler. This binds to the default port.
@@ -95,6 +103,40 @@ public final class CTPConnectionManager implements NIOServer {
         return nioDaemon;
     }
 
+    /**
+     * Sets whether new connections compress their chunks, when the remote party
+     * supports it. This does not change connections that are already open.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * Gets the total size of all chunks sent, before they were compressed.
+     */
+    public long getBytesBeforeCompression() {
+        return bytesBeforeCompression.get();
+    }
+
+    /**
+     * Gets the total size of all chunks sent, after they were compressed. For
+     * connections that are not compressed, this is the same as their size before.
+     */
+    public long getBytesAfterCompression() {
+        return bytesAfterCompression.get();
+    }
+
+    /**
+     * Records that a chunk has been sent.
+     */
+    void chunkSent(int uncompressedLength, int compressedLength) {
+        bytesBeforeCompression.addAndGet(uncompressedLength);
+        bytesAfterCompression.addAndGet(compressedLength);
+    }
+
     /**
      * Handle an incoming connection.
      *
@@ -0,0 +1,203 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.ctp;
+
+// NIO is used for CTP
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parses the HTTP/1.1 framing of the Chunked Transfer Protocol directly from
+ * the bytes of a {@link Bufferlo}.
+ *
+ * <p>The parser is incremental: when the input holds only part of a header or
+ * chunk, it consumes what it can and remembers where it stopped, so that no
+ * byte is examined twice as more input arrives.
+ */
+final class CTPParser {
+
+    /** the states of parsing a chunk */
+    private static final int STATE_SIZE = 0;
+    private static final int STATE_EXTENSION = 1;
+    private static final int STATE_SIZE_LF = 2;
+    private static final int STATE_DATA = 3;
+    private static final int STATE_DATA_CR = 4;
+    private static final int STATE_DATA_LF = 5;
+
+    /** the largest chunk size that can be accumulated without overflow */
+    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE / 16;
+
+    /** the blank line that ends a header */
+    private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+    /** the bytes of the current header scanned so far */
+    private int headerScanned = 0;
+
+    /** how many bytes of the header end have been matched */
+    private int headerEndMatched = 0;
+
+    /** the first line of the last header read */
+    private String startLine = null;
+
+    /** the fields of the last header read */
+    private Map headers = null;
+
+    /** the state of the chunk being parsed */
+    private int chunkState = STATE_SIZE;
+
+    /** the size of the chunk being parsed, as read so far */
+    private int chunkSize = 0;
+
+    /** whether the chunk size has any digits */
+    private boolean chunkSizeRead = false;
+
+    /** the data of the chunk being parsed, once read */
+    private Bufferlo chunkData = null;
+
+    /**
+     * Reads a request or response header from the specified input, up to and
+     * including the blank line that ends it.
+     *
+     * @return true if the whole header has been read, or false if more input
+     *      is required. Once true, the header is available from
+     *      {@link #getStartLine()} and {@link #getHeaders()}.
+     */
+    boolean readHeader(Bufferlo input) throws ParseException {
+        // find the blank line, resuming where we left off
+        int available = input.length();
+        while(headerEndMatched < HEADER_END.length && headerScanned < available) {
+            byte b = input.get(headerScanned++);
+            if(b == HEADER_END[headerEndMatched]) headerEndMatched++;
+            else if(b == '\r') headerEndMatched = 1;
+            else headerEndMatched = 0;
+        }
+        if(headerEndMatched < HEADER_END.length) return false;
+
+        // split the header into lines
+        String header = toAscii(input.consumeBytes(headerScanned));
+        headerScanned = 0;
+        headerEndMatched = 0;
+        int lineEnd = header.indexOf("\r\n");
+        startLine = header.substring(0, lineEnd);
+        headers = new TreeMap();
+        for(int lineStart = lineEnd + 2; lineStart < header.length() - 2; lineStart = lineEnd + 2) {
+            lineEnd = header.indexOf("\r\n", lineStart);
+            int colon = header.indexOf(':', lineStart);
+            if(colon == -1 || colon > lineEnd) throw new ParseException("Malformed header line: " + header.substring(lineStart, lineEnd), lineStart);
+            int valueStart = colon + 1;
+            while(valueStart < lineEnd && header.charAt(valueStart) == ' ') valueStart++;
+            headers.put(header.substring(lineStart, colon), header.substring(valueStart, lineEnd));
+        }
+        return true;
+    }
+
+    /**
+     * Gets the first line of the last header read, such as the request line
+     * <code>POST /glazedlists HTTP/1.1</code>.
+     */
+    String getStartLine() {
+        return startLine;
+    }
+
+    /**
+     * Gets the fields of the last header read, as a Map of String names to
+     * String values.
+     */
+    Map getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Reads a chunk from the specified input. The chunk size line, the data and
+     * the line break that follows it are consumed.
+     *
+     * @return the chunk's data, which is empty for the last chunk of the stream,
+     *      or <code>null</code> if more input is required.
+     */
+    Bufferlo readChunk(Bufferlo input) throws ParseException {
+        int available = input.length();
+        int position = 0;
+        while(true) {
+            // take the data all at once, without looking at it
+            if(chunkState == STATE_DATA) {
+                input.skip(position);
+                available -= position;
+                position = 0;
+                if(available < chunkSize) return null;
+                chunkData = input.consume(chunkSize);
+                available -= chunkSize;
+                chunkState = STATE_DATA_CR;
+                continue;
+            }
+
+            // everything else is a byte at a time
+            if(position == available) {
+                input.skip(position);
+                return null;
+            }
+            byte b = input.get(position++);
+
+            if(chunkState == STATE_SIZE) {
+                int digit = Character.digit((char)b, 16);
+                if(digit != -1) {
+                    if(chunkSize > MAX_CHUNK_SIZE) throw new ParseException("Chunk size too large", position);
+                    chunkSize = chunkSize * 16 + digit;
+                    chunkSizeRead = true;
+                } else if(!chunkSizeRead) {
+                    throw new ParseException("Expected chunk size but found " + describe(b), position);
+                } else if(b == ';') {
+                    chunkState = STATE_EXTENSION;
+                } else if(b == '\r') {
+                    chunkState = STATE_SIZE_LF;
+                } else {
+                    throw new ParseException("Unexpected " + describe(b) + " in chunk size", position);
+                }
+
+            } else if(chunkState == STATE_EXTENSION) {
+                if(b == '\r') chunkState = STATE_SIZE_LF;
+
+            } else if(chunkState == STATE_SIZE_LF) {
+                if(b != '\n') throw new ParseException("Expected LF after chunk size but found " + describe(b), position);
+                chunkState = STATE_DATA;
+
+            } else if(chunkState == STATE_DATA_CR) {
+                if(b != '\r') throw new ParseException("Expected CR after chunk data but found " + describe(b), position);
+                chunkState = STATE_DATA_LF;
+
+            } else if(chunkState == STATE_DATA_LF) {
+                if(b != '\n') throw new ParseException("Expected LF after chunk data but found " + describe(b), position);
+                input.skip(position);
+                Bufferlo result = chunkData;
+                chunkData = null;
+                chunkSize = 0;
+                chunkSizeRead = false;
+                chunkState = STATE_SIZE;
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Describes the specified byte for an error message.
+     */
+    private static String describe(byte b) {
+        if(b >= 0x20 && b < 0x7F) return "'" + (char)b + "'";
+        return "0x" + Integer.toHexString(b & 0xFF);
+    }
+
+    /**
+     * Converts the specified bytes to a String, one character per byte.
+     */
+    private static String toAscii(byte[] bytes) {
+        try {
+            return new String(bytes, "US-ASCII");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.ctp;
+
+// NIO is used for CTP
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses the chunks of a single {@link CTPConnection}
+ * using DEFLATE.
+ *
+ * <p>Each chunk starts with a single byte that tells whether the rest of the
+ * chunk is raw or deflated. Chunks smaller than {@link #MIN_COMPRESSED_SIZE}
+ * are always sent raw, since compressing them costs more than it saves, as
+ * are chunks that don't get any smaller.
+ *
+ * <p>Each chunk is deflated independently, but with a preset dictionary of the
+ * last large chunk sent. The first large chunk of a subscription is usually
+ * its snapshot, and the deltas that follow it tend to repeat its headers
+ * and values, so they compress well even when they are small. Both ends train
+ * their dictionary on the same chunks, so they always agree on its contents.
+ */
+final class ChunkCompressor {
+
+    /** the leading byte of each chunk */
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+
+    /** chunks smaller than this are sent raw */
+    static final int MIN_COMPRESSED_SIZE = 128;
+
+    /** chunks at least this large replace the dictionary */
+    static final int MIN_DICTIONARY_SIZE = 1024;
+
+    /** the largest useful dictionary, the size of the DEFLATE window */
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    /** compresses outgoing chunks */
+    private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /** decompresses incoming chunks */
+    private Inflater inflater = new Inflater();
+
+    /** the dictionary for outgoing chunks */
+    private byte[] deflateDictionary = null;
+
+    /** the dictionary for incoming chunks, and the 32 bits of its checksum */
+    private byte[] inflateDictionary = null;
+    private int inflateDictionaryId = 0;
+
+    /** a buffer to deflate or inflate into */
+    private byte[] buffer = new byte[8192];
+
+    /**
+     * Encodes the specified chunk, consuming its data.
+     *
+     * @return the encoded chunk, which is never empty.
+     */
+    Bufferlo compress(Bufferlo data) {
+        int length = data.length();
+        Bufferlo result = new Bufferlo();
+
+        // small chunks are sent raw
+        if(length < MIN_COMPRESSED_SIZE) {
+            result.append(ByteBuffer.wrap(new byte[] { RAW }));
+            result.append(data);
+            return result;
+        }
+
+        // deflate the chunk against the dictionary
+        byte[] bytes = data.consumeBytes(length);
+        deflater.reset();
+        if(deflateDictionary != null) deflater.setDictionary(deflateDictionary);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 2 + 16);
+        deflated.write(DEFLATED);
+        while(!deflater.finished()) {
+            int deflatedLength = deflater.deflate(buffer);
+            deflated.write(buffer, 0, deflatedLength);
+        }
+        if(length >= MIN_DICTIONARY_SIZE) deflateDictionary = toDictionary(bytes);
+
+        // send the chunk raw if it didn't get any smaller
+        if(deflated.size() > length) {
+            result.append(ByteBuffer.wrap(new byte[] { RAW }));
+            result.append(ByteBuffer.wrap(bytes));
+        } else {
+            result.append(ByteBuffer.wrap(deflated.toByteArray()));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the specified chunk, consuming its data.
+     *
+     * @throws IOException if the chunk is not well formed.
+     */
+    Bufferlo decompress(Bufferlo chunk) throws IOException {
+        int length = chunk.length();
+        if(length == 0) throw new IOException("Missing chunk encoding");
+        byte encoding = chunk.get(0);
+
+        // raw chunks need no work, unless they replace the dictionary
+        if(encoding == RAW) {
+            chunk.skip(1);
+            if(length - 1 >= MIN_DICTIONARY_SIZE) setInflateDictionary(chunk.duplicate().consumeBytes(length - 1));
+            return chunk;
+        } else if(encoding != DEFLATED) {
+            throw new IOException("Unknown chunk encoding " + encoding);
+        }
+
+        // inflate the chunk against the dictionary
+        byte[] bytes = chunk.consumeBytes(length);
+        inflater.reset();
+        inflater.setInput(bytes, 1, length - 1);
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(length * 4);
+        try {
+            while(!inflater.finished()) {
+                int inflatedLength = inflater.inflate(buffer);
+                if(inflatedLength > 0) {
+                    inflated.write(buffer, 0, inflatedLength);
+                } else if(inflater.needsDictionary()) {
+                    if(inflateDictionary == null || inflater.getAdler() != inflateDictionaryId) throw new IOException("Chunk requires an unknown dictionary");
+                    inflater.setDictionary(inflateDictionary);
+                } else if(inflater.needsInput()) {
+                    throw new IOException("Truncated compressed chunk");
+                }
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Malformed compressed chunk, " + e.getMessage());
+        }
+        byte[] result = inflated.toByteArray();
+        if(result.length >= MIN_DICTIONARY_SIZE) setInflateDictionary(result);
+
+        Bufferlo decoded = new Bufferlo();
+        decoded.append(ByteBuffer.wrap(result));
+        return decoded;
+    }
+
+    /**
+     * Uses the specified chunk as the dictionary for incoming chunks.
+     */
+    private void setInflateDictionary(byte[] chunk) {
+        inflateDictionary = toDictionary(chunk);
+        Adler32 checksum = new Adler32();
+        checksum.update(inflateDictionary);
+        inflateDictionaryId = (int)checksum.getValue();
+    }
+
+    /**
+     * Releases the native resources held by this compressor.
+     */
+    void end() {
+        deflater.end();
+        inflater.end();
+    }
+
+    /**
+     * Copies the dictionary to use after the specified chunk, which is its tail
+     * since DEFLATE prefers matches that are nearby.
+     */
+    private static byte[] toDictionary(byte[] chunk) {
+        int size = Math.min(chunk.length, MAX_DICTIONARY_SIZE);
+        byte[] dictionary = new byte[size];
+        System.arraycopy(chunk, chunk.length - size, dictionary, 0, size);
+        return dictionary;
+    }
+}
@@ -70,6 +70,10 @@ class CloseConnection implements Runnable {
         } catch(IOException e) {
             // if this close failed, there's nothing we can do
         }
+        if(connection.compressor != null) {
+            connection.compressor.end();
+            connection.compressor = null;
+        }
 
         // log the close
         if(reason != null) {
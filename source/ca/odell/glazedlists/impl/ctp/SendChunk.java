@@ -37,6 +37,13 @@ class SendChunk implements Runnable {
         if(connection.state != CTPConnection.STATE_READY) throw new IllegalStateException();
 
         try {
+            // compress the chunk, except for the empty chunk that closes the connection
+            if(data != null) {
+                int uncompressedLength = data.length();
+                if(connection.compressor != null) data = connection.compressor.compress(data);
+                connection.manager.chunkSent(uncompressedLength, data.length());
+            }
+
             // calculate the total bytes remaining
             int totalRemaining = (data != null) ? data.length() : 0;
 
@@ -0,0 +1,236 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.impl.GlazedListsImpl;
+import ca.odell.glazedlists.impl.beans.BeanProperty;
+import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.DeltaByteCoder;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Date;
+
+/**
+ * A {@link ByteCoder} that encodes JavaBeans as the values of a fixed list of
+ * properties. Since both sides know the bean class and its properties, nothing
+ * but the values themselves is written: primitive wrappers, Strings and Dates
+ * in a compact binary form, and any other {@link Serializable} value using
+ * serialization.
+ *
+ * <p>Decoded beans are created with the bean class's public no-argument
+ * constructor and populated using the properties' setters.
+ *
+ * <p>Deltas are written as the changed properties only, each preceeded by its
+ * position in the list of properties.
+ */
+public class BeanByteCoder<T> implements DeltaByteCoder {
+
+    /** tags for the type of each value */
+    private static final int NULL = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int SHORT = 3;
+    private static final int CHARACTER = 4;
+    private static final int INTEGER = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    private static final int STRING = 9;
+    private static final int DATE = 10;
+    private static final int SERIALIZABLE = 11;
+
+    /** the class of the encoded beans */
+    private final Class<T> beanClass;
+
+    /** the properties to encode, in order */
+    private final BeanProperty<T>[] properties;
+
+    /**
+     * Create a {@link BeanByteCoder} that encodes the specified properties of
+     * beans of the specified class.
+     */
+    public BeanByteCoder(Class<T> beanClass, String[] propertyNames) {
+        this.beanClass = beanClass;
+        this.properties = new BeanProperty[propertyNames.length];
+        for(int p = 0; p < propertyNames.length; p++) {
+            properties[p] = new BeanProperty<T>(beanClass, propertyNames[p], true, true);
+        }
+    }
+
+    /**
+     * Gets the properties that are encoded, in order.
+     */
+    BeanProperty<T>[] getProperties() {
+        return properties;
+    }
+
+    /**
+     * Creates a new, empty bean to decode into.
+     */
+    T newBean() {
+        try {
+            return beanClass.getConstructor().newInstance();
+        } catch(InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create " + beanClass + ": " + e.getCause());
+        } catch(NoSuchMethodException e) {
+            throw new IllegalStateException("Failed to create " + beanClass + ": " + e.getMessage());
+        } catch(InstantiationException e) {
+            throw new IllegalStateException("Failed to create " + beanClass + ": " + e.getMessage());
+        } catch(IllegalAccessException e) {
+            throw new IllegalStateException("Failed to create " + beanClass + ": " + e.getMessage());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(Object source, OutputStream target) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(target);
+        T bean = (T)source;
+        for(int p = 0; p < properties.length; p++) {
+            writeValue(properties[p].get(bean), dataOut);
+        }
+        dataOut.flush();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object decode(InputStream source) throws IOException {
+        DataInputStream dataIn = new DataInputStream(source);
+        T bean = newBean();
+        for(int p = 0; p < properties.length; p++) {
+            properties[p].set(bean, readValue(dataIn));
+        }
+        return bean;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encodeDelta(Object base, Object source, OutputStream target) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(target);
+        T baseBean = (T)base;
+        T bean = (T)source;
+
+        // find the changed properties
+        Object[] values = new Object[properties.length];
+        boolean[] changed = new boolean[properties.length];
+        int changedCount = 0;
+        for(int p = 0; p < properties.length; p++) {
+            values[p] = properties[p].get(bean);
+            changed[p] = !GlazedListsImpl.equal(properties[p].get(baseBean), values[p]);
+            if(changed[p]) changedCount++;
+        }
+
+        // write them with their positions
+        ListEventToBytes.writeVarInt(dataOut, changedCount);
+        for(int p = 0; p < properties.length; p++) {
+            if(!changed[p]) continue;
+            ListEventToBytes.writeVarInt(dataOut, p);
+            writeValue(values[p], dataOut);
+        }
+        dataOut.flush();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object decodeDelta(Object base, InputStream source) throws IOException {
+        DataInputStream dataIn = new DataInputStream(source);
+        T baseBean = (T)base;
+        T bean = newBean();
+        for(int p = 0; p < properties.length; p++) {
+            properties[p].set(bean, properties[p].get(baseBean));
+        }
+        for(int changed = ListEventToBytes.readVarInt(dataIn); changed > 0; changed--) {
+            int p = ListEventToBytes.readVarInt(dataIn);
+            if(p >= properties.length) throw new IOException("Unexpected property " + p);
+            properties[p].set(bean, readValue(dataIn));
+        }
+        return bean;
+    }
+
+    /**
+     * Writes a single property value.
+     */
+    static void writeValue(Object value, DataOutputStream dataOut) throws IOException {
+        if(value == null) {
+            dataOut.writeByte(NULL);
+        } else if(value instanceof Boolean) {
+            dataOut.writeByte(BOOLEAN);
+            dataOut.writeBoolean(((Boolean)value).booleanValue());
+        } else if(value instanceof Byte) {
+            dataOut.writeByte(BYTE);
+            dataOut.writeByte(((Byte)value).byteValue());
+        } else if(value instanceof Short) {
+            dataOut.writeByte(SHORT);
+            dataOut.writeShort(((Short)value).shortValue());
+        } else if(value instanceof Character) {
+            dataOut.writeByte(CHARACTER);
+            dataOut.writeChar(((Character)value).charValue());
+        } else if(value instanceof Integer) {
+            dataOut.writeByte(INTEGER);
+            dataOut.writeInt(((Integer)value).intValue());
+        } else if(value instanceof Long) {
+            dataOut.writeByte(LONG);
+            dataOut.writeLong(((Long)value).longValue());
+        } else if(value instanceof Float) {
+            dataOut.writeByte(FLOAT);
+            dataOut.writeFloat(((Float)value).floatValue());
+        } else if(value instanceof Double) {
+            dataOut.writeByte(DOUBLE);
+            dataOut.writeDouble(((Double)value).doubleValue());
+        } else if(value instanceof String) {
+            byte[] utf8 = ((String)value).getBytes("UTF-8");
+            dataOut.writeByte(STRING);
+            ListEventToBytes.writeVarInt(dataOut, utf8.length);
+            dataOut.write(utf8);
+        } else if(value.getClass() == Date.class) {
+            dataOut.writeByte(DATE);
+            dataOut.writeLong(((Date)value).getTime());
+        } else if(value instanceof Serializable) {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(serialized);
+            objectOut.writeObject(value);
+            objectOut.close();
+            dataOut.writeByte(SERIALIZABLE);
+            ListEventToBytes.writeVarInt(dataOut, serialized.size());
+            serialized.writeTo(dataOut);
+        } else {
+            throw new IOException("Cannot encode value of " + value.getClass());
+        }
+    }
+
+    /**
+     * Reads a single property value.
+     */
+    static Object readValue(DataInputStream dataIn) throws IOException {
+        int type = dataIn.readUnsignedByte();
+        switch(type) {
+            case NULL: return null;
+            case BOOLEAN: return Boolean.valueOf(dataIn.readBoolean());
+            case BYTE: return Byte.valueOf(dataIn.readByte());
+            case SHORT: return Short.valueOf(dataIn.readShort());
+            case CHARACTER: return Character.valueOf(dataIn.readChar());
+            case INTEGER: return Integer.valueOf(dataIn.readInt());
+            case LONG: return Long.valueOf(dataIn.readLong());
+            case FLOAT: return Float.valueOf(dataIn.readFloat());
+            case DOUBLE: return Double.valueOf(dataIn.readDouble());
+            case STRING: {
+                byte[] utf8 = new byte[ListEventToBytes.readVarInt(dataIn)];
+                dataIn.readFully(utf8);
+                return new String(utf8, "UTF-8");
+            }
+            case DATE: return new Date(dataIn.readLong());
+            case SERIALIZABLE: {
+                byte[] serialized = new byte[ListEventToBytes.readVarInt(dataIn)];
+                dataIn.readFully(serialized);
+                try {
+                    return new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+                } catch(ClassNotFoundException e) {
+                    throw new IllegalStateException(e.getMessage());
+                }
+            }
+            default: throw new IOException("Unexpected value type " + type);
+        }
+    }
+}
@@ -97,11 +97,9 @@ public class Bufferlo implements CharSequence {
         if(length() == 0) return 0;
 
         // make all buffers readable
-        ByteBuffer[] toWrite = new ByteBuffer[buffers.size()];
-        for(int b = 0; b < buffers.size(); b++) {
-            ByteBuffer buffer = (ByteBuffer)buffers.get(b);
-            buffer.flip();
-            toWrite[b] = buffer;
+        ByteBuffer[] toWrite = (ByteBuffer[])buffers.toArray(new ByteBuffer[buffers.size()]);
+        for(int b = 0; b < toWrite.length; b++) {
+            toWrite[b].flip();
         }
 
         // write them all out
@@ -129,6 +127,18 @@ public class Bufferlo implements CharSequence {
         return totalWritten;
     }
 
+    /**
+     * Copies the content of this Bufferlo into the specified buffer without
+     * consuming it. The buffer must have enough space remaining.
+     */
+    public void writeToBuffer(ByteBuffer target) {
+        for(Iterator b = buffers.iterator(); b.hasNext(); ) {
+            ByteBuffer readable = ((ByteBuffer)b.next()).duplicate();
+            readable.flip();
+            target.put(readable);
+        }
+    }
+
     /**
      * Write the content of this Bufferlo to the specified channel, updating the
      * specified {@link SelectionKey} as necessary.
@@ -155,17 +165,10 @@ public class Bufferlo implements CharSequence {
      * Gets the bytes of this Bufferlo.
      */
     public byte[] consumeBytes(int bytes) {
-        try {
-            byte[] result = new byte[bytes];
-            int totalRead = 0;
-            while(totalRead < bytes) {
-                int read = getInputStream().read(result, totalRead, (bytes - totalRead));
-                totalRead += read;
-            }
-            return result;
-        } catch(IOException e) {
-            throw new IllegalStateException(e.getMessage());
-        }
+        assert(bytes >= 0 && bytes <= length());
+        byte[] result = new byte[bytes];
+        getInputStream().read(result, 0, bytes);
+        return result;
     }
 
     /**
@@ -199,7 +202,15 @@ public class Bufferlo implements CharSequence {
      */
     public Bufferlo consume(int bytes) {
         assert(bytes >= 0 && bytes <= length());
-        Bufferlo result = duplicate();
+
+        // duplicate only the buffers that hold the consumed bytes
+        Bufferlo result = new Bufferlo();
+        int bytesLeft = bytes;
+        for(Iterator b = buffers.iterator(); bytesLeft > 0 && b.hasNext(); ) {
+            ByteBuffer buffer = removeTrailingSpace((ByteBuffer)b.next());
+            result.buffers.add(buffer);
+            bytesLeft -= buffer.position();
+        }
         result.limit(bytes);
         skip(bytes);
         return result;
@@ -317,6 +328,18 @@ public class Bufferlo implements CharSequence {
             writeBuffer.put((byte)b);
             doneWriting();
         }
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if(off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+            while(len > 0) {
+                ByteBuffer writeBuffer = getWriteIntoBuffer();
+                int bytesToWrite = Math.min(len, writeBuffer.remaining());
+                writeBuffer.put(b, off, bytesToWrite);
+                doneWriting();
+                off += bytesToWrite;
+                len -= bytesToWrite;
+            }
+        }
     }
 
     /**
@@ -331,6 +354,25 @@ public class Bufferlo implements CharSequence {
             doneReading();
             return result;
         }
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(off < 0 || len < 0 || off + len > b.length) throw new IndexOutOfBoundsException();
+            if(len == 0) return 0;
+            int totalRead = 0;
+            while(totalRead < len) {
+                ByteBuffer readBuffer = getReadFromBuffer();
+                if(readBuffer == null) break;
+                int bytesToRead = Math.min(len - totalRead, readBuffer.remaining());
+                readBuffer.get(b, off + totalRead, bytesToRead);
+                doneReading();
+                totalRead += bytesToRead;
+            }
+            return (totalRead == 0) ? -1 : totalRead;
+        }
+        @Override
+        public int available() {
+            return length();
+        }
     }
 
     /**
@@ -414,11 +456,18 @@ public class Bufferlo implements CharSequence {
      */
     @Override
     public char charAt(int index) {
+        return (char)get(index);
+    }
+
+    /**
+     * Gets the byte at the specified index without consuming it.
+     */
+    public byte get(int index) {
         int bytesLeft = index;
         for(Iterator b = buffers.iterator(); b.hasNext(); ) {
             ByteBuffer buffer = (ByteBuffer)b.next();
             if(bytesLeft < buffer.position()) {
-                return (char)buffer.get(bytesLeft);
+                return buffer.get(bytesLeft);
             } else {
                 bytesLeft -= buffer.position();
             }
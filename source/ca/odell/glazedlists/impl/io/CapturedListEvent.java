@@ -0,0 +1,125 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.event.ListEvent;
+
+import java.util.List;
+
+/**
+ * The changes of a {@link ListEvent}, together with the values that they insert
+ * and update. Unlike the ListEvent itself, this remains valid after its source
+ * list has changed again, so that it can be converted to bytes later and on
+ * another thread.
+ */
+public final class CapturedListEvent {
+
+    /** the reorder map, or null if this is not a reordering */
+    private int[] reorderMap = null;
+
+    /** the type and index of each change */
+    private int[] types;
+    private int[] indices;
+
+    /** the inserted or updated value of each change */
+    private Object[] values;
+
+    /** the replaced value of each update, or null if old values aren't kept */
+    private Object[] oldValues;
+
+    /** the number of changes */
+    private int size = 0;
+
+    /**
+     * Captures the specified ListEvent, consuming its changes.
+     *
+     * @param keepOldValues whether to keep the values replaced by updates, which
+     *      is only worthwhile if they can be the base of a delta.
+     */
+    CapturedListEvent(ListEvent listEvent, boolean keepOldValues) {
+        if(listEvent.isReordering()) {
+            reorderMap = listEvent.getReorderMap();
+            return;
+        }
+
+        int capacity = 8;
+        types = new int[capacity];
+        indices = new int[capacity];
+        values = new Object[capacity];
+        if(keepOldValues) oldValues = new Object[capacity];
+
+        List sourceList = listEvent.getSourceList();
+        while(listEvent.next()) {
+            if(size == types.length) grow();
+            int type = listEvent.getType();
+            int index = listEvent.getIndex();
+            types[size] = type;
+            indices[size] = index;
+            if(type != ListEvent.DELETE) values[size] = sourceList.get(index);
+            if(oldValues != null && type == ListEvent.UPDATE) oldValues[size] = listEvent.getOldValue();
+            size++;
+        }
+    }
+
+    /**
+     * Doubles the space for changes.
+     */
+    private void grow() {
+        int capacity = types.length * 2;
+        int[] newTypes = new int[capacity];
+        System.arraycopy(types, 0, newTypes, 0, size);
+        types = newTypes;
+        int[] newIndices = new int[capacity];
+        System.arraycopy(indices, 0, newIndices, 0, size);
+        indices = newIndices;
+        Object[] newValues = new Object[capacity];
+        System.arraycopy(values, 0, newValues, 0, size);
+        values = newValues;
+        if(oldValues != null) {
+            Object[] newOldValues = new Object[capacity];
+            System.arraycopy(oldValues, 0, newOldValues, 0, size);
+            oldValues = newOldValues;
+        }
+    }
+
+    /**
+     * Gets the reorder map of this event, or <code>null</code> if it is not
+     * a reordering.
+     */
+    int[] getReorderMap() {
+        return reorderMap;
+    }
+
+    /**
+     * Gets the number of changes in this event.
+     */
+    int size() {
+        return size;
+    }
+
+    int getType(int change) {
+        return types[change];
+    }
+
+    int getIndex(int change) {
+        return indices[change];
+    }
+
+    /**
+     * Gets the inserted or updated value of the specified change, or
+     * <code>null</code> for a delete.
+     */
+    Object getValue(int change) {
+        return values[change];
+    }
+
+    /**
+     * Gets the value replaced by the specified change, or
+     * {@link ListEvent#UNKNOWN_VALUE} if it was not kept.
+     */
+    Object getOldValue(int change) {
+        if(oldValues == null || types[change] != ListEvent.UPDATE) return ListEvent.UNKNOWN_VALUE;
+        return oldValues[change];
+    }
+}
@@ -5,11 +5,16 @@ package ca.odell.glazedlists.impl.io;
 
 import ca.odell.glazedlists.EventList;
 import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.impl.event.Tree4Deltas;
+import ca.odell.glazedlists.io.BatchByteCoder;
 import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.DeltaByteCoder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -18,6 +23,19 @@ import java.util.List;
  * An utility interface for converting Objects to bytes for storage or network
  * transport.
  *
+ * <p>Two formats are supported. The {@link #LEGACY_FORMAT legacy format} writes
+ * a fixed-size header for every changed element and flattens reorderings into
+ * a delete and an insert of every element. The {@link #COMPACT_FORMAT compact format}
+ * writes runs of consecutive changes of the same type, with variable-length
+ * integers for indices and lengths, and writes reorderings as their reorder
+ * map. Since legacy data always starts with a zero byte, the compact format is
+ * marked by a non-zero first byte and both formats can always be read.
+ *
+ * <p>When the {@link ByteCoder} is a {@link BatchByteCoder}, the compact format
+ * encodes all of the values of an event as a single batch that preceeds the runs.
+ * When it is a {@link DeltaByteCoder}, updated values are encoded as deltas
+ * against the values they replace whenever those are known.
+ *
  * @author <a href="mailto:jesse@swank.ca">Jesse Wilson</a>
  */
 public class ListEventToBytes {
@@ -25,10 +43,48 @@ public class ListEventToBytes {
     /** the virtual event type */
     private static final int CLEAR = -1;
 
+    /** a fixed-size header for every changed element */
+    public static final int LEGACY_FORMAT = 1;
+
+    /** runs of changes with variable-length integers */
+    public static final int COMPACT_FORMAT = 2;
+
+    /** the first byte of the compact format */
+    private static final int COMPACT_MARKER = 0xC1;
+
+    /** run types of the compact format, in addition to those of {@link ListEvent} */
+    private static final int RUN_CLEAR = 3;
+    private static final int RUN_REORDER = 4;
+    private static final int RUN_VALUES = 5;
+    private static final int RUN_DELTA = 6;
+
     /**
-     * Convert the specified ListEvent to bytes.
+     * Convert the specified ListEvent to bytes in the {@link #COMPACT_FORMAT}.
      */
     public static Bufferlo toBytes(ListEvent listEvent, ByteCoder byteCoder) throws IOException {
+        return toBytes(listEvent, byteCoder, COMPACT_FORMAT);
+    }
+
+    /**
+     * Convert the specified ListEvent to bytes in the specified format, either
+     * {@link #COMPACT_FORMAT} or {@link #LEGACY_FORMAT}. The legacy format is
+     * only necessary to communicate with readers that predate the compact one.
+     */
+    public static Bufferlo toBytes(ListEvent listEvent, ByteCoder byteCoder, int format) throws IOException {
+        if(format == COMPACT_FORMAT) {
+            CompactWriter writer = new CompactWriter(byteCoder);
+            if(listEvent.isReordering()) {
+                writer.reorder(listEvent.getReorderMap());
+            } else {
+                List sourceList = listEvent.getSourceList();
+                while(listEvent.next()) {
+                    writer.change(listEvent.getType(), listEvent.getIndex(), sourceList, listEvent.getOldValue());
+                }
+            }
+            return writer.toBytes();
+        }
+        checkFormat(format);
+
         // populate the list of parts
         List parts = new ArrayList();
         while(listEvent.next()) {
@@ -43,9 +99,91 @@ public class ListEventToBytes {
     }
 
     /**
-     * Convert the List to a ListEvent. This is for snapshots or compressions.
+     * Convert the changes accumulated over several ListEvents to bytes in the
+     * {@link #COMPACT_FORMAT}, so that they can be sent as a single update.
+     * The inserted and updated values are read from the list, which must be in
+     * the state that follows all of the changes.
+     */
+    public static Bufferlo toBytes(Tree4Deltas deltas, List list, ByteCoder byteCoder) throws IOException {
+        return toBytes(deltas, list, byteCoder, COMPACT_FORMAT);
+    }
+
+    /**
+     * Convert the changes accumulated over several ListEvents to bytes in the
+     * specified format.
+     */
+    public static Bufferlo toBytes(Tree4Deltas deltas, List list, ByteCoder byteCoder, int format) throws IOException {
+        if(format == COMPACT_FORMAT) {
+            CompactWriter writer = new CompactWriter(byteCoder);
+            for(Tree4Deltas.Iterator i = deltas.iterator(); i.next(); ) {
+                writer.change(i.getType(), i.getIndex(), list, i.getOldValue());
+            }
+            return writer.toBytes();
+        }
+        checkFormat(format);
+
+        // populate the list of parts
+        List parts = new ArrayList();
+        for(Tree4Deltas.Iterator i = deltas.iterator(); i.next(); ) {
+            int index = i.getIndex();
+            int type = i.getType();
+            Object value = null;
+            if(type == ListEvent.INSERT || type == ListEvent.UPDATE) value = list.get(index);
+            parts.add(new ListEventPart(index, type, value));
+        }
+
+        return partsToBytes(parts, byteCoder);
+    }
+
+    /**
+     * Captures the changes of the specified ListEvent and the values they insert
+     * and update, so that they can be converted to bytes later. This is much
+     * cheaper than encoding the changes, and the result doesn't depend on the
+     * list, which may continue to change.
      */
-    public static Bufferlo toBytes(EventList list, ByteCoder byteCoder) throws IOException {
+    public static CapturedListEvent capture(ListEvent listEvent, ByteCoder byteCoder) {
+        return new CapturedListEvent(listEvent, byteCoder instanceof DeltaByteCoder);
+    }
+
+    /**
+     * Convert the captured changes to bytes in the {@link #COMPACT_FORMAT}.
+     */
+    public static Bufferlo toBytes(CapturedListEvent listEvent, ByteCoder byteCoder) throws IOException {
+        CompactWriter writer = new CompactWriter(byteCoder);
+        if(listEvent.getReorderMap() != null) {
+            writer.reorder(listEvent.getReorderMap());
+        } else {
+            for(int c = 0; c < listEvent.size(); c++) {
+                writer.change(listEvent.getType(c), listEvent.getIndex(c), listEvent.getValue(c), listEvent.getOldValue(c));
+            }
+        }
+        return writer.toBytes();
+    }
+
+    /**
+     * Convert the List to a ListEvent in the {@link #COMPACT_FORMAT}. This is
+     * for snapshots or compressions. The list may be a plain copy of an
+     * {@link EventList}, so that the snapshot can be encoded without holding
+     * that list's lock.
+     */
+    public static Bufferlo toBytes(List list, ByteCoder byteCoder) throws IOException {
+        return toBytes(list, byteCoder, COMPACT_FORMAT);
+    }
+
+    /**
+     * Convert the List to a ListEvent in the specified format.
+     */
+    public static Bufferlo toBytes(List list, ByteCoder byteCoder, int format) throws IOException {
+        if(format == COMPACT_FORMAT) {
+            CompactWriter writer = new CompactWriter(byteCoder);
+            writer.clear();
+            for(int i = 0; i < list.size(); i++) {
+                writer.change(ListEvent.INSERT, i, list, ListEvent.UNKNOWN_VALUE);
+            }
+            return writer.toBytes();
+        }
+        checkFormat(format);
+
         List parts = new ArrayList();
 
         // start with a clear
@@ -60,11 +198,54 @@ public class ListEventToBytes {
         return partsToBytes(parts, byteCoder);
     }
 
+    /**
+     * Verifies that the specified format is one of {@link #LEGACY_FORMAT} and
+     * {@link #COMPACT_FORMAT}.
+     */
+    public static void checkFormat(int format) {
+        if(format != LEGACY_FORMAT && format != COMPACT_FORMAT) throw new IllegalArgumentException("Unsupported format " + format);
+    }
+
+    /**
+     * Tests whether the specified bytes were created by {@link #toBytes(List,ByteCoder)},
+     * in which case they replace the target's contents entirely and any updates
+     * that preceeded them are superseded. The bytes are not consumed.
+     */
+    public static boolean isSnapshot(Bufferlo listEvent) throws IOException {
+        if(listEvent.length() < 3) return false;
+        DataInputStream dataIn = new DataInputStream(listEvent.duplicate().getInputStream());
+        int first = dataIn.readUnsignedByte();
+
+        // compact: marker, version, clear
+        if(first == COMPACT_MARKER) {
+            dataIn.readUnsignedByte();
+            int type = dataIn.readUnsignedByte();
+            if(type == RUN_VALUES) {
+                dataIn.skipBytes(readVarInt(dataIn));
+                type = dataIn.read();
+            }
+            return type == RUN_CLEAR;
+        }
+
+        // legacy: part 0 is a clear
+        if(listEvent.length() < 8) return false;
+        dataIn = new DataInputStream(listEvent.duplicate().getInputStream());
+        int partIndex = dataIn.readInt();
+        int type = dataIn.readInt();
+        return (partIndex == 0 && type == CLEAR);
+    }
+
     /**
      * Apply the specified list event to the specified target list. The write lock
      * for this list must already be acquired if the list is shared between threads.
+     * Both formats are supported.
      */
     public static void toListEvent(Bufferlo listEvent, EventList target, ByteCoder byteCoder) throws IOException {
+        if(listEvent.length() > 0 && (listEvent.charAt(0) & 0xFF) == COMPACT_MARKER) {
+            applyCompact(listEvent, target, byteCoder);
+            return;
+        }
+
         List parts = bytesToParts(listEvent, byteCoder);
         for(Iterator i = parts.iterator(); i.hasNext(); ) {
             ListEventPart part = (ListEventPart)i.next();
@@ -80,6 +261,249 @@ public class ListEventToBytes {
         }
     }
 
+    /**
+     * Decode and apply bytes of the {@link #COMPACT_FORMAT}.
+     */
+    private static void applyCompact(Bufferlo listEvent, EventList target, ByteCoder byteCoder) throws IOException {
+        DataInputStream dataIn = new DataInputStream(listEvent.getInputStream());
+        dataIn.readUnsignedByte(); // marker
+        int version = dataIn.readUnsignedByte();
+        if(version != COMPACT_FORMAT) throw new IOException("Unsupported format version " + version);
+
+        int index = 0;
+        List batchValues = null;
+        int nextBatchValue = 0;
+        while(listEvent.length() > 0) {
+            int type = dataIn.readUnsignedByte();
+
+            if(type == RUN_VALUES) {
+                if(!(byteCoder instanceof BatchByteCoder)) throw new IOException("Batched values require a BatchByteCoder");
+                int batchLength = readVarInt(dataIn);
+                batchValues = ((BatchByteCoder)byteCoder).decodeAll(listEvent.consume(batchLength).getInputStream());
+
+            } else if(type == RUN_CLEAR) {
+                target.clear();
+
+            } else if(type == RUN_REORDER) {
+                int[] reorderMap = new int[readVarInt(dataIn)];
+                for(int i = 0; i < reorderMap.length; i++) {
+                    reorderMap[i] = readVarInt(dataIn);
+                }
+                // move each element to its new position
+                List before = new ArrayList(target);
+                if(before.size() != reorderMap.length) throw new IOException("Expected " + reorderMap.length + " elements to reorder but found " + before.size());
+                for(int i = 0; i < reorderMap.length; i++) {
+                    Object value = before.get(reorderMap[i]);
+                    if(target.get(i) != value) target.set(i, value);
+                }
+
+            } else if(type == RUN_DELTA) {
+                if(!(byteCoder instanceof DeltaByteCoder)) throw new IOException("Deltas require a DeltaByteCoder");
+                index += readZigZag(dataIn);
+                int count = readVarInt(dataIn);
+                for(int i = 0; i < count; i++) {
+                    int valueLength = readVarInt(dataIn);
+                    Object base = target.get(index + i);
+                    target.set(index + i, ((DeltaByteCoder)byteCoder).decodeDelta(base, listEvent.consume(valueLength).getInputStream()));
+                }
+
+            } else if(type == ListEvent.DELETE || type == ListEvent.UPDATE || type == ListEvent.INSERT) {
+                index += readZigZag(dataIn);
+                int count = readVarInt(dataIn);
+
+                if(type == ListEvent.DELETE) {
+                    if(count == 1) target.remove(index);
+                    else target.subList(index, index + count).clear();
+                    continue;
+                }
+
+                List values;
+                if(batchValues != null) {
+                    values = batchValues.subList(nextBatchValue, nextBatchValue + count);
+                    nextBatchValue += count;
+                } else {
+                    values = new ArrayList(count);
+                    for(int i = 0; i < count; i++) {
+                        int valueLength = readVarInt(dataIn);
+                        values.add(byteCoder.decode(listEvent.consume(valueLength).getInputStream()));
+                    }
+                }
+                if(type == ListEvent.INSERT) {
+                    target.addAll(index, values);
+                } else {
+                    for(int i = 0; i < count; i++) {
+                        target.set(index + i, values.get(i));
+                    }
+                }
+
+            } else {
+                throw new IOException("Unexpected run type " + type);
+            }
+        }
+    }
+
+    /**
+     * Writes a variable-length, non-negative integer, 7 bits per byte.
+     */
+    static void writeVarInt(DataOutputStream dataOut, int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            dataOut.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dataOut.writeByte(value);
+    }
+
+    /**
+     * Reads a variable-length, non-negative integer.
+     */
+    static int readVarInt(DataInputStream dataIn) throws IOException {
+        int result = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            int b = dataIn.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Writes a variable-length integer that may be negative.
+     */
+    static void writeZigZag(DataOutputStream dataOut, int value) throws IOException {
+        writeVarInt(dataOut, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a variable-length integer that may be negative.
+     */
+    static int readZigZag(DataInputStream dataIn) throws IOException {
+        int value = readVarInt(dataIn);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the {@link #COMPACT_FORMAT}, merging consecutive changes into runs.
+     */
+    private static class CompactWriter {
+
+        /** encodes the values */
+        private final ByteCoder byteCoder;
+
+        /** the runs */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream dataOut = new DataOutputStream(bytes);
+
+        /** the values of all runs, if they are encoded as a batch */
+        private final List batchValues;
+
+        /** reused to find the length of each value */
+        private final ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+
+        /** the run being accumulated */
+        private int runType = -1;
+        private int runStart = 0;
+        private int runCount = 0;
+        private final List runValues = new ArrayList();
+        private final List runBases = new ArrayList();
+
+        /** the start of the previous run, run starts are written relative to it */
+        private int previousStart = 0;
+
+        CompactWriter(ByteCoder byteCoder) {
+            this.byteCoder = byteCoder;
+            this.batchValues = (byteCoder instanceof BatchByteCoder) ? new ArrayList() : null;
+        }
+
+        void clear() throws IOException {
+            writeRun();
+            dataOut.writeByte(RUN_CLEAR);
+        }
+
+        void reorder(int[] reorderMap) throws IOException {
+            writeRun();
+            dataOut.writeByte(RUN_REORDER);
+            writeVarInt(dataOut, reorderMap.length);
+            for(int i = 0; i < reorderMap.length; i++) {
+                writeVarInt(dataOut, reorderMap[i]);
+            }
+        }
+
+        /**
+         * Adds a change, reading inserted and updated values from the list. The
+         * old value of an update is the base of its delta, if it is known.
+         */
+        void change(int type, int index, List sourceList, Object oldValue) throws IOException {
+            change(type, index, (type == ListEvent.DELETE) ? null : sourceList.get(index), oldValue);
+        }
+
+        /**
+         * Adds a change whose inserted or updated value is already known.
+         */
+        void change(int type, int index, Object value, Object oldValue) throws IOException {
+            if(type == ListEvent.UPDATE && byteCoder instanceof DeltaByteCoder
+                    && oldValue != ListEvent.UNKNOWN_VALUE && oldValue != null
+                    && value != null && oldValue != value) {
+                type = RUN_DELTA;
+            }
+
+            // consecutive deletes share an index, inserts and updates are adjacent
+            boolean extendsRun = (type == runType)
+                && (type == ListEvent.DELETE ? index == runStart : index == runStart + runCount);
+            if(!extendsRun) {
+                writeRun();
+                runType = type;
+                runStart = index;
+            }
+            runCount++;
+            if(type != ListEvent.DELETE) runValues.add(value);
+            if(type == RUN_DELTA) runBases.add(oldValue);
+        }
+
+        private void writeRun() throws IOException {
+            if(runCount == 0) return;
+
+            dataOut.writeByte(runType);
+            writeZigZag(dataOut, runStart - previousStart);
+            writeVarInt(dataOut, runCount);
+            if(batchValues != null && runType != RUN_DELTA) batchValues.addAll(runValues);
+            else for(int i = 0; i < runValues.size(); i++) {
+                valueBytes.reset();
+                if(runType == RUN_DELTA) ((DeltaByteCoder)byteCoder).encodeDelta(runBases.get(i), runValues.get(i), valueBytes);
+                else byteCoder.encode(runValues.get(i), valueBytes);
+                writeVarInt(dataOut, valueBytes.size());
+                valueBytes.writeTo(dataOut);
+            }
+
+            previousStart = runStart;
+            runType = -1;
+            runCount = 0;
+            runValues.clear();
+            runBases.clear();
+        }
+
+        Bufferlo toBytes() throws IOException {
+            writeRun();
+            dataOut.flush();
+            Bufferlo result = new Bufferlo();
+            result.append(ByteBuffer.wrap(new byte[] { (byte)COMPACT_MARKER, (byte)COMPACT_FORMAT }));
+
+            // the batch preceeds the runs that use it
+            if(batchValues != null && !batchValues.isEmpty()) {
+                valueBytes.reset();
+                ((BatchByteCoder)byteCoder).encodeAll(batchValues, valueBytes);
+                ByteArrayOutputStream batchHeader = new ByteArrayOutputStream();
+                DataOutputStream batchHeaderOut = new DataOutputStream(batchHeader);
+                batchHeaderOut.writeByte(RUN_VALUES);
+                writeVarInt(batchHeaderOut, valueBytes.size());
+                result.append(ByteBuffer.wrap(batchHeader.toByteArray()));
+                result.append(ByteBuffer.wrap(valueBytes.toByteArray()));
+            }
+
+            result.append(ByteBuffer.wrap(bytes.toByteArray()));
+            return result;
+        }
+    }
+
     /**
      * Encode the parts into bytes.
      */
@@ -87,6 +511,7 @@ public class ListEventToBytes {
         // prepare the result
         Bufferlo partsAsBytes = new Bufferlo();
         DataOutputStream dataOut = new DataOutputStream(partsAsBytes.getOutputStream());
+        ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
 
         // convert each part in sequence
         for(int i = 0; i < parts.size(); i++) {
@@ -103,11 +528,10 @@ public class ListEventToBytes {
 
             // write the value
             if(part.hasValue()) {
-                Bufferlo valueBuffer = new Bufferlo();
-                delegate.encode(part.getValue(), valueBuffer.getOutputStream());
-                dataOut.writeInt(valueBuffer.length());
-                dataOut.flush();
-                partsAsBytes.append(valueBuffer);
+                valueBytes.reset();
+                delegate.encode(part.getValue(), valueBytes);
+                dataOut.writeInt(valueBytes.size());
+                valueBytes.writeTo(dataOut);
             }
         }
 
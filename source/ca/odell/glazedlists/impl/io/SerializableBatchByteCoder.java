@@ -0,0 +1,48 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.io.BatchByteCoder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BatchByteCoder} that uses {@link Serializable}. Each batch shares a
+ * single {@link ObjectOutputStream}, so the stream header and the descriptor
+ * of each class are written once per batch rather than once per Object.
+ *
+ * <p>Objects are written unshared, so that equal Objects in a batch are still
+ * decoded as distinct instances, as they would be if encoded one at a time.
+ */
+public class SerializableBatchByteCoder extends SerializableByteCoder implements BatchByteCoder {
+
+    /** {@inheritDoc} */
+    @Override
+    public void encodeAll(List source, OutputStream target) throws IOException {
+        ObjectOutputStream objectOut = new ObjectOutputStream(target);
+        objectOut.writeInt(source.size());
+        for(int i = 0; i < source.size(); i++) {
+            objectOut.writeUnshared(source.get(i));
+        }
+        objectOut.close();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List decodeAll(InputStream source) throws IOException {
+        try {
+            ObjectInputStream objectIn = new ObjectInputStream(source);
+            int size = objectIn.readInt();
+            List result = new ArrayList(size);
+            for(int i = 0; i < size; i++) {
+                result.add(objectIn.readUnshared());
+            }
+            return result;
+        } catch(ClassNotFoundException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
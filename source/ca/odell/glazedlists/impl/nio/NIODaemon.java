@@ -6,25 +6,31 @@ package ca.odell.glazedlists.impl.nio;
 // NIO is used for CTP
 import java.io.IOException;
 import java.nio.channels.Selector;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * An event queue of I/O events and a thread to run them on.
+ *
+ * <p>Tasks are queued without locking, and the selector is woken at most once
+ * per select regardless of how many tasks arrive while it is blocked.
  */
 public final class NIODaemon implements Runnable {
 
     /** logging */
     private static Logger logger = Logger.getLogger(NIODaemon.class.toString());
 
-    /** asynch queue of tasks to execute */
-    private List pendingRunnables = new ArrayList();
+    /** asynch queue of tasks to execute, safe for many producers */
+    private Queue pendingRunnables = new ConcurrentLinkedQueue();
+
+    /** whether the selector has been woken since it last selected */
+    private AtomicBoolean wokenUp = new AtomicBoolean(false);
 
     /** the only thread that shall access the network resources of this manager */
-    private Thread ioThread = null;
+    private volatile Thread ioThread = null;
 
     /** the selector to awaken when necessary */
     private Selector selector;
@@ -56,32 +62,25 @@ public final class NIODaemon implements Runnable {
      */
     @Override
     public void run() {
-        // the list of runnables to run this iteration
-        List toExecute = new ArrayList();
-
         // always run the selector handler
         SelectAndHandle selectAndHandle = new SelectAndHandle(this);
 
         // continuously select a socket and action on it
         while(keepRunning) {
 
-            // get the list of runnables to run
-            synchronized(this) {
-                toExecute.addAll(pendingRunnables);
-                toExecute.add(selectAndHandle);
-                pendingRunnables.clear();
-            }
-
             // run the runnables
-            for(Iterator i = toExecute.iterator(); keepRunning && i.hasNext(); ) {
-                Runnable runnable = (Runnable)i.next();
-                i.remove();
-                try {
-                    runnable.run();
-                } catch(RuntimeException e) {
-                    logger.log(Level.SEVERE, "Failure processing I/O, continuing", e);
-                }
+            while(keepRunning) {
+                Runnable runnable = (Runnable)pendingRunnables.poll();
+                if(runnable == null) break;
+                runTask(runnable);
             }
+            if(!keepRunning) break;
+
+            // tasks queued from now on wake the selector, so only block if
+            // none arrived while the last ones were running
+            wokenUp.set(false);
+            selectAndHandle.setBlocking(pendingRunnables.isEmpty());
+            runTask(selectAndHandle);
         }
 
         // do final clean up of state
@@ -93,25 +92,41 @@ public final class NIODaemon implements Runnable {
         }
     }
 
+    /**
+     * Runs the specified task, logging rather than propagating its failures.
+     */
+    private void runTask(Runnable runnable) {
+        try {
+            runnable.run();
+        } catch(RuntimeException e) {
+            logger.log(Level.SEVERE, "Failure processing I/O, continuing", e);
+        }
+    }
+
     /**
      * Tests whether this connection manager has started.
      */
-    public synchronized boolean isRunning() {
+    public boolean isRunning() {
         return (ioThread != null);
     }
 
     /**
      * Tests whether the current thread is the network thread.
      */
-    public synchronized boolean isNetworkThread() {
+    public boolean isNetworkThread() {
         return Thread.currentThread() == ioThread;
     }
 
     /**
-     * Wake up the CTP thread so that it may process pending events.
+     * Wake up the CTP thread so that it may process pending events. The network
+     * thread never needs waking, and the selector needs waking only once until
+     * it selects again.
      */
     private void wakeUp() {
-        selector.wakeup();
+        if(isNetworkThread()) return;
+        if(!wokenUp.compareAndSet(false, true)) return;
+        Selector toWake = selector;
+        if(toWake != null) toWake.wakeup();
     }
 
     /**
@@ -130,9 +145,7 @@ public final class NIODaemon implements Runnable {
             BlockingRunnable blockingRunnable = new BlockingRunnable(runnable);
             synchronized(blockingRunnable) {
                 // start the event
-                synchronized(this) {
-                    pendingRunnables.add(blockingRunnable);
-                }
+                pendingRunnables.offer(blockingRunnable);
                 wakeUp();
 
                 // wait for it to be completed
@@ -153,13 +166,11 @@ public final class NIODaemon implements Runnable {
      * Runs the specified task the next time the NIODaemon thread has a chance.
      */
     public void invokeLater(Runnable runnable) {
-        synchronized(this) {
-            // if the server has not yet been started
-            if(!isRunning()) throw new IllegalStateException();
+        // if the server has not yet been started
+        if(!isRunning()) throw new IllegalStateException();
 
-            pendingRunnables.add(runnable);
-            wakeUp();
-        }
+        pendingRunnables.offer(runnable);
+        wakeUp();
     }
 
     /**
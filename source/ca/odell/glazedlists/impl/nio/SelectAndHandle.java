@@ -21,6 +21,9 @@ class SelectAndHandle implements Runnable {
     /** the I/O event queue daemon */
     private NIODaemon nioDaemon = null;
 
+    /** whether to wait for a key to become ready, or to return immediately */
+    private boolean blocking = true;
+
     /**
      * Create a new SelectorHandler for the specified NIO Daemon.
      */
@@ -28,6 +31,14 @@ class SelectAndHandle implements Runnable {
         this.nioDaemon = nioDaemon;
     }
 
+    /**
+     * Sets whether the next select waits for a key to become ready. It should
+     * not wait when there are tasks to run.
+     */
+    void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+
     /**
      * Select and handle.
      */
@@ -44,7 +55,8 @@ class SelectAndHandle implements Runnable {
         // This may block for a long time. Upon returning, the
         // selected set contains keys of the ready channels
         try {
-            nioDaemon.getSelector().select();
+            if(blocking) nioDaemon.getSelector().select();
+            else nioDaemon.getSelector().selectNow();
         } catch(IOException e) {
             logger.log(Level.WARNING, e.getMessage(), e);
         }
@@ -42,9 +42,10 @@ class AddChunk implements Runnable {
      * <ol>
      *   <li>Figure out how many bytes are needed for this chunk:
      *   <li>Allocate that many bytes in the file for the new section
-     *   <li>Clean up the new section: mark it as empty and of the new size (flush 1)
-     *   <li>Fill the new section (flush 2)
-     *   <li>Mark the new section as not empty any more (flush 3)
+     *   <li>Clean up the new section: mark it as empty and of the new size
+     *   <li>Fill the new section, including a checksum of its data
+     *   <li>Mark the new section as not empty any more
+     *   <li>Mark the old section as empty, once the new one has been forced
      * </ol>
      */
     @Override
@@ -61,7 +62,7 @@ class AddChunk implements Runnable {
 
             // clear the old value
             if(oldValue != null) {
-                oldValue.delete();
+                persistentMap.replaced(oldValue);
             }
 
             logger.info("Successfully wrote value for key \"" + newValue.getKey() + "\"");
@@ -9,15 +9,33 @@ import ca.odell.glazedlists.impl.io.Bufferlo;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * A chunk of a file.
  *
+ * <p>A chunk's data is written before the flag that turns it on, but unless
+ * every write is forced the two may reach the disk in either order. So chunks
+ * carry a checksum of their data, and a chunk that is on but whose data doesn't
+ * match its checksum is treated as off when the file is read. Chunks written by
+ * earlier versions have no checksum, and are flagged as on with a different
+ * value.
+ *
  * @author <a href="mailto:jesse@swank.ca">Jesse Wilson</a>
  */
 public final class Chunk {
 
+    /** logging */
+    private static Logger logger = Logger.getLogger(Chunk.class.toString());
+
+    /** values of the on/off flag */
+    private static final int OFF = 0;
+    private static final int ON_WITHOUT_CHECKSUM = 1;
+    private static final int ON = 2;
+
     /** the host PersistentMap */
     private PersistentMap persistentMap = null;
 
@@ -32,6 +50,9 @@ public final class Chunk {
     /** whether this chunk is on or off */
     private boolean on = false;
 
+    /** whether this chunk's data carries a checksum */
+    private boolean checksummed = true;
+
     /** the order in which this chunk was written to file */
     private int sequenceId = -1;
 
@@ -55,10 +76,11 @@ public final class Chunk {
     /**
      * Creates a {@link Chunk} from the specified data from disk.
      */
-    private Chunk(PersistentMap persistentMap, int offset, boolean on, int sizeToUse, int[] size) {
+    private Chunk(PersistentMap persistentMap, int offset, int on, int sizeToUse, int[] size) {
         this.persistentMap = persistentMap;
         this.offset = offset;
-        this.on = on;
+        this.on = (on != OFF);
+        this.checksummed = (on != ON_WITHOUT_CHECKSUM);
         this.sizeToUse = sizeToUse;
         this.size = size;
     }
@@ -107,6 +129,14 @@ public final class Chunk {
         return offset;
     }
 
+    /**
+     * Moves this chunk to the specified offset. The bytes must already have
+     * been copied there, as done when compacting the file.
+     */
+    void relocate(int offset) {
+        this.offset = offset;
+    }
+
     /**
      * Gets the key that indexes this chunk.
      */
@@ -165,6 +195,7 @@ public final class Chunk {
         required += 4; // sequence ID
         required += 4; // key size
         required += 4; // value size
+        required += 4; // checksum
         required += keyBytesLength; // key
         required += valueBytesLength; // value
 
@@ -187,12 +218,12 @@ public final class Chunk {
         Bufferlo sizeData = new Bufferlo();
         DataOutputStream sizeDataOut = new DataOutputStream(sizeData.getOutputStream());
 
-        sizeDataOut.writeInt(0); // on == false
+        sizeDataOut.writeInt(OFF);
         sizeDataOut.writeInt(sizeToUse);
         sizeDataOut.writeInt(this.size[0]);
         sizeDataOut.writeInt(this.size[1]);
         sizeData.writeToChannel(fileChannel.position(offset));
-        fileChannel.force(false);
+        persistentMap.wrote(16);
     }
 
     /**
@@ -210,13 +241,16 @@ public final class Chunk {
         Bufferlo sizeData = new Bufferlo();
         DataOutputStream sizeDataOut = new DataOutputStream(sizeData.getOutputStream());
 
-        sizeDataOut.writeInt(0); // on == false
+        sizeDataOut.writeInt(OFF);
         sizeData.writeToChannel(fileChannel.position(offset));
-        fileChannel.force(false);
+        persistentMap.wrote(4);
      }
 
     /**
      * Reads the chunk into memory.
+     *
+     * @throws IOException if the chunk's header is not valid, which is the
+     *      case if the file ends with a chunk that was only partially written.
      */
     static Chunk readChunk(PersistentMap persistentMap) throws IOException {
         // prepare to read
@@ -239,16 +273,17 @@ public final class Chunk {
         size[1] = dataIn.readInt();
 
         // validate the header data
-        if(on != 0 && on != 1) throw new IOException("Unexpected on value: " + on);
+        if(on != OFF && on != ON_WITHOUT_CHECKSUM && on != ON) throw new IOException("Unexpected on value: " + on);
         if(sizeToUse != 0 && sizeToUse != 1) throw new IOException("Unexpected size to use value " + sizeToUse);
-        if(size[sizeToUse] < 0) throw new IOException("Unexpected size: " + size[sizeToUse]);
+        if(size[sizeToUse] < bytesRequired || offset + size[sizeToUse] > fileChannel.size()) throw new IOException("Unexpected size: " + size[sizeToUse]);
 
         // header success
-        Chunk chunk = new Chunk(persistentMap, offset, (on == 1), sizeToUse, size);
+        Chunk chunk = new Chunk(persistentMap, offset, on, sizeToUse, size);
 
-        // read the data
-        if(chunk.on) {
-            chunk.readHeader();
+        // read the data, ignoring it if it was only partially written
+        if(chunk.on && !chunk.readHeader()) {
+            logger.warning("Ignoring partially written chunk at offset " + offset);
+            chunk.on = false;
         }
 
         // adjust the position to after this chunk
@@ -259,7 +294,7 @@ public final class Chunk {
     }
 
     /**
-     * Writes the data of this chunk to file. This requires 2 flushes to disk.
+     * Writes the data of this chunk to file, and then turns it on.
      */
     void writeData() throws IOException {
         assert(offset != -1);
@@ -274,17 +309,19 @@ public final class Chunk {
         chunkDataOut.writeInt(sequenceId);
         chunkDataOut.writeInt(keyBytesLength);
         chunkDataOut.writeInt(valueBytesLength);
+        chunkDataOut.writeInt(checksum(sequenceId, keyBytes, valueBytes));
         chunkData.append(keyBytes);
         chunkData.append(valueBytes);
 
+        int dataLength = chunkData.length();
         chunkData.writeToChannel(fileChannel.position(offset + 16));
-        fileChannel.force(false);
+        persistentMap.wrote(dataLength);
 
         // turn the written data on
         on = true;
-        chunkDataOut.writeInt(1); // on == true
+        chunkDataOut.writeInt(ON);
         chunkData.writeToChannel(fileChannel.position(offset));
-        fileChannel.force(false);
+        persistentMap.wrote(4);
 
         // clean up stuff we don't need no more
         keyBytes = null;
@@ -293,8 +330,10 @@ public final class Chunk {
 
     /**
      * Reads the sequence ID, key and value size for this chunk.
+     *
+     * @return false if the chunk's data doesn't match its checksum.
      */
-    private void readHeader() throws IOException {
+    private boolean readHeader() throws IOException {
         assert(offset != -1);
         assert(size() != -1);
 
@@ -318,13 +357,42 @@ public final class Chunk {
         sequenceId = dataIn.readInt();
         keyBytesLength = dataIn.readInt();
         valueBytesLength = dataIn.readInt();
+        int checksum = checksummed ? dataIn.readInt() : 0;
+        if(keyBytesLength < 0 || valueBytesLength < 0 || keyBytesLength + valueBytesLength > chunkAsBytes.length()) {
+            if(checksummed) return false;
+            throw new IOException("Unexpected key and value sizes: " + keyBytesLength + ", " + valueBytesLength);
+        }
         keyBytes = chunkAsBytes.consume(keyBytesLength);
 
+        // verify the data
+        if(checksummed && checksum != checksum(sequenceId, keyBytes, chunkAsBytes.consume(valueBytesLength))) {
+            return false;
+        }
+
         // skip any excess
         chunkAsBytes.clear();
 
         // process the read data
         key = persistentMap.getKeyCoder().decode(keyBytes.getInputStream());
+        return true;
+    }
+
+    /**
+     * Computes the checksum of the specified data of a chunk.
+     */
+    private static int checksum(int sequenceId, Bufferlo keyBytes, Bufferlo valueBytes) throws IOException {
+        CRC32 crc = new CRC32();
+        for(int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(sequenceId >>> shift);
+        }
+        byte[] buffer = new byte[1024];
+        for(int b = 0; b < 2; b++) {
+            InputStream in = (b == 0 ? keyBytes : valueBytes).duplicate().getInputStream();
+            for(int read; (read = in.read(buffer, 0, buffer.length)) > 0; ) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return (int)crc.getValue();
     }
 
     /**
@@ -350,6 +418,7 @@ public final class Chunk {
         valueLocation += 4; // sequence ID
         valueLocation += 4; // key size
         valueLocation += 4; // value size
+        if(checksummed) valueLocation += 4; // checksum
         valueLocation += keyBytesLength; // key
 
         // read
@@ -33,6 +33,7 @@ class CloseFile implements Runnable {
     @Override
     public void run() {
         try {
+            persistentMap.force();
             persistentMap.getFileChannel().close();
         } catch(IOException e) {
             persistentMap.fail(e, "Failed to close file " + persistentMap.getFile().getPath());
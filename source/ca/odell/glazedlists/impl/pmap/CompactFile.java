@@ -0,0 +1,149 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+// NIO is used for CTP
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites the file of a persistent map so that it contains only the chunks that
+ * are on. This reclaims the space consumed by removed and replaced chunks.
+ *
+ * <p>The live chunks are copied in file order into a temporary file, which then
+ * replaces the original. Because this runs on the {@link PersistentMap}'s daemon
+ * like every other write, chunks added or removed while compacting are simply
+ * queued until it completes.
+ *
+ * <p>The copy is forced to disk before the original is replaced, so if the
+ * original is ever missing while the copy remains, the copy is complete. This
+ * is the case if the process dies after deleting the original on platforms
+ * that cannot rename over it. Such a copy is put in place by {@link #recover}
+ * when the map is next opened.
+ */
+class CompactFile implements Runnable {
+
+    /** logging */
+    private static Logger logger = Logger.getLogger(CompactFile.class.toString());
+
+    /** the host map */
+    private final PersistentMap persistentMap;
+
+    /** the chunks that were in the map when compaction was requested */
+    private final List chunks;
+
+    /**
+     * Create a new CompactFile.
+     */
+    public CompactFile(PersistentMap persistentMap, List chunks) {
+        this.persistentMap = persistentMap;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Copy the live chunks to a new file and swap it in.
+     */
+    @Override
+    public void run() {
+        File file = persistentMap.getFile();
+        File compactFile = compactFile(file);
+
+        try {
+            // only chunks that made it to disk and are still on survive
+            List liveChunks = new ArrayList();
+            for(Iterator c = chunks.iterator(); c.hasNext(); ) {
+                Chunk chunk = (Chunk)c.next();
+                if(chunk.isOn() && chunk.getOffset() != -1) liveChunks.add(chunk);
+            }
+            Collections.sort(liveChunks, new OffsetComparator());
+
+            // write the file header
+            FileChannel source = persistentMap.getFileChannel();
+            FileChannel target = persistentMap.openFileChannel(compactFile);
+            target.truncate(0);
+            Bufferlo fileHeader = new Bufferlo();
+            fileHeader.write("GLAZED\n\n");
+            fileHeader.writeToChannel(target.position(0));
+
+            // copy each chunk as-is, remembering where it went
+            int nextAvailableByte = 8;
+            int[] newOffsets = new int[liveChunks.size()];
+            for(int i = 0; i < liveChunks.size(); i++) {
+                Chunk chunk = (Chunk)liveChunks.get(i);
+                int size = chunk.size();
+                long copied = 0;
+                while(copied < size) {
+                    copied += source.transferTo(chunk.getOffset() + copied, size - copied, target.position(nextAvailableByte + copied));
+                }
+                newOffsets[i] = nextAvailableByte;
+                nextAvailableByte += size;
+            }
+            target.force(true);
+            target.close();
+
+            // swap the compact file in place of the original
+            source.close();
+            if(!compactFile.renameTo(file)) {
+                if(!file.delete() || !compactFile.renameTo(file)) {
+                    throw new IOException("Failed to replace " + file.getPath() + " with " + compactFile.getPath());
+                }
+            }
+
+            // the chunks now live at their new offsets
+            for(int i = 0; i < liveChunks.size(); i++) {
+                ((Chunk)liveChunks.get(i)).relocate(newOffsets[i]);
+            }
+            persistentMap.compacted(persistentMap.openFileChannel(file), nextAvailableByte);
+            logger.info("Successfully compacted file to " + nextAvailableByte + " bytes");
+
+        } catch(IOException e) {
+            // if the original is gone the copy is complete, and recover() puts it in place
+            if(file.exists()) compactFile.delete();
+            persistentMap.fail(e, "Failed to compact file " + file.getPath());
+        }
+    }
+
+    /**
+     * Gets the file that the specified map file is compacted into.
+     */
+    private static File compactFile(File file) {
+        return new File(file.getPath() + ".compact");
+    }
+
+    /**
+     * Recovers from a compaction of the specified file that was interrupted.
+     * If the original is missing, the compact copy is complete and replaces
+     * it. Otherwise the copy may be partial and is deleted.
+     */
+    static void recover(File file) throws IOException {
+        File compactFile = compactFile(file);
+        if(!compactFile.exists()) return;
+
+        if(file.exists()) {
+            if(!compactFile.delete()) throw new IOException("Failed to delete " + compactFile.getPath());
+        } else {
+            logger.warning("Recovering " + file.getPath() + " from an interrupted compaction");
+            if(!compactFile.renameTo(file)) throw new IOException("Failed to replace " + file.getPath() + " with " + compactFile.getPath());
+        }
+    }
+
+    /**
+     * Orders chunks by their position in the file.
+     */
+    private static class OffsetComparator implements Comparator {
+        @Override
+        public int compare(Object a, Object b) {
+            return ((Chunk)a).getOffset() - ((Chunk)b).getOffset();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+// NIO is used for CTP
+import java.io.IOException;
+
+/**
+ * Forces all writes so far to disk. Since it runs after all pending writes, this
+ * is useful as a durability barrier with invokeAndWait().
+ */
+class ForceFile implements Runnable {
+
+    /** the host map */
+    private final PersistentMap persistentMap;
+
+    /**
+     * Create a new ForceFile.
+     */
+    public ForceFile(PersistentMap persistentMap) {
+        this.persistentMap = persistentMap;
+    }
+
+    /**
+     * Force the file.
+     */
+    @Override
+    public void run() {
+        try {
+            persistentMap.force();
+        } catch(IOException e) {
+            persistentMap.fail(e, "Failed to force file " + persistentMap.getFile().getPath());
+        }
+    }
+}
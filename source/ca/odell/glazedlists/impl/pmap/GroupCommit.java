@@ -0,0 +1,111 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+import ca.odell.glazedlists.io.Durability;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Applies a {@link Durability} policy to a stream of writes, by counting the
+ * bytes written since the last force and deciding when the next force is due.
+ * Forces that are due later are run by a timer.
+ */
+final class GroupCommit {
+
+    /** when to force writes to disk */
+    private final Durability durability;
+
+    /** the name of the timer thread */
+    private final String name;
+
+    /** forces the writes once a group's delay has elapsed */
+    private final Runnable commit;
+
+    /** the number of bytes written since the last force */
+    private int unforcedBytes = 0;
+
+    /** whether a group commit is pending */
+    private boolean commitScheduled = false;
+
+    /** schedules group commits, created on demand */
+    private Timer commitTimer = null;
+
+    /**
+     * @param name the name of the thread that runs delayed commits
+     * @param commit forces the writes when a group's delay has elapsed. This
+     *      runs on the timer thread.
+     */
+    GroupCommit(Durability durability, String name, Runnable commit) {
+        if(durability == null) throw new IllegalArgumentException("durability must not be null");
+        this.durability = durability;
+        this.name = name;
+        this.commit = commit;
+    }
+
+    /**
+     * Handles the specified number of bytes having been written.
+     *
+     * @return true if the writes must be forced now. Otherwise they are left
+     *      to the operating system, or a commit has been scheduled.
+     */
+    synchronized boolean wrote(int bytes) {
+        unforcedBytes += bytes;
+
+        // force immediately
+        if(durability.isSyncEveryWrite()) {
+            return true;
+
+        // leave it to the OS
+        } else if(durability.isOSBuffered()) {
+            return false;
+
+        // commit this group if it's big enough, or make sure it's committed soon
+        } else if(unforcedBytes >= durability.getMaxBytes()) {
+            return true;
+        } else if(!commitScheduled) {
+            commitScheduled = true;
+            if(commitTimer == null) commitTimer = new Timer(name, true);
+            commitTimer.schedule(new CommitTask(), durability.getMaxDelay());
+        }
+        return false;
+    }
+
+    /**
+     * Whether any bytes have been written since the last force.
+     */
+    synchronized boolean isForceNeeded() {
+        return unforcedBytes != 0;
+    }
+
+    /**
+     * Handles all written bytes having been forced to disk.
+     */
+    synchronized void forced() {
+        unforcedBytes = 0;
+    }
+
+    /**
+     * Stops scheduling commits, such as when the file is being closed.
+     */
+    synchronized void cancel() {
+        if(commitTimer != null) commitTimer.cancel();
+        commitTimer = null;
+        commitScheduled = false;
+    }
+
+    /**
+     * Commits the current group of writes once its delay has elapsed.
+     */
+    private class CommitTask extends TimerTask {
+        @Override
+        public void run() {
+            synchronized(GroupCommit.this) {
+                commitScheduled = false;
+            }
+            commit.run();
+        }
+    }
+}
@@ -9,6 +9,9 @@ import ca.odell.glazedlists.impl.io.Bufferlo;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -49,15 +52,31 @@ class OpenFile implements Runnable {
             readHeader();
 
             // now read the data
+            List replaced = new ArrayList();
             while(true) {
-                Chunk chunk = Chunk.readChunk(persistentMap);
+                int offset = (int)fileChannel.position();
+                Chunk chunk;
+                try {
+                    chunk = Chunk.readChunk(persistentMap);
+                } catch(IOException e) {
+                    // a crash interrupted the last writes, which were never forced
+                    logger.warning("Discarding partially written data at offset " + offset + ": " + e.getMessage());
+                    persistentMap.truncated(offset);
+                    break;
+                }
                 if(chunk == null) break;
-                persistentMap.loadedChunk(chunk);
+                Chunk replacedChunk = persistentMap.loadedChunk(chunk);
+                if(replacedChunk != null) replaced.add(replacedChunk);
                 if(chunk.isOn()) {
                     logger.info("Successfully loaded key \"" + chunk.getKey() + "\"");
                 }
             }
 
+            // turn off values that a crash left on after they were replaced
+            for(Iterator c = replaced.iterator(); c.hasNext(); ) {
+                persistentMap.replaced((Chunk)c.next());
+            }
+
         } catch(IOException e) {
             persistentMap.fail(e, "Failed to access file " + persistentMap.getFile().getPath());
         }
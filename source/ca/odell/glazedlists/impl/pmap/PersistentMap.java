@@ -6,6 +6,7 @@ package ca.odell.glazedlists.impl.pmap;
 // NIO is used for CTP
 import ca.odell.glazedlists.impl.nio.NIODaemon;
 import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.Durability;
 import ca.odell.glazedlists.io.GlazedListsIO;
 
 import java.io.File;
@@ -24,6 +25,10 @@ import java.util.logging.Logger;
  * operations will be immediate, but will return without having taken effect on disk.
  * To flush the disk, call {@link #flush()}.
  *
+ * <p>How often that thread forces its writes to the storage device is determined
+ * by the map's {@link Durability}. Regardless, {@link #flush()} is a durability
+ * barrier: when it returns, all previous operations have been forced.
+ *
  * @author <a href="mailto:jesse@swank.ca">Jesse Wilson</a>
  */
 public final class PersistentMap implements Map {
@@ -37,7 +42,10 @@ public final class PersistentMap implements Map {
     private static Logger logger = Logger.getLogger(PersistentMap.class.toString());
 
     /** read and write without ever flushing meta-data such as file-mod date */
-    private static final String FILE_ACCESS_MODE = "rwd";
+    private static final String SYNC_FILE_ACCESS_MODE = "rwd";
+
+    /** read and write, leaving it to us to force the data to disk */
+    private static final String BUFFERED_FILE_ACCESS_MODE = "rw";
 
     /** the file where all the data is stored */
     private File file = null;
@@ -58,6 +66,15 @@ public final class PersistentMap implements Map {
     /** just allocate bytes in order */
     private int nextAvailableByte = 8;
 
+    /** when to force writes to disk */
+    private Durability durability = null;
+
+    /** decides when written bytes are forced to disk */
+    private GroupCommit groupCommit = null;
+
+    /** replaced chunks to turn off once their replacements have been forced */
+    private List pendingDeletes = new ArrayList();
+
     /**
      * Creates a new PersistentMap for the specified file that uses the {@link Serializable}
      * interface to convert keys to bytes.
@@ -70,11 +87,28 @@ public final class PersistentMap implements Map {
      * {@link ByteCoder} to convert keys to bytes.
      */
     public PersistentMap(File file, ByteCoder keyCoder) throws IOException {
+        this(file, keyCoder, Durability.syncEveryWrite());
+    }
+    /**
+     * Creates a new PersistentMap for the specified file that uses the specified
+     * {@link ByteCoder} to convert keys to bytes, and forces writes to disk as
+     * specified by the {@link Durability}.
+     */
+    public PersistentMap(File file, ByteCoder keyCoder, Durability durability) throws IOException {
+        if(durability == null) throw new IllegalArgumentException("durability must not be null");
         this.file = file;
         this.keyCoder = keyCoder;
-
-        // set up file access
-        fileChannel = new RandomAccessFile(file, FILE_ACCESS_MODE).getChannel();
+        this.durability = durability;
+        this.groupCommit = new GroupCommit(durability, "PersistentMap group commit", new Runnable() {
+            @Override
+            public void run() {
+                nioDaemon.invokeLater(new ForceFile(PersistentMap.this));
+            }
+        });
+
+        // set up file access, finishing any compaction that was interrupted
+        CompactFile.recover(file);
+        fileChannel = openFileChannel(file);
 
         // start the nio daemon
         nioDaemon = new NIODaemon();
@@ -88,6 +122,9 @@ public final class PersistentMap implements Map {
      * Closes the file used by this PersistentMap.
      */
     public void close() {
+        // no more group commits, closing forces everything
+        groupCommit.cancel();
+
         // close the file
         nioDaemon.invokeAndWait(new CloseFile(this));
 
@@ -96,11 +133,29 @@ public final class PersistentMap implements Map {
     }
 
     /**
-     * Blocks until all pending writes to disk have completed.
+     * Blocks until all pending writes to disk have completed and have been
+     * forced to the storage device.
      */
     public void flush() {
-        // ensure all pending changes have been written
-        nioDaemon.invokeAndWait(NoOp.instance());
+        // ensure all pending changes have been written and forced
+        nioDaemon.invokeAndWait(new ForceFile(this));
+    }
+
+    /**
+     * Gets the policy for forcing writes to disk.
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Rewrites the file so that it holds only the current entries, reclaiming
+     * the space of removed and replaced values. Like all writes this happens
+     * on the persistence thread, so this method returns immediately. Call
+     * {@link #flush()} to wait for it to complete.
+     */
+    public void compact() {
+        nioDaemon.invokeLater(new CompactFile(this, new ArrayList(map.values())));
     }
 
     /**
@@ -256,6 +311,64 @@ public final class PersistentMap implements Map {
         return fileChannel;
     }
 
+    /**
+     * Opens a channel for reading and writing the specified file.
+     */
+    FileChannel openFileChannel(File file) throws IOException {
+        String mode = durability.isSyncEveryWrite() ? SYNC_FILE_ACCESS_MODE : BUFFERED_FILE_ACCESS_MODE;
+        return new RandomAccessFile(file, mode).getChannel();
+    }
+
+    /**
+     * Handles the file having been replaced by a compacted copy.
+     */
+    void compacted(FileChannel fileChannel, int nextAvailableByte) {
+        this.fileChannel = fileChannel;
+        this.nextAvailableByte = nextAvailableByte;
+        groupCommit.forced();
+
+        // replaced chunks weren't copied, so there's nothing left to turn off
+        pendingDeletes.clear();
+    }
+
+    /**
+     * Handles the specified number of bytes having been written to the file.
+     * Depending on the {@link Durability}, this forces them to disk now, or
+     * later with other writes. This must be called on the persistence thread.
+     */
+    void wrote(int bytes) throws IOException {
+        if(groupCommit.wrote(bytes)) force();
+    }
+
+    /**
+     * Handles the specified chunk having been replaced by a newer one for the
+     * same key. The old chunk is turned off once the new one has been forced to
+     * disk, so that a crash never loses both. This must be called on the
+     * persistence thread.
+     */
+    void replaced(Chunk chunk) throws IOException {
+        if(!durability.isSyncEveryWrite() && !durability.isOSBuffered()) pendingDeletes.add(chunk);
+        else chunk.delete();
+    }
+
+    /**
+     * Forces all written bytes to disk. This must be called on the persistence
+     * thread.
+     */
+    void force() throws IOException {
+        if(!groupCommit.isForceNeeded()) return;
+        fileChannel.force(false);
+        groupCommit.forced();
+
+        // turn off the chunks whose replacements are now on disk. Until this is
+        // forced, a crash leaves both chunks on and the newer one is used
+        List forcedDeletes = pendingDeletes;
+        pendingDeletes = new ArrayList();
+        for(Iterator c = forcedDeletes.iterator(); c.hasNext(); ) {
+            ((Chunk)c.next()).delete();
+        }
+    }
+
     /**
      * Handles a write failure.
      */
@@ -265,16 +378,35 @@ public final class PersistentMap implements Map {
 
     /**
      * Handles the specified chunk having been loaded from file.
+     *
+     * @return the chunk that is no longer current because a chunk with the same
+     *      key and a later sequence ID has been loaded, or <code>null</code>.
      */
-    void loadedChunk(Chunk chunk) {
+    Chunk loadedChunk(Chunk chunk) {
+        // update allocation
+        nextAvailableByte = Math.max(nextAvailableByte, chunk.getOffset() + chunk.size());
+
         // if this chunk contains active data
-        if(chunk.isOn()) {
-            map.put(chunk.getKey(), chunk);
-            nextSequenceId = Math.max(nextSequenceId, chunk.getSequenceId() + 1);
+        if(!chunk.isOn()) return null;
+        nextSequenceId = Math.max(nextSequenceId, chunk.getSequenceId() + 1);
+
+        // keep the latest value when a crash left a replaced chunk on
+        Chunk previous = (Chunk)map.put(chunk.getKey(), chunk);
+        if(previous != null && previous.getSequenceId() > chunk.getSequenceId()) {
+            map.put(previous.getKey(), previous);
+            return chunk;
         }
+        return previous;
+    }
 
-        // update allocation
-        nextAvailableByte = Math.max(nextAvailableByte, chunk.getOffset() + chunk.size());
+    /**
+     * Handles the file having been read up to the specified offset, beyond
+     * which there's only a partially written chunk. That chunk was never forced
+     * so it is discarded.
+     */
+    void truncated(int offset) throws IOException {
+        fileChannel.truncate(offset);
+        nextAvailableByte = offset;
     }
 
     /**
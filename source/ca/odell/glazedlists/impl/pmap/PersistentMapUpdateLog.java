@@ -0,0 +1,68 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An {@link UpdateLog} that stores each update as an entry in a {@link PersistentMap}.
+ */
+public final class PersistentMapUpdateLog implements UpdateLog {
+
+    /** the updates, keyed by Integer update ID */
+    private final PersistentMap storage;
+
+    /**
+     * Create a new PersistentMapUpdateLog that stores updates in the specified map.
+     */
+    public PersistentMapUpdateLog(PersistentMap storage) {
+        this.storage = storage;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized SortedMap readUpdates() {
+        SortedMap updates = new TreeMap();
+        for(Iterator k = storage.keySet().iterator(); k.hasNext(); ) {
+            Integer key = (Integer)k.next();
+            updates.put(key, ((Chunk)storage.get(key)).getValue());
+        }
+        return updates;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void write(int updateId, Bufferlo update) {
+        storage.put(Integer.valueOf(updateId), new Chunk(update));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void discardBefore(int updateId) {
+        for(Iterator k = new ArrayList(storage.keySet()).iterator(); k.hasNext(); ) {
+            Integer key = (Integer)k.next();
+            if(key.intValue() < updateId) storage.remove(key);
+        }
+
+        // PersistentMap only appends, reclaim the space of the removed chunks
+        storage.compact();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        storage.flush();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void close() {
+        storage.close();
+    }
+}
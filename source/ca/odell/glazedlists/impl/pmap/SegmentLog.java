@@ -0,0 +1,435 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+import ca.odell.glazedlists.io.Durability;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link UpdateLog} made of append-only, memory-mapped segment files.
+ *
+ * <p>Each segment is a file of a fixed size, preallocated with zeros, that starts
+ * with a short header and is followed by records:
+ * <ol>
+ *   <li>the length of the update, never zero
+ *   <li>a CRC-32 of the update ID and the update
+ *   <li>the update ID
+ *   <li>the update itself
+ * </ol>
+ * A length of zero marks the end of the segment's records. When a record doesn't
+ * fit in the current segment, a new segment is started.
+ *
+ * <p>On open, every segment is scanned sequentially. The first record that is
+ * incomplete or fails its checksum is a torn write from a crash: it and
+ * everything after it is zeroed, and any later segments are deleted.
+ *
+ * <p>Reading the updates doesn't copy them: each returned {@link Bufferlo}
+ * views the mapped segment directly.
+ *
+ * <p>Segments are deleted once all of their updates have been
+ * {@link #discardBefore(int) discarded}. Since mapped files are only unmapped
+ * by the garbage collector, some platforms may refuse to delete a segment right
+ * away. Such segments are deleted on exit instead.
+ */
+public final class SegmentLog implements UpdateLog {
+
+    /** logging */
+    private static Logger logger = Logger.getLogger(SegmentLog.class.toString());
+
+    /** the first bytes of every segment */
+    private static final byte[] HEADER = { 'G', 'L', 'S', 'E', 'G', '0', '1', '\n' };
+
+    /** length, CRC and update ID */
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /** the suffix of segment files */
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    /** the directory holding the segments */
+    private final File directory;
+
+    /** the preferred size of each segment */
+    private final int segmentSize;
+
+    /** the segments in order, the last one is being appended to */
+    private final List segments = new ArrayList();
+
+    /** updates less than this ID have been discarded */
+    private int discardBefore = Integer.MIN_VALUE;
+
+    /** decides when written bytes are forced to disk */
+    private final GroupCommit groupCommit;
+
+    /** used to verify records */
+    private final CRC32 crc = new CRC32();
+    private final byte[] crcBuffer = new byte[4096];
+
+    /**
+     * Opens the segment log in the specified directory, creating it if necessary,
+     * and recovers from any torn writes.
+     *
+     * @param segmentSize the size of each segment file in bytes. Larger updates
+     *      get a segment of their own.
+     */
+    public SegmentLog(File directory, int segmentSize, Durability durability) throws IOException {
+        if(segmentSize <= HEADER.length + RECORD_HEADER_SIZE) throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.groupCommit = new GroupCommit(durability, "SegmentLog group commit", new Runnable() {
+            @Override
+            public void run() {
+                synchronized(SegmentLog.this) {
+                    if(!segments.isEmpty()) force();
+                }
+            }
+        });
+
+        if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Failed to create directory " + directory.getPath());
+        recover();
+    }
+
+    /**
+     * Opens and scans all the segments in order.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+
+        boolean torn = false;
+        for(int f = 0; f < files.length; f++) {
+            // everything after a torn write is lost
+            if(torn) {
+                logger.warning("Deleting segment " + files[f].getName() + " after a torn write");
+                delete(files[f]);
+                continue;
+            }
+
+            // a segment that was never initialized
+            if(files[f].length() < HEADER.length + 4) {
+                delete(files[f]);
+                torn = true;
+                continue;
+            }
+
+            Segment segment = new Segment(files[f], segmentNumber(files[f]));
+            segments.add(segment);
+            torn = !segment.scan();
+        }
+
+        if(segments.isEmpty()) rollover(0);
+    }
+
+    /**
+     * Starts a new segment with room for at least the specified number of
+     * bytes of records.
+     */
+    private Segment rollover(int bytesRequired) throws IOException {
+        // make the previous segment durable before we leave it
+        if(!segments.isEmpty()) force();
+
+        int number = segments.isEmpty() ? 1 : activeSegment().number + 1;
+        File file = new File(directory, segmentName(number));
+        Segment segment = new Segment(file, number, Math.max(segmentSize, HEADER.length + bytesRequired + 4));
+        segments.add(segment);
+
+        deleteDiscardedSegments();
+        return segment;
+    }
+
+    /**
+     * Gets the segment currently being appended to.
+     */
+    private Segment activeSegment() {
+        return (Segment)segments.get(segments.size() - 1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized SortedMap readUpdates() {
+        SortedMap updates = new TreeMap();
+        for(Iterator s = segments.iterator(); s.hasNext(); ) {
+            ((Segment)s.next()).readUpdates(updates);
+        }
+        return updates;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void write(int updateId, Bufferlo update) throws IOException {
+        int length = update.length();
+        if(length == 0) throw new IllegalArgumentException("empty updates cannot be written");
+        int recordSize = RECORD_HEADER_SIZE + length;
+
+        Segment segment = activeSegment();
+        if(segment.remaining() < recordSize) segment = rollover(recordSize);
+        segment.append(updateId, update, length);
+
+        // apply the Durability policy
+        if(groupCommit.wrote(recordSize)) force();
+    }
+
+    /**
+     * Forces the active segment to disk.
+     */
+    private void force() {
+        if(!groupCommit.isForceNeeded()) return;
+        activeSegment().buffer.force();
+        groupCommit.forced();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void discardBefore(int updateId) {
+        discardBefore = Math.max(discardBefore, updateId);
+        deleteDiscardedSegments();
+    }
+
+    /**
+     * Deletes all segments other than the active one whose updates have all
+     * been discarded.
+     */
+    private void deleteDiscardedSegments() {
+        for(int s = 0; s < segments.size() - 1; ) {
+            Segment segment = (Segment)segments.get(s);
+            if(segment.maxUpdateId < discardBefore) {
+                // the updates that replaced this segment's must be durable before it's gone
+                force();
+                segments.remove(s);
+                segment.close();
+                delete(segment.file);
+            } else {
+                s++;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void flush() {
+        force();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void close() {
+        groupCommit.cancel();
+        force();
+        for(Iterator s = segments.iterator(); s.hasNext(); ) {
+            ((Segment)s.next()).close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Deletes the specified file, or schedules it to be deleted on exit if it
+     * is still mapped.
+     */
+    private static void delete(File file) {
+        if(!file.delete()) file.deleteOnExit();
+    }
+
+    private static String segmentName(int number) {
+        String digits = Integer.toString(number);
+        StringBuffer name = new StringBuffer();
+        for(int i = digits.length(); i < 10; i++) name.append('0');
+        return name.append(digits).append(SEGMENT_SUFFIX).toString();
+    }
+
+    private static int segmentNumber(File file) throws IOException {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch(NumberFormatException e) {
+            throw new IOException("Unexpected segment file " + name);
+        }
+    }
+
+    /**
+     * A single memory-mapped segment file.
+     */
+    private class Segment {
+
+        /** the file being mapped */
+        private final File file;
+
+        /** the order of this segment */
+        private final int number;
+
+        /** the whole file, positioned where the next record goes */
+        private MappedByteBuffer buffer;
+
+        /** the greatest update ID stored in this segment */
+        private int maxUpdateId = Integer.MIN_VALUE;
+
+        /**
+         * Maps an existing segment.
+         */
+        Segment(File file, int number) throws IOException {
+            this.file = file;
+            this.number = number;
+            this.buffer = map(file, file.length());
+        }
+
+        /**
+         * Creates and maps a new segment of the specified size.
+         */
+        Segment(File file, int number, int size) throws IOException {
+            this.file = file;
+            this.number = number;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(size);
+            } finally {
+                randomAccessFile.close();
+            }
+            this.buffer = map(file, size);
+            buffer.put(HEADER);
+        }
+
+        private MappedByteBuffer map(File file, long size) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                // the mapping remains valid after the channel is closed
+                randomAccessFile.close();
+            }
+        }
+
+        /**
+         * Validates the records of this segment and positions the buffer after
+         * the last good one. If a torn record is found, it and the rest of the
+         * segment are zeroed.
+         *
+         * @return true if the segment ended cleanly
+         */
+        boolean scan() {
+            if(buffer.capacity() < HEADER.length) return truncate(0);
+            for(int i = 0; i < HEADER.length; i++) {
+                if(buffer.get(i) != HEADER[i]) return truncate(0);
+            }
+
+            int position = HEADER.length;
+            while(position + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if(length == 0) break;
+
+                // validate the record
+                if(length < 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) return truncate(position);
+                int expectedCrc = buffer.getInt(position + 4);
+                if(checksum(position + 8, 4 + length) != expectedCrc) return truncate(position);
+
+                maxUpdateId = Math.max(maxUpdateId, buffer.getInt(position + 8));
+                position += RECORD_HEADER_SIZE + length;
+            }
+            buffer.position(Math.min(position, buffer.capacity()));
+            return true;
+        }
+
+        /**
+         * Zeroes this segment from the specified position onward.
+         */
+        private boolean truncate(int position) {
+            logger.warning("Truncating torn write in segment " + file.getName() + " at " + position);
+            if(position == 0) {
+                buffer.position(0);
+                buffer.put(HEADER);
+                position = HEADER.length;
+            }
+            for(int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte)0);
+            }
+            buffer.force();
+            buffer.position(position);
+            return false;
+        }
+
+        /**
+         * Computes the CRC of the specified bytes of this segment.
+         */
+        private int checksum(int offset, int length) {
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(offset);
+            crc.reset();
+            while(length > 0) {
+                int count = Math.min(length, crcBuffer.length);
+                bytes.get(crcBuffer, 0, count);
+                crc.update(crcBuffer, 0, count);
+                length -= count;
+            }
+            return (int)crc.getValue();
+        }
+
+        /**
+         * Gets the number of bytes left for records.
+         */
+        int remaining() {
+            // keep room for the terminating zero length
+            return buffer.remaining() - 4;
+        }
+
+        /**
+         * Writes a record to this segment. The length is written last, so that the
+         * record is never visible before it is complete.
+         */
+        void append(int updateId, Bufferlo update, int length) {
+            int position = buffer.position();
+            buffer.position(position + 8);
+            buffer.putInt(updateId);
+            update.writeToBuffer(buffer);
+            buffer.putInt(position + 4, checksum(position + 8, 4 + length));
+            buffer.putInt(position, length);
+            maxUpdateId = Math.max(maxUpdateId, updateId);
+        }
+
+        /**
+         * Adds views of this segment's updates to the specified map.
+         */
+        void readUpdates(SortedMap updates) {
+            int position = HEADER.length;
+            int end = buffer.position();
+            while(position < end) {
+                int length = buffer.getInt(position);
+                int updateId = buffer.getInt(position + 8);
+
+                ByteBuffer view = buffer.duplicate();
+                view.limit(position + RECORD_HEADER_SIZE + length);
+                view.position(position + RECORD_HEADER_SIZE);
+                updates.put(Integer.valueOf(updateId), new Bufferlo().append(view));
+
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        /**
+         * Releases this segment.
+         */
+        void close() {
+            buffer.force();
+            buffer = null;
+        }
+    }
+}
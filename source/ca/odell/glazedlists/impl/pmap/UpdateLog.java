@@ -0,0 +1,46 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.io.IOException;
+import java.util.SortedMap;
+
+/**
+ * Durable storage for a sequence of updates, each identified by an increasing
+ * update ID. This is the storage behind a {@link ca.odell.glazedlists.io.FileList}.
+ *
+ * <p>Implementations must be safe for use by multiple threads.
+ */
+public interface UpdateLog {
+
+    /**
+     * Reads all the stored updates, as a map from their {@link Integer} update IDs
+     * to their {@link Bufferlo} contents.
+     */
+    SortedMap readUpdates() throws IOException;
+
+    /**
+     * Writes the specified update. Update IDs need not be written in order.
+     */
+    void write(int updateId, Bufferlo update) throws IOException;
+
+    /**
+     * Discards all updates whose ID is less than the specified ID, since they
+     * have been superseded by a snapshot. The space they use may be reclaimed
+     * later.
+     */
+    void discardBefore(int updateId) throws IOException;
+
+    /**
+     * Blocks until all written updates are durable.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes and releases the storage.
+     */
+    void close() throws IOException;
+}
@@ -10,6 +10,9 @@ import ca.odell.glazedlists.impl.ctp.CTPHandlerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 /**
@@ -34,6 +37,9 @@ public class Peer implements CTPHandlerFactory {
     /** the connection management */
     private CTPConnectionManager connectionManager;
 
+    /** encodes snapshots away from the network thread, created when first needed */
+    private ExecutorService snapshotEncoder = null;
+
     /**
      * Creates a new peer that binds to the specified port.
      */
@@ -86,11 +92,35 @@ public class Peer implements CTPHandlerFactory {
                 connection.close();
             }
 
+            // abandon snapshots that haven't been encoded
+            if(snapshotEncoder != null) {
+                snapshotEncoder.shutdownNow();
+                snapshotEncoder = null;
+            }
+
             // stop the connection manager
             connectionManager.stop();
         }
     }
 
+    /**
+     * Sets whether connections made after this call compress their data.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        connectionManager.setCompressionEnabled(compressionEnabled);
+    }
+
+    /**
+     * Gets the total size of the data sent by this peer, before and after
+     * compression.
+     */
+    public long getBytesBeforeCompression() {
+        return connectionManager.getBytesBeforeCompression();
+    }
+    public long getBytesAfterCompression() {
+        return connectionManager.getBytesAfterCompression();
+    }
+
     /**
      * Prints the current state of this peer.
      */
@@ -155,4 +185,25 @@ public class Peer implements CTPHandlerFactory {
      void invokeLater(Runnable runnable) {
          connectionManager.getNIODaemon().invokeLater(runnable);
      }
+
+     /**
+      * Runs the specified task on the snapshot encoding thread. This must be
+      * called from the network thread.
+      */
+     void encodeLater(Runnable runnable) {
+         if(snapshotEncoder == null) snapshotEncoder = Executors.newSingleThreadExecutor(new SnapshotThreadFactory());
+         snapshotEncoder.execute(runnable);
+     }
+
+    /**
+     * Creates the daemon thread for encoding snapshots.
+     */
+    private static class SnapshotThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Peer snapshots");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
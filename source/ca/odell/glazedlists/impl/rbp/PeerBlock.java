@@ -4,8 +4,10 @@
 package ca.odell.glazedlists.impl.rbp;
 
 // NIO is used for BRP
+import ca.odell.glazedlists.impl.GlazedListsImpl;
 import ca.odell.glazedlists.impl.io.Bufferlo;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Iterator;
 import java.util.Map;
@@ -25,6 +27,7 @@ class PeerBlock {
     private static final String ACTION = "Action";
     private static final String ACTION_SUBSCRIBE = "Subscribe";
     private static final String ACTION_SUBSCRIBE_CONFIRM = "Subscribe-Confirm";
+    private static final String ACTION_RESUME_CONFIRM = "Resume-Confirm";
     private static final String ACTION_UPDATE = "Update";
     private static final String ACTION_UNSUBSCRIBE = "Unsubscribe";
     private static final String ACTION_UNPUBLISH = "Unpublish";
@@ -44,6 +47,11 @@ class PeerBlock {
     /** the binary data of this block */
     private Bufferlo payload = null;
 
+    /** the encoded block and the local address it was encoded for */
+    private ByteBuffer encoded = null;
+    private String encodedForHost = null;
+    private int encodedForPort = -1;
+
     /**
      * Create a new PeerBlock.
      */
@@ -62,6 +70,14 @@ class PeerBlock {
         return new PeerBlock(resourceUri, sessionId, PeerBlock.ACTION_SUBSCRIBE_CONFIRM, updateId, snapshot);
     }
 
+    /**
+     * Create a new resume block, confirming a subscription that continues from
+     * the specified update. The missing updates follow it.
+     */
+    public static PeerBlock resumeConfirm(ResourceUri resourceUri, int sessionId, int updateId) {
+        return new PeerBlock(resourceUri, sessionId, PeerBlock.ACTION_RESUME_CONFIRM, updateId, null);
+    }
+
     /**
      * Create a new subscribe block.
      */
@@ -76,6 +92,14 @@ class PeerBlock {
         return new PeerBlock(resourceUri, -1, PeerBlock.ACTION_SUBSCRIBE, -1, null);
     }
 
+    /**
+     * Create a new subscribe block for a subscriber that already holds the
+     * resource as of the specified update of the specified session.
+     */
+    public static PeerBlock subscribe(ResourceUri resourceUri, int sessionId, int updateId) {
+        return new PeerBlock(resourceUri, sessionId, PeerBlock.ACTION_SUBSCRIBE, updateId, null);
+    }
+
     /**
      * Create a new subscribe block.
      */
@@ -97,6 +121,13 @@ class PeerBlock {
         return ACTION_SUBSCRIBE_CONFIRM.equals(action);
     }
 
+    /**
+     * Whether this is a resume-confirm block.
+     */
+    public boolean isResumeConfirm() {
+        return ACTION_RESUME_CONFIRM.equals(action);
+    }
+
     /**
      * Whether this is an update block.
      */
@@ -182,12 +213,25 @@ class PeerBlock {
     }
 
     /**
-     * Get the bytes for this block.
+     * Get the bytes for this block. The block is encoded once and shared by
+     * all connections with the same local address, each of which gets its own
+     * read-only view of the encoded bytes.
      */
     public Bufferlo toBytes(String localHost, int localPort) {
-        // the writer with no size info
-        Bufferlo writer = new Bufferlo();
+        if(encoded == null || encodedForPort != localPort || !GlazedListsImpl.equal(encodedForHost, localHost)) {
+            encoded = encode(localHost, localPort);
+            encodedForHost = localHost;
+            encodedForPort = localPort;
+        }
+        Bufferlo result = new Bufferlo();
+        result.append(encoded.duplicate());
+        return result;
+    }
 
+    /**
+     * Encodes this block into a single read-only buffer.
+     */
+    private ByteBuffer encode(String localHost, int localPort) {
         // populate the map of headers
         Map headers = new TreeMap();
         if(resourceUri != null) headers.put(RESOURCE_URI, resourceUri.toString(localHost, localPort));
@@ -196,29 +240,26 @@ class PeerBlock {
         if(updateId != -1) headers.put(UPDATE_ID, new Integer(updateId));
 
         // write the header values
+        StringBuffer headerText = new StringBuffer();
         for(Iterator i = headers.entrySet().iterator(); i.hasNext(); ) {
             Map.Entry mapEntry = (Map.Entry)i.next();
-            writer.write(mapEntry.getKey().toString());
-            writer.write(": ");
-            writer.write(mapEntry.getValue().toString());
-            writer.write("\r\n");
-        }
-        writer.write("\r\n");
-
-        // write the payload
-        if(payload != null) {
-            writer.append(payload.duplicate());
+            headerText.append(mapEntry.getKey()).append(": ").append(mapEntry.getValue()).append("\r\n");
         }
-
-        // wrap the size
-        Bufferlo writerWithSize = new Bufferlo();
-        writerWithSize.write("" + writer.length());
-        writerWithSize.write("\r\n");
-        writerWithSize.append(writer);
-        writerWithSize.write("\r\n");
-
-        // all done
-        return writerWithSize;
+        headerText.append("\r\n");
+        ByteBuffer headerBytes = Bufferlo.stringToBytes(headerText.toString());
+
+        // wrap the size around the headers and the payload
+        int payloadLength = (payload != null) ? payload.length() : 0;
+        int blockLength = headerBytes.remaining() + payloadLength;
+        ByteBuffer sizeBytes = Bufferlo.stringToBytes(blockLength + "\r\n");
+        ByteBuffer result = ByteBuffer.allocateDirect(sizeBytes.remaining() + blockLength + 2);
+        result.put(sizeBytes);
+        result.put(headerBytes);
+        if(payload != null) payload.writeToBuffer(result);
+        result.put((byte)'\r');
+        result.put((byte)'\n');
+        result.flip();
+        return result.asReadOnlyBuffer();
     }
 
     /**
@@ -131,7 +131,7 @@ class PeerConnection implements CTPHandler {
                     resource = new ResourceConnection(this, peer.getPublishedResource(resourceUri));
                 } else if(block.isUnsubscribe()) {
                     resource = (ResourceConnection)outgoingPublications.get(resourceUri);
-                } else if(block.isSubscribeConfirm() || block.isUpdate() || block.isUnpublish()) {
+                } else if(block.isSubscribeConfirm() || block.isResumeConfirm() || block.isUpdate() || block.isUnpublish()) {
                     resource = (ResourceConnection)incomingSubscriptions.get(resourceUri);
                 } else {
                     throw new UnsupportedOperationException();
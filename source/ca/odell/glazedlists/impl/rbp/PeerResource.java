@@ -4,12 +4,15 @@
 package ca.odell.glazedlists.impl.rbp;
 
 // NIO is used for BRP
+import ca.odell.glazedlists.impl.adt.CircularArrayList;
 import ca.odell.glazedlists.impl.io.Bufferlo;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A resource that is being published on the network.
@@ -18,6 +21,13 @@ import java.util.Random;
  */
 class PeerResource {
 
+    /** logging */
+    private static Logger logger = Logger.getLogger(PeerResource.class.toString());
+
+    /** the most updates and bytes kept for subscribers that resume */
+    private static final int MAX_RECENT_UPDATES = 1024;
+    private static final int MAX_RECENT_UPDATE_BYTES = 4 * 1024 * 1024;
+
     /** the peer that owns all connections */
     private Peer peer;
 
@@ -26,6 +36,10 @@ class PeerResource {
     /** the update ID of the resource */
     private int resourceUpdateId = 0;
 
+    /** the most recent updates of a published resource, the last is resourceUpdateId */
+    private List recentUpdates = new CircularArrayList();
+    private int recentUpdatesBytes = 0;
+
     /** the address that this resource is being published as */
     private ResourceUri resourceUri;
 
@@ -36,6 +50,7 @@ class PeerResource {
 
     /** the session ID is a simple validation */
     private int sessionId = -1;
+    private static final Random random = new Random(System.currentTimeMillis());
 
     /** listens to changes in the resource */
     private PrivateResourceListener resourceListener = new PrivateResourceListener();
@@ -51,11 +66,6 @@ class PeerResource {
         this.resource = resource;
         this.resourceUri = resourceUri;
 
-        // create a random session ID as a check
-        if(resourceUri.isLocal()) {
-            this.sessionId = new Random(System.currentTimeMillis()).nextInt();
-        }
-
         // subscribe to the resource
         resourceStatus.connect();
     }
@@ -93,6 +103,7 @@ class PeerResource {
         @Override
         public void resourceUpdated(Resource resource, Bufferlo delta) {
             resourceUpdateId++;
+            if(resourceUri.isLocal()) rememberUpdate(delta);
             peer.invokeLater(new UpdatedRunnable(delta, resourceUpdateId));
         }
         private class UpdatedRunnable implements Runnable {
@@ -114,7 +125,7 @@ class PeerResource {
                 for(int s = 0; s < subscribers.size(); s++) {
                     ResourceConnection subscriber = (ResourceConnection)subscribers.get(s);
                     if(subscriber.getUpdateId() >= updateId) continue;
-                    subscriber.getConnection().writeBlock(PeerResource.this, block);
+                    subscriber.writeBlock(block);
                     subscriber.setUpdateId(updateId);
                 }
             }
@@ -124,6 +135,36 @@ class PeerResource {
         return resourceListener;
     }
 
+    /**
+     * Keeps the specified update so that subscribers who miss it can resume
+     * without a snapshot. This must be called while holding the Resource's
+     * write lock.
+     */
+    private void rememberUpdate(Bufferlo delta) {
+        Bufferlo update = delta.duplicate();
+        recentUpdates.add(update);
+        recentUpdatesBytes += update.length();
+        while(recentUpdates.size() > MAX_RECENT_UPDATES || (recentUpdatesBytes > MAX_RECENT_UPDATE_BYTES && recentUpdates.size() > 1)) {
+            Bufferlo oldest = (Bufferlo)recentUpdates.remove(0);
+            recentUpdatesBytes -= oldest.length();
+        }
+    }
+
+    /**
+     * Gets the updates that follow the specified update, or <code>null</code>
+     * if some of them are no longer kept. This must be called while holding the
+     * Resource's write lock.
+     */
+    private List updatesSince(int updateId) {
+        int missing = resourceUpdateId - updateId;
+        if(missing < 0 || missing > recentUpdates.size()) return null;
+        List result = new ArrayList(missing);
+        for(int u = recentUpdates.size() - missing; u < recentUpdates.size(); u++) {
+            result.add(((Bufferlo)recentUpdates.get(u)).duplicate());
+        }
+        return result;
+    }
+
     /**
      * Provides information about the status of this resource.
      */
@@ -155,12 +196,26 @@ class PeerResource {
 
                     peer.subscribed.put(resourceUri, PeerResource.this);
                     publisher.incomingSubscriptions.put(resourceUri, new ResourceConnection(publisher, PeerResource.this));
-                    PeerBlock subscribe = PeerBlock.subscribe(resourceUri);
+
+                    // if we've been subscribed before, resume from where we left off
+                    PeerBlock subscribe = null;
+                    if(sessionId != -1) subscribe = PeerBlock.subscribe(resourceUri, sessionId, resourceUpdateId);
+                    else subscribe = PeerBlock.subscribe(resourceUri);
                     publisher.writeBlock(PeerResource.this, subscribe);
 
                 // if this is local, we're immediately connected
                 } else if(resourceUri.isLocal()) {
-                    resource.addResourceListener(resourceListener);
+                    // create a random session ID as a check, changes made while
+                    // unpublished are not kept so subscribers can't resume
+                    resource.getReadWriteLock().writeLock().lock();
+                    try {
+                        sessionId = random.nextInt();
+                        recentUpdates.clear();
+                        recentUpdatesBytes = 0;
+                        resource.addResourceListener(resourceListener);
+                    } finally {
+                        resource.getReadWriteLock().writeLock().unlock();
+                    }
 
                     resourceStatus.setConnected(true, null);
                     if(peer.published.get(resourceUri) != null) throw new IllegalStateException();
@@ -250,6 +305,7 @@ class PeerResource {
     void incomingBlock(ResourceConnection source, PeerBlock block) {
         if(block.isSubscribe()) remoteSubscribe(source, block);
         else if(block.isSubscribeConfirm()) remoteSubscribeConfirm(source, block);
+        else if(block.isResumeConfirm()) remoteResumeConfirm(source, block);
         else if(block.isUpdate()) remoteUpdate(source, block);
         else if(block.isUnsubscribe()) remoteUnsubscribe(source, block);
         else if(block.isUnpublish()) remoteUnpublish(source, block);
@@ -275,13 +331,16 @@ class PeerResource {
     private void remoteSubscribe(ResourceConnection subscriber, PeerBlock block) {
         // we're accepting connections
         if(resourceStatus.isConnected()) {
-            // save the update id and a snapshot
+            // save the update id and either the missed updates or a snapshot,
+            // the snapshot may publish pending updates so it must be taken first
             int updateId = -1;
-            Bufferlo snapshot = null;
+            List missedUpdates = null;
+            ResourceSnapshot snapshot = null;
             resource.getReadWriteLock().writeLock().lock();
             try {
+                if(block.getSessionId() != -1 && block.getSessionId() == sessionId) missedUpdates = updatesSince(block.getUpdateId());
+                if(missedUpdates == null) snapshot = resource.captureSnapshot();
                 updateId = resourceUpdateId;
-                snapshot = resource.toSnapshot();
             } finally {
                 resource.getReadWriteLock().writeLock().unlock();
             }
@@ -291,9 +350,21 @@ class PeerResource {
             subscriber.getConnection().outgoingPublications.put(resourceUri, subscriber);
             subscribers.add(subscriber);
 
-            // now send the snapshot to this subscriber
-            PeerBlock subscribeConfirm = PeerBlock.subscribeConfirm(resourceUri, sessionId, updateId, snapshot);
-            subscriber.getConnection().writeBlock(this, subscribeConfirm);
+            // now send the missed updates to this subscriber
+            if(missedUpdates != null) {
+                int resumeFromId = updateId - missedUpdates.size();
+                subscriber.getConnection().writeBlock(this, PeerBlock.resumeConfirm(resourceUri, sessionId, resumeFromId));
+                for(int u = 0; u < missedUpdates.size(); u++) {
+                    PeerBlock update = PeerBlock.update(resourceUri, sessionId, resumeFromId + u + 1, (Bufferlo)missedUpdates.get(u));
+                    subscriber.getConnection().writeBlock(this, update);
+                }
+
+            // or encode the snapshot in the background, holding back the
+            // updates that follow it until it has been sent
+            } else {
+                subscriber.awaitSnapshot();
+                peer.encodeLater(new EncodeSnapshotRunnable(subscriber, snapshot, sessionId, updateId));
+            }
 
         // we're not accepting connections for now
         } else {
@@ -302,6 +373,65 @@ class PeerResource {
             if(subscriber.getConnection().isIdle()) subscriber.getConnection().close();
         }
     }
+    private class EncodeSnapshotRunnable implements Runnable {
+        private ResourceConnection subscriber;
+        private ResourceSnapshot snapshot;
+        private int snapshotSessionId;
+        private int updateId;
+        public EncodeSnapshotRunnable(ResourceConnection subscriber, ResourceSnapshot snapshot, int snapshotSessionId, int updateId) {
+            this.subscriber = subscriber;
+            this.snapshot = snapshot;
+            this.snapshotSessionId = snapshotSessionId;
+            this.updateId = updateId;
+        }
+        @Override
+        public void run() {
+            Bufferlo snapshotBytes;
+            try {
+                snapshotBytes = snapshot.toBytes();
+            } catch(RuntimeException e) {
+                // without a snapshot the subscriber would wait forever, so drop it
+                logger.log(Level.SEVERE, "Failed to encode snapshot of " + resourceUri, e);
+                peer.invokeLater(new SnapshotFailedRunnable(subscriber));
+                return;
+            }
+            PeerBlock subscribeConfirm = PeerBlock.subscribeConfirm(resourceUri, snapshotSessionId, updateId, snapshotBytes);
+            peer.invokeLater(new SendSnapshotRunnable(subscriber, subscribeConfirm));
+        }
+    }
+    private class SnapshotFailedRunnable implements Runnable {
+        private ResourceConnection subscriber;
+        public SnapshotFailedRunnable(ResourceConnection subscriber) {
+            this.subscriber = subscriber;
+        }
+        @Override
+        public void run() {
+            // the subscriber may have left while the snapshot was encoded
+            if(!subscribers.contains(subscriber)) return;
+
+            // unpublish this subscriber, discarding the updates held back for it
+            subscriber.snapshotFailed();
+            subscribers.remove(subscriber);
+            subscriber.getConnection().writeBlock(PeerResource.this, PeerBlock.unpublish(resourceUri));
+            subscriber.getConnection().outgoingPublications.remove(resourceUri);
+            if(subscriber.getConnection().isIdle()) subscriber.getConnection().close();
+        }
+    }
+    private class SendSnapshotRunnable implements Runnable {
+        private ResourceConnection subscriber;
+        private PeerBlock subscribeConfirm;
+        public SendSnapshotRunnable(ResourceConnection subscriber, PeerBlock subscribeConfirm) {
+            this.subscriber = subscriber;
+            this.subscribeConfirm = subscribeConfirm;
+        }
+        @Override
+        public void run() {
+            // the subscriber may have left while the snapshot was encoded
+            if(!subscribers.contains(subscriber)) return;
+            subscriber.getConnection().writeBlock(PeerResource.this, subscribeConfirm);
+            subscriber.snapshotSent();
+        }
+    }
     private void remoteSubscribeConfirm(ResourceConnection publisher, PeerBlock block) {
         // handle the confirm
         resource.getReadWriteLock().writeLock().lock();
@@ -321,6 +451,19 @@ class PeerResource {
         // finally we're connected
         resourceStatus.setConnected(true, null);
     }
+    private void remoteResumeConfirm(ResourceConnection publisher, PeerBlock block) {
+        // confirm that we're resuming from where we left off
+        if(block.getSessionId() != sessionId) throw new IllegalStateException();
+        resource.getReadWriteLock().readLock().lock();
+        try {
+            if(block.getUpdateId() != resourceUpdateId) throw new IllegalStateException("Expected resume from update id " + resourceUpdateId + " but found " + block.getUpdateId());
+        } finally {
+            resource.getReadWriteLock().readLock().unlock();
+        }
+
+        // the missed updates follow, but we're already connected
+        resourceStatus.setConnected(true, null);
+    }
     private void remoteUnsubscribe(ResourceConnection subscriber, PeerBlock block) {
         // remove the subscription
         subscribers.remove(subscriber);
@@ -16,9 +16,12 @@ import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
 public interface Resource {
 
     /**
-     * Get a binary snapshot of this resource in its current state.
+     * Capture the current state of this resource, to be encoded as a binary
+     * snapshot later. This is called while holding the resource's write lock,
+     * so it should be quick and leave the encoding to the returned
+     * {@link ResourceSnapshot}.
      */
-    public Bufferlo toSnapshot();
+    public ResourceSnapshot captureSnapshot();
 
     /**
      * Populate this resource with the data from the specified snapshot.
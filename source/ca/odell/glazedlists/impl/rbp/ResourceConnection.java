@@ -4,6 +4,9 @@
 package ca.odell.glazedlists.impl.rbp;
 
 // NIO is used for BRP
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Maintains the state for a particular resource on a particular connection.
  *
@@ -20,6 +23,9 @@ class ResourceConnection {
     /** the resource's current update */
     private int updateId = -1;
 
+    /** blocks held back until the snapshot has been sent, or null */
+    private List pendingBlocks = null;
+
     /**
      * Create a new {@link ResourceConnection} to manage the state of the specified
      * connection and resource.
@@ -39,6 +45,41 @@ class ResourceConnection {
         return updateId;
     }
 
+    /**
+     * Holds back blocks written to this connection until {@link #snapshotSent()}.
+     */
+    public void awaitSnapshot() {
+        pendingBlocks = new ArrayList();
+    }
+
+    /**
+     * Writes the blocks that were held back while the snapshot was encoded.
+     */
+    public void snapshotSent() {
+        List blocksToWrite = pendingBlocks;
+        pendingBlocks = null;
+        for(int b = 0; b < blocksToWrite.size(); b++) {
+            connection.writeBlock(resource, (PeerBlock)blocksToWrite.get(b));
+        }
+    }
+
+    /**
+     * Discards the blocks that were held back, since the snapshot they follow
+     * will never be sent.
+     */
+    public void snapshotFailed() {
+        pendingBlocks = null;
+    }
+
+    /**
+     * Writes the specified block of this resource to this connection, unless
+     * it is being held back for a snapshot.
+     */
+    public void writeBlock(PeerBlock block) {
+        if(pendingBlocks != null) pendingBlocks.add(block);
+        else connection.writeBlock(resource, block);
+    }
+
     /**
      * Gets the connection that is interested in this resource.
      */
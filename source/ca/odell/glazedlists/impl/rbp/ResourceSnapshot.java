@@ -0,0 +1,20 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.rbp;
+
+// NIO is used for BRP
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+/**
+ * The state of a resource at one point in time, captured quickly while holding
+ * the resource's write lock and encoded later without it.
+ */
+public interface ResourceSnapshot {
+
+    /**
+     * Get the captured state in binary form. This is called on a background
+     * thread without holding the resource's lock.
+     */
+    public Bufferlo toBytes();
+}
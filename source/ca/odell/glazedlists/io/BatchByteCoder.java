@@ -0,0 +1,30 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A {@link ByteCoder} that can also encode many Objects together, so that
+ * per-stream state such as class descriptors is written only once. When a
+ * {@link FileList} or {@link NetworkList} uses a {@link BatchByteCoder}, all
+ * the values of a change are encoded as a single batch.
+ */
+public interface BatchByteCoder extends ByteCoder {
+
+    /**
+     * Encode the specified Objects as one batch over the specified {@link OutputStream}.
+     */
+    public void encodeAll(List source, OutputStream target) throws IOException;
+
+    /**
+     * Decode a batch of Objects from the specified {@link InputStream}. The stream
+     * should contain exactly one batch and no further bytes before the end of
+     * the stream.
+     */
+    public List decodeAll(InputStream source) throws IOException;
+}
@@ -5,16 +5,24 @@ package ca.odell.glazedlists.io;
 
 // the Glazed Lists' change objects
 import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.FunctionList;
 import ca.odell.glazedlists.TransformedList;
 import ca.odell.glazedlists.event.ListEvent;
-import ca.odell.glazedlists.impl.adt.AgedNode;
-import ca.odell.glazedlists.impl.adt.AgedNodeComparator;
+import ca.odell.glazedlists.impl.adt.CacheEntry;
+import ca.odell.glazedlists.impl.adt.CachePolicy;
 import ca.odell.glazedlists.impl.adt.SparseList;
-import ca.odell.glazedlists.impl.adt.SparseListNode;
-import ca.odell.glazedlists.impl.adt.barcode2.Element;
-import ca.odell.glazedlists.impl.adt.barcode2.SimpleTree;
 import ca.odell.glazedlists.util.concurrent.Lock;
 import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 // For the execution of the performance test
 
 /**
@@ -25,10 +33,18 @@ import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
  * elements to keep in memory simultaneously. For caching to be effective, object
  * access must be clustered.
  *
- * <p>This {@link ca.odell.glazedlists.EventList} caches the most recently requested <i>n</i> elements.
+ * <p>By default this {@link ca.odell.glazedlists.EventList} caches the most recently
+ * requested <i>n</i> elements. A single pass over more than <i>n</i> elements
+ * evicts all of them, so when the list is also scrolled through end to end,
+ * the {@link #WINDOW_TINY_LFU} policy keeps the frequently requested elements
+ * cached instead. Elements can also be given a weight, so that the cache is
+ * bounded by their total weight, such as their size in bytes, rather than by
+ * their number. An element that outweighs the whole cache is never cached.
  *
  * <p>By overriding the {@link #preFetch(int)} method, you can modify this
- * CachingList to do predictive lookups for higher performance.
+ * CachingList to do predictive lookups for higher performance. When each
+ * element is slow to get, {@link #setReadAhead(RangeSource, int, Object) read-ahead}
+ * instead fetches uncached elements in batches on a background thread.
  *
  * <p><table border="1" width="100%" cellpadding="3" cellspacing="0">
  * <tr class="TableHeadingColor"><td colspan=2><font size="+2"><b>EventList Overview</b></font></td></tr>
@@ -51,23 +67,58 @@ import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
  */
 public class CachingList extends TransformedList {
 
-    /** The cache is implemented using a tree-based cache */
-    private SimpleTree<AgedNode> cache;
+    /** Evict the least recently requested element */
+    public static final int LEAST_RECENTLY_USED = 0;
+
+    /** Evict elements that are requested rarely, even if they were requested recently */
+    public static final int WINDOW_TINY_LFU = 1;
+
+    /** Chooses which cached element to evict */
+    private CachePolicy cache;
 
     /** The model of the source list for scalability with minimal memory footprint */
     private SparseList indexTree;
 
-    /** The count of cache hits and cache misses for testing cache success */
+    /** The count of cache hits, cache misses and evictions for testing cache success */
     private int cacheHits;
     private int cacheMisses;
+    private int evictions;
+
+    /** The total weight that the cache may hold */
+    private long maxWeight = 0;
 
-    /** The number of elements in the cache */
-    private int currentSize = 0;
-    private int maxSize = 0;
+    /** Gets the weight of each element, or null if each element weighs 1 */
+    private FunctionList.Function weigher;
 
     /** The last inspected size of the source list */
     private int lastKnownSize = 0;
 
+    /** logging */
+    private static Logger logger = Logger.getLogger(CachingList.class.toString());
+
+    /** Fetches batches of elements for read-ahead, or null if it is disabled */
+    private RangeSource rangeSource = null;
+    private int batchSize = 0;
+    private Object placeholder = null;
+    private ExecutorService reader = null;
+
+    /** The batches being fetched */
+    private final List<Batch> pendingBatches = new ArrayList<Batch>();
+
+    /**
+     * The indices of elements that were fetched in a batch but not cached,
+     * such as elements that outweigh the whole cache. These are next gotten
+     * from the source directly, rather than fetched again.
+     */
+    private final Set<Integer> uncachedIndices = new HashSet<Integer>();
+
+    /** The last requested index, and whether requests move forward (1) or backward (-1) */
+    private int lastRequestedIndex = -1;
+    private int direction = 0;
+
+    /** Incremented whenever the source changes, which invalidates pending batches */
+    private int sourceVersion = 0;
+
     /**
      * Creates a {@link CachingList} that caches elements from the specified source
      * {@link ca.odell.glazedlists.EventList}.
@@ -76,11 +127,30 @@ public class CachingList extends TransformedList {
      * @param maxSize The maximum size of the cache
      */
     public CachingList(EventList source, int maxSize) {
+        this(source, maxSize, LEAST_RECENTLY_USED, null);
+    }
+
+    /**
+     * Creates a {@link CachingList} that caches elements from the specified source
+     * {@link ca.odell.glazedlists.EventList}, evicting them as specified.
+     *
+     * @param source The source list to use to get values from
+     * @param maxWeight The maximum total weight of the cached elements
+     * @param evictionPolicy Either {@link #LEAST_RECENTLY_USED} or {@link #WINDOW_TINY_LFU}
+     * @param weigher Gets the weight of each element as a non-negative
+     *        <code>Integer</code>, or <code>null</code> for each element to weigh 1
+     *        so that <code>maxWeight</code> is the maximum number of cached elements
+     */
+    public CachingList(EventList source, long maxWeight, int evictionPolicy, FunctionList.Function weigher) {
         super(source);
         readWriteLock = new CacheLock(readWriteLock);
-        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
+        if(evictionPolicy == LEAST_RECENTLY_USED) cache = CachePolicy.leastRecentlyUsed();
+        else if(evictionPolicy == WINDOW_TINY_LFU) cache = CachePolicy.windowTinyLFU(maxWeight);
+        else throw new IllegalArgumentException("Unsupported eviction policy " + evictionPolicy);
 
-        cache = new SimpleTree<AgedNode>(new AgedNodeComparator());
         indexTree = new SparseList();
         indexTree.addNulls(0, source.size());
         source.addListEventListener(this);
@@ -98,7 +168,8 @@ public class CachingList extends TransformedList {
     public final Object get(int index) {
         if(index >= size()) throw new IndexOutOfBoundsException("cannot get from tree of size " + size() + " at " + index);
         preFetch(index);
-        return fetch(index, true);
+        if(rangeSource == null) return fetch(index, true);
+        return fetchAhead(index);
     }
 
     /**
@@ -122,42 +193,146 @@ public class CachingList extends TransformedList {
     protected final Object fetch(int index, boolean recordHitsOrMisses) {
 
         // attempt to get the element from the cache
-        Object value = null;
-        Element cacheNode = (Element)indexTree.get(index);
+        CacheEntry entry = (CacheEntry)indexTree.get(index);
+        cache.recordRequest(index);
 
         // The value is cached, return cached value
-        if(cacheNode != null) {
-            if(recordHitsOrMisses) cacheHits ++;;
-            AgedNode agedNode = (AgedNode)cacheNode.get();
-            value = agedNode.getValue();
-            cache.remove(cacheNode);
-            SparseListNode indexNode = agedNode.getIndexNode();
-            indexNode.setValue(cache.addInSortedOrder((byte)1, agedNode, 1));
+        if(entry != null) {
+            if(recordHitsOrMisses) cacheHits++;
+            cache.access(entry);
+            return entry.getValue();
+        }
 
         // The value is not cached, lookup from source and cache
-        } else {
-            if(recordHitsOrMisses) cacheMisses++;
-            // Make room in the cache if it is full
-            if(currentSize >= maxSize) {
-                Element oldestInCache = cache.get(0);
-                cache.remove(oldestInCache);
-                AgedNode oldAgedNode = (AgedNode)oldestInCache.get();
-                SparseListNode oldIndexNode = oldAgedNode.getIndexNode();
-                indexTree.set(oldIndexNode.getIndex(), null);
-                currentSize--;
-            }
+        if(recordHitsOrMisses) cacheMisses++;
+        Object value = source.get(index);
+        cache(index, value);
+        return value;
+    }
 
-            // Cache the value
+    /**
+     * Caches the specified value of an element that is not cached.
+     *
+     * @return whether the value remains cached, rather than being too heavy
+     *      or evicted right away.
+     */
+    private boolean cache(int index, Object value) {
+        int weight = weigher == null ? 1 : ((Integer)weigher.evaluate(value)).intValue();
+        if(weight > maxWeight) return false;
+        CacheEntry entry = new CacheEntry(value, weight);
+        indexTree.set(index, entry);
+        entry.setIndexNode(indexTree.getNode(index));
+        cache.add(entry);
+
+        // Make room in the cache if it is full, which may evict the new value
+        while(cache.getWeight() > maxWeight) {
+            CacheEntry evicted = cache.evict();
+            indexTree.set(evicted.getIndexNode().getIndex(), null);
+            evictions++;
+        }
+        return indexTree.get(index) == entry;
+    }
+
+    /**
+     * Gets the specified element from the cache, or the placeholder if it must
+     * be fetched first. This also reads ahead in the direction that the
+     * elements are being requested.
+     */
+    private Object fetchAhead(int index) {
+        CacheEntry entry = (CacheEntry)indexTree.get(index);
+        cache.recordRequest(index);
+
+        // detect sequential requests, such as while scrolling
+        if(index == lastRequestedIndex + 1) direction = 1;
+        else if(index == lastRequestedIndex - 1) direction = -1;
+        else if(index != lastRequestedIndex) direction = 0;
+        lastRequestedIndex = index;
+
+        Object value;
+        if(entry != null) {
+            cacheHits++;
+            cache.access(entry);
+            value = entry.getValue();
+        } else if(uncachedIndices.contains(Integer.valueOf(index))) {
+            // fetching this element again would only replace the placeholder
+            // again, so get it directly instead
+            cacheMisses++;
             value = source.get(index);
-            indexTree.set(index, Boolean.TRUE);
-            SparseListNode indexNode = indexTree.getNode(index);
-            AgedNode agedNode = new AgedNode(indexNode, value);
-            indexNode.setValue(cache.addInSortedOrder((byte)1, agedNode, 1));
-            currentSize++;
+            cache(index, value);
+        } else {
+            cacheMisses++;
+            if(!isPending(index)) fetchBatch(index, direction < 0 ? -1 : 1);
+            value = placeholder;
+        }
+
+        // fetch the next batch once half of the current one has been requested
+        if(direction != 0) {
+            int next = index + direction * (batchSize / 2);
+            if(next >= 0 && next < size() && indexTree.get(next) == null && !isPending(next) && !uncachedIndices.contains(Integer.valueOf(next))) {
+                fetchBatch(next, direction);
+            }
         }
         return value;
     }
 
+    /**
+     * Whether the specified element is being fetched.
+     */
+    private boolean isPending(int index) {
+        for(int b = 0; b < pendingBatches.size(); b++) {
+            Batch batch = pendingBatches.get(b);
+            if(index >= batch.fromIndex && index < batch.toIndex) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fetches a batch of elements starting at the specified index and
+     * continuing in the specified direction.
+     */
+    private void fetchBatch(int index, int direction) {
+        int fromIndex = direction > 0 ? index : Math.max(0, index - batchSize + 1);
+        int toIndex = direction > 0 ? Math.min(size(), index + batchSize) : index + 1;
+        Batch batch = new Batch(fromIndex, toIndex, sourceVersion);
+        pendingBatches.add(batch);
+        if(reader == null) reader = Executors.newSingleThreadExecutor(new ReaderThreadFactory());
+        reader.execute(batch);
+    }
+
+    /**
+     * Fetches uncached elements in batches on a background thread, rather than
+     * one at a time on the thread that requests them. While an element is being
+     * fetched, {@link #get(int)} returns the placeholder instead. When a batch
+     * arrives, its elements are cached and an update event is fired for them,
+     * on the background thread.
+     *
+     * <p>As elements are requested in sequence, such as while a table is
+     * scrolled, the next batch in that direction is fetched before it is
+     * requested.
+     *
+     * <p>An element that is fetched but not cached, such as one that outweighs
+     * the whole cache, is gotten from the source list directly the next time
+     * it is requested, rather than being fetched again.
+     *
+     * @param rangeSource Gets batches of elements of the source list, or
+     *      <code>null</code> to get each element from the source list when it
+     *      is requested.
+     * @param batchSize The number of elements to fetch at a time.
+     * @param placeholder The value of elements that are being fetched.
+     */
+    public void setReadAhead(RangeSource rangeSource, int batchSize, Object placeholder) {
+        if(rangeSource != null && batchSize < 1) throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        getReadWriteLock().writeLock().lock();
+        try {
+            this.rangeSource = rangeSource;
+            this.batchSize = batchSize;
+            this.placeholder = placeholder;
+            uncachedIndices.clear();
+        } finally {
+            getReadWriteLock().writeLock().unlock();
+        }
+    }
+
     /**
      * Pre-fetches a set of data given the index that was directly requested.
      *
@@ -201,6 +376,24 @@ public class CachingList extends TransformedList {
         return cacheMisses;
     }
 
+    /**
+     * Gets the total number of times that this list has evicted an element from
+     * the cache to make room for another.
+     *
+     * @return The number of elements evicted
+     */
+    public final int getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the total weight of the elements in the cache. Unless the elements
+     * are weighed, this is the number of elements in the cache.
+     */
+    public final long getCacheWeight() {
+        return cache.getWeight();
+    }
+
     /**
      * Gets the ratio of cache hits to cache misses. This is a number between
      * 0 and 1, where 0 means the cache is unused and 1 means the cache was
@@ -222,9 +415,9 @@ public class CachingList extends TransformedList {
             int changeType = listChanges.getType();
 
             // Lookup the cache entry for this index if possible
-            Element cacheNode = null;
+            CacheEntry cacheNode = null;
             if(index < lastKnownSize) {
-                cacheNode = (Element)indexTree.get(index);
+                cacheNode = (CacheEntry)indexTree.get(index);
             }
 
             // An INSERT causes the indexes of cached values to be offset.
@@ -235,7 +428,6 @@ public class CachingList extends TransformedList {
             } else if(changeType == ListEvent.DELETE) {
                 if(cacheNode != null) {
                     cache.remove(cacheNode);
-                    currentSize--;
                 }
                 indexTree.remove(index);
 
@@ -243,15 +435,115 @@ public class CachingList extends TransformedList {
             } else if(changeType == ListEvent.UPDATE) {
                 if(cacheNode != null) {
                     cache.remove(cacheNode);
-                    currentSize--;
+                    indexTree.set(index, null);
                 }
             }
             updates.addChange(changeType, index);
         }
         lastKnownSize = source.size();
+        sourceVersion++;
+        pendingBatches.clear();
+        uncachedIndices.clear();
         updates.commitEvent();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void dispose() {
+        getReadWriteLock().writeLock().lock();
+        try {
+            if(reader != null) reader.shutdownNow();
+            reader = null;
+            rangeSource = null;
+        } finally {
+            getReadWriteLock().writeLock().unlock();
+        }
+        super.dispose();
+    }
+
+    /**
+     * Gets a range of elements of a source list at once, which is faster than
+     * getting each element on its own, such as with a single database query.
+     * This is called on a background thread without holding the list's lock.
+     */
+    public interface RangeSource {
+
+        /**
+         * Gets the elements from <code>fromIndex</code>, inclusive, to
+         * <code>toIndex</code>, exclusive.
+         */
+        public List getRange(int fromIndex, int toIndex);
+    }
+
+    /**
+     * Fetches a range of elements and caches them.
+     */
+    private class Batch implements Runnable {
+        private final int fromIndex;
+        private final int toIndex;
+        private final int version;
+
+        Batch(int fromIndex, int toIndex, int version) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.version = version;
+        }
+
+        @Override
+        public void run() {
+            RangeSource rangeSource;
+            getReadWriteLock().writeLock().lock();
+            try {
+                rangeSource = CachingList.this.rangeSource;
+            } finally {
+                getReadWriteLock().writeLock().unlock();
+            }
+
+            // fetch without the lock, so that the list can still be used
+            List values = null;
+            if(rangeSource != null) {
+                try {
+                    values = rangeSource.getRange(fromIndex, toIndex);
+                    if(values.size() != toIndex - fromIndex) throw new IllegalStateException("Expected " + (toIndex - fromIndex) + " elements but got " + values.size());
+                } catch(RuntimeException e) {
+                    values = null;
+                    logger.log(Level.SEVERE, "Failed to read elements " + fromIndex + " to " + toIndex, e);
+                }
+            }
+
+            getReadWriteLock().writeLock().lock();
+            try {
+                pendingBatches.remove(this);
+
+                // the indices are stale if the source has changed since
+                if(values == null || version != sourceVersion) return;
+
+                updates.beginEvent();
+                for(int i = fromIndex; i < toIndex; i++) {
+                    if(indexTree.get(i) != null) continue;
+                    Object value = values.get(i - fromIndex);
+                    if(!cache(i, value)) uncachedIndices.add(Integer.valueOf(i));
+                    updates.elementUpdated(i, placeholder, value);
+                }
+                updates.commitEvent();
+            } finally {
+                getReadWriteLock().writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon thread for fetching batches.
+     */
+    private static class ReaderThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CachingList reader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
    /**
     * A special lock to prevent deadlock in CachingList.
     */
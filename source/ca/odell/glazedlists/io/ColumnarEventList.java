@@ -0,0 +1,558 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import ca.odell.glazedlists.AbstractEventList;
+import ca.odell.glazedlists.impl.adt.Barcode;
+import ca.odell.glazedlists.impl.adt.SparseList;
+import ca.odell.glazedlists.util.concurrent.LockFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link ca.odell.glazedlists.EventList} of records that are stored by
+ * column in memory-mapped files, rather than as objects on the heap. This
+ * suits many millions of immutable records, such as a day's trades.
+ *
+ * <p>Each column holds <code>int</code>, <code>long</code>, <code>double</code>
+ * or {@link String} values. Strings are dictionary-encoded, so each distinct
+ * string is held on the heap once. The files are written with a {@link Writer}.
+ *
+ * <p>Each element is a {@link Row}, which is a lightweight view that reads its
+ * values from the files when they are requested. Therefore this list can be
+ * sorted and filtered by {@link ca.odell.glazedlists.SortedList} and
+ * {@link ca.odell.glazedlists.FilterList} without copying the records.
+ *
+ * <p>The files are never changed. Instead, rows that are added or set are held
+ * on the heap in an overlay, and rows that are removed are hidden. Use a
+ * {@link Writer} to write the list with its changes to new files.
+ *
+ * <p><table border="1" width="100%" cellpadding="3" cellspacing="0">
+ * <tr class="TableHeadingColor"><td colspan=2><font size="+2"><b>EventList Overview</b></font></td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Writable:</b></td><td>yes</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Concurrency:</b></td><td>thread ready, not thread safe</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Performance:</b></td><td>reads: O(1) until changed, then O(log N), writes O(log N)</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Memory:</b></td><td>O(distinct strings + changed rows)</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Unit Tests:</b></td><td>ColumnarEventListTest</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Issues:</b></td><td>N/A</td></tr>
+ * </table>
+ */
+public final class ColumnarEventList extends AbstractEventList<ColumnarEventList.Row> {
+
+    /** the types of column */
+    public static final int INT_COLUMN = 0;
+    public static final int LONG_COLUMN = 1;
+    public static final int DOUBLE_COLUMN = 2;
+    public static final int STRING_COLUMN = 3;
+
+    /** the bytes per value of each type of column */
+    private static final int[] VALUE_SIZES = { 4, 8, 8, 4 };
+
+    /** identifies a schema file */
+    private static final int MAGIC = 0x474C4331;
+
+    /** the name of the file that describes the columns */
+    private static final String SCHEMA_FILE = "schema";
+
+    /** the columns */
+    private final String[] columnNames;
+    private final int[] columnTypes;
+
+    /** the mapped values of each column, of which only the matching type is non-null */
+    private final IntBuffer[] intColumns;
+    private final LongBuffer[] longColumns;
+    private final DoubleBuffer[] doubleColumns;
+
+    /** the distinct strings of each string column, by code */
+    private final String[][] dictionaries;
+
+    /** the number of rows in the files */
+    private final int storedSize;
+
+    /** the rows in the files that are still in this list, BLACK, and those that aren't, WHITE */
+    private final Barcode storedRows = new Barcode();
+
+    /** the rows of this list that are in the files, BLACK, and those in the overlay, WHITE */
+    private final Barcode rows = new Barcode();
+
+    /** the rows that have been added or set, in order, in a balanced tree */
+    private final SparseList overlay = new SparseList();
+
+    /**
+     * Opens the columns in the specified directory, as written by a {@link Writer}.
+     */
+    public ColumnarEventList(File directory) throws IOException {
+        readWriteLock = LockFactory.DEFAULT.createReadWriteLock();
+
+        // read the schema
+        DataInputStream schema = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, SCHEMA_FILE))));
+        try {
+            if(schema.readInt() != MAGIC) throw new IOException("Not a columns directory " + directory.getPath());
+            storedSize = schema.readInt();
+            int columnCount = schema.readInt();
+            columnNames = new String[columnCount];
+            columnTypes = new int[columnCount];
+            for(int c = 0; c < columnCount; c++) {
+                columnNames[c] = schema.readUTF();
+                columnTypes[c] = schema.readInt();
+            }
+        } finally {
+            schema.close();
+        }
+
+        // map the columns
+        intColumns = new IntBuffer[columnNames.length];
+        longColumns = new LongBuffer[columnNames.length];
+        doubleColumns = new DoubleBuffer[columnNames.length];
+        dictionaries = new String[columnNames.length][];
+        for(int c = 0; c < columnNames.length; c++) {
+            ByteBuffer column = map(columnFile(directory, c), (long)storedSize * VALUE_SIZES[columnTypes[c]]);
+            if(columnTypes[c] == INT_COLUMN) {
+                intColumns[c] = column.asIntBuffer();
+            } else if(columnTypes[c] == LONG_COLUMN) {
+                longColumns[c] = column.asLongBuffer();
+            } else if(columnTypes[c] == DOUBLE_COLUMN) {
+                doubleColumns[c] = column.asDoubleBuffer();
+            } else if(columnTypes[c] == STRING_COLUMN) {
+                intColumns[c] = column.asIntBuffer();
+                dictionaries[c] = readDictionary(dictionaryFile(directory, c));
+            } else {
+                throw new IOException("Unsupported column type " + columnTypes[c]);
+            }
+        }
+
+        storedRows.addBlack(0, storedSize);
+        rows.addBlack(0, storedSize);
+    }
+
+    /**
+     * Maps the specified number of bytes of the specified file.
+     */
+    private static ByteBuffer map(File file, long size) throws IOException {
+        if(size > Integer.MAX_VALUE) throw new IOException("Column too large to map " + file.getPath());
+        if(file.length() != size) throw new IOException("Expected " + size + " bytes in " + file.getPath() + " but found " + file.length());
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads the distinct strings of a column.
+     */
+    private static String[] readDictionary(File file) throws IOException {
+        DataInputStream dictionary = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            String[] result = new String[dictionary.readInt()];
+            for(int s = 0; s < result.length; s++) result[s] = dictionary.readUTF();
+            return result;
+        } finally {
+            dictionary.close();
+        }
+    }
+
+    private static File columnFile(File directory, int column) {
+        return new File(directory, "column" + column);
+    }
+
+    private static File dictionaryFile(File directory, int column) {
+        return new File(directory, "column" + column + ".dictionary");
+    }
+
+    /**
+     * Gets the number of columns of each row.
+     */
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * Gets the name of the specified column.
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * Gets the type of the specified column, such as {@link #INT_COLUMN}.
+     */
+    public int getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * Gets the index of the column with the specified name, or -1 if there is
+     * no such column.
+     */
+    public int getColumnIndex(String name) {
+        for(int c = 0; c < columnNames.length; c++) {
+            if(columnNames[c].equals(name)) return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a row of this list's columns with the specified values, to be
+     * added or set. Each value must be an {@link Integer}, {@link Long},
+     * {@link Double} or {@link String} to match its column. Strings may be
+     * <code>null</code>.
+     */
+    public Row createRow(Object[] values) {
+        if(values.length != columnNames.length) throw new IllegalArgumentException("Expected " + columnNames.length + " values but got " + values.length);
+        Object[] copy = new Object[values.length];
+        for(int c = 0; c < values.length; c++) {
+            copy[c] = checkValue(c, values[c]);
+        }
+        return new Row(this, -1, copy);
+    }
+
+    /**
+     * Verifies that the specified value fits the specified column.
+     */
+    private Object checkValue(int column, Object value) {
+        int type = columnTypes[column];
+        if(type == STRING_COLUMN) {
+            if(value == null || value instanceof String) return value;
+        } else if(value == null) {
+            throw new IllegalArgumentException("Column " + columnNames[column] + " cannot be null");
+        } else if(type == INT_COLUMN && value instanceof Integer) {
+            return value;
+        } else if(type == LONG_COLUMN && value instanceof Long) {
+            return value;
+        } else if(type == DOUBLE_COLUMN && value instanceof Double) {
+            return value;
+        }
+        throw new IllegalArgumentException("Column " + columnNames[column] + " cannot hold " + value.getClass().getName());
+    }
+
+    /**
+     * Gets a row that may belong to this list, or another list with the same
+     * columns, as a row of this list.
+     */
+    private Row toOverlayRow(Row row) {
+        if(row.list == this && row.values != null) return row;
+        Object[] values = new Object[columnNames.length];
+        for(int c = 0; c < values.length; c++) values[c] = row.get(c);
+        return createRow(values);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Row get(int index) {
+        if(index < 0 || index >= size()) throw new IndexOutOfBoundsException("cannot get from list of size " + size() + " at " + index);
+
+        // until the list is changed, each index is its row in the files
+        if(overlay.isEmpty() && storedRows.whiteSize() == 0) return new Row(this, index, null);
+
+        if(rows.get(index) == Barcode.WHITE) return (Row)overlay.get(rows.getWhiteIndex(index));
+        return new Row(this, storedRows.getIndex(rows.getBlackIndex(index), Barcode.BLACK), null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void add(int index, Row value) {
+        if(index < 0 || index > size()) throw new IndexOutOfBoundsException("cannot add to list of size " + size() + " at " + index);
+        Row row = toOverlayRow(value);
+        rows.addWhite(index, 1);
+        overlay.add(rows.getWhiteIndex(index), row);
+
+        updates.beginEvent();
+        updates.elementInserted(index, row);
+        updates.commitEvent();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Row set(int index, Row value) {
+        Row previous = get(index);
+        Row row = toOverlayRow(value);
+        if(rows.get(index) == Barcode.WHITE) {
+            overlay.set(rows.getWhiteIndex(index), row);
+        } else {
+            storedRows.setWhite(previous.storedIndex, 1);
+            rows.setWhite(index, 1);
+            overlay.add(rows.getWhiteIndex(index), row);
+        }
+
+        updates.beginEvent();
+        updates.elementUpdated(index, previous, row);
+        updates.commitEvent();
+        return previous;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Row remove(int index) {
+        Row previous = get(index);
+        if(rows.get(index) == Barcode.WHITE) overlay.remove(rows.getWhiteIndex(index));
+        else storedRows.setWhite(previous.storedIndex, 1);
+        rows.remove(index, 1);
+
+        updates.beginEvent();
+        updates.elementDeleted(index, previous);
+        updates.commitEvent();
+        return previous;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dispose() {
+        // the mapped files are released when the buffers are collected
+    }
+
+    /**
+     * A record of a {@link ColumnarEventList}. Rows from the files hold only
+     * their index, and read their values when they are requested. Two rows
+     * are equal if their values are equal.
+     */
+    public static final class Row {
+        private final ColumnarEventList list;
+
+        /** the index of this row in the files, or -1 if it's in the overlay */
+        private final int storedIndex;
+
+        /** the values of an overlay row */
+        private final Object[] values;
+
+        private Row(ColumnarEventList list, int storedIndex, Object[] values) {
+            this.list = list;
+            this.storedIndex = storedIndex;
+            this.values = values;
+        }
+
+        /**
+         * Gets the number of values of this row.
+         */
+        public int getColumnCount() {
+            return list.columnNames.length;
+        }
+
+        /**
+         * Gets the value of the specified <code>int</code> column.
+         */
+        public int getInt(int column) {
+            if(list.columnTypes[column] != INT_COLUMN) throw new IllegalArgumentException("Not an int column " + list.columnNames[column]);
+            if(values != null) return ((Integer)values[column]).intValue();
+            return list.intColumns[column].get(storedIndex);
+        }
+
+        /**
+         * Gets the value of the specified <code>long</code> column.
+         */
+        public long getLong(int column) {
+            if(list.columnTypes[column] != LONG_COLUMN) throw new IllegalArgumentException("Not a long column " + list.columnNames[column]);
+            if(values != null) return ((Long)values[column]).longValue();
+            return list.longColumns[column].get(storedIndex);
+        }
+
+        /**
+         * Gets the value of the specified <code>double</code> column.
+         */
+        public double getDouble(int column) {
+            if(list.columnTypes[column] != DOUBLE_COLUMN) throw new IllegalArgumentException("Not a double column " + list.columnNames[column]);
+            if(values != null) return ((Double)values[column]).doubleValue();
+            return list.doubleColumns[column].get(storedIndex);
+        }
+
+        /**
+         * Gets the value of the specified {@link String} column.
+         */
+        public String getString(int column) {
+            if(list.columnTypes[column] != STRING_COLUMN) throw new IllegalArgumentException("Not a String column " + list.columnNames[column]);
+            if(values != null) return (String)values[column];
+            int code = list.intColumns[column].get(storedIndex);
+            return code == -1 ? null : list.dictionaries[column][code];
+        }
+
+        /**
+         * Gets the value of the specified column of any type, boxing primitives.
+         */
+        public Object get(int column) {
+            if(values != null) return values[column];
+            int type = list.columnTypes[column];
+            if(type == INT_COLUMN) return Integer.valueOf(getInt(column));
+            else if(type == LONG_COLUMN) return Long.valueOf(getLong(column));
+            else if(type == DOUBLE_COLUMN) return Double.valueOf(getDouble(column));
+            else return getString(column);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if(other == this) return true;
+            if(!(other instanceof Row)) return false;
+            Row row = (Row)other;
+            if(row.list == list && row.storedIndex == storedIndex && storedIndex != -1) return true;
+            if(row.getColumnCount() != getColumnCount()) return false;
+            for(int c = 0; c < getColumnCount(); c++) {
+                Object value = get(c);
+                Object otherValue = row.get(c);
+                if(value == null ? otherValue != null : !value.equals(otherValue)) return false;
+            }
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            int result = 0;
+            for(int c = 0; c < getColumnCount(); c++) {
+                Object value = get(c);
+                result = 31 * result + (value == null ? 0 : value.hashCode());
+            }
+            return result;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            StringBuffer result = new StringBuffer();
+            result.append("[");
+            for(int c = 0; c < getColumnCount(); c++) {
+                if(c > 0) result.append(", ");
+                result.append(get(c));
+            }
+            result.append("]");
+            return result.toString();
+        }
+    }
+
+    /**
+     * Writes rows by column, to be opened as a {@link ColumnarEventList}.
+     * Call {@link #close()} after the last row.
+     */
+    public static final class Writer {
+        private final File directory;
+        private final String[] columnNames;
+        private final int[] columnTypes;
+        private final DataOutputStream[] columns;
+
+        /** the code of each distinct string of each string column, or null for other columns */
+        private final List<Map<String,Integer>> dictionaries;
+
+        private int size = 0;
+
+        /**
+         * Creates a writer of the specified columns to the specified directory.
+         *
+         * @param columnTypes the type of each column, such as {@link #INT_COLUMN}.
+         */
+        public Writer(File directory, String[] columnNames, int[] columnTypes) throws IOException {
+            if(columnNames.length != columnTypes.length) throw new IllegalArgumentException("Expected a type for each column");
+            if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Failed to create directory " + directory.getPath());
+            this.directory = directory;
+            this.columnNames = columnNames.clone();
+            this.columnTypes = columnTypes.clone();
+            columns = new DataOutputStream[columnNames.length];
+            dictionaries = new ArrayList<Map<String,Integer>>(columnNames.length);
+            for(int c = 0; c < columnNames.length; c++) {
+                if(columnTypes[c] < INT_COLUMN || columnTypes[c] > STRING_COLUMN) throw new IllegalArgumentException("Unsupported column type " + columnTypes[c]);
+                columns[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnFile(directory, c))));
+                dictionaries.add(columnTypes[c] == STRING_COLUMN ? new HashMap<String,Integer>() : null);
+            }
+        }
+
+        /**
+         * Writes a row of the specified values, which must be an {@link Integer},
+         * {@link Long}, {@link Double} or {@link String} to match each column.
+         */
+        public void addRow(Object[] values) throws IOException {
+            if(values.length != columns.length) throw new IllegalArgumentException("Expected " + columns.length + " values but got " + values.length);
+            for(int c = 0; c < columns.length; c++) {
+                int type = columnTypes[c];
+                if(type == INT_COLUMN) columns[c].writeInt(((Integer)values[c]).intValue());
+                else if(type == LONG_COLUMN) columns[c].writeLong(((Long)values[c]).longValue());
+                else if(type == DOUBLE_COLUMN) columns[c].writeDouble(((Double)values[c]).doubleValue());
+                else columns[c].writeInt(encode(c, (String)values[c]));
+            }
+            size++;
+        }
+
+        /**
+         * Writes the specified row, which must have the columns of this writer.
+         */
+        public void addRow(Row row) throws IOException {
+            Object[] values = new Object[row.getColumnCount()];
+            for(int c = 0; c < values.length; c++) values[c] = row.get(c);
+            addRow(values);
+        }
+
+        /**
+         * Gets the code of the specified string in the specified column.
+         */
+        private int encode(int column, String value) {
+            if(value == null) return -1;
+            Map<String,Integer> dictionary = dictionaries.get(column);
+            Integer code = dictionary.get(value);
+            if(code == null) {
+                code = Integer.valueOf(dictionary.size());
+                dictionary.put(value, code);
+            }
+            return code.intValue();
+        }
+
+        /**
+         * Finishes writing the columns.
+         */
+        public void close() throws IOException {
+            for(int c = 0; c < columns.length; c++) {
+                columns[c].close();
+                Map<String,Integer> codes = dictionaries.get(c);
+                if(codes == null) continue;
+
+                // the strings in order of their codes
+                String[] strings = new String[codes.size()];
+                for(Map.Entry<String,Integer> entry : codes.entrySet()) {
+                    strings[entry.getValue().intValue()] = entry.getKey();
+                }
+                DataOutputStream dictionary = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dictionaryFile(directory, c))));
+                try {
+                    dictionary.writeInt(strings.length);
+                    for(int s = 0; s < strings.length; s++) dictionary.writeUTF(strings[s]);
+                } finally {
+                    dictionary.close();
+                }
+            }
+
+            // the schema goes last, so that the directory can't be opened half written
+            DataOutputStream schema = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, SCHEMA_FILE))));
+            try {
+                schema.writeInt(MAGIC);
+                schema.writeInt(size);
+                schema.writeInt(columnNames.length);
+                for(int c = 0; c < columnNames.length; c++) {
+                    schema.writeUTF(columnNames[c]);
+                    schema.writeInt(columnTypes[c]);
+                }
+            } finally {
+                schema.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link ByteCoder} that can also encode an Object as its differences from
+ * a previous version of that Object. When a {@link FileList} or {@link NetworkList}
+ * uses a {@link DeltaByteCoder}, updated elements are encoded as deltas
+ * against the values they replace, and decoded against the reader's copy of
+ * that value.
+ *
+ * <p>Deltas are only possible when the replaced value is known and is a
+ * different Object than its replacement. Elements that are modified in place
+ * and then set back into the list are always encoded in full.
+ */
+public interface DeltaByteCoder extends ByteCoder {
+
+    /**
+     * Encode the differences from <code>base</code> to <code>source</code> over
+     * the specified {@link OutputStream}.
+     */
+    public void encodeDelta(Object base, Object source, OutputStream target) throws IOException;
+
+    /**
+     * Decode differences from the specified {@link InputStream} and apply them
+     * to a copy of <code>base</code>. The base itself must not be modified. The
+     * stream should contain exactly one delta and no further bytes before the
+     * end of the stream.
+     */
+    public Object decodeDelta(Object base, InputStream source) throws IOException;
+}
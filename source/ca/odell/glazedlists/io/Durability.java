@@ -0,0 +1,104 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+/**
+ * How eagerly a {@link FileList} forces its writes to the storage device. Stronger
+ * policies lose fewer changes on a crash or power failure, weaker ones sustain
+ * far higher rates of change.
+ *
+ * <p>Regardless of the policy, writes happen on a background thread and
+ * <code>flush()</code> blocks until everything written so far is durable.
+ *
+ * <p><font size="5"><strong><font color="#FF0000">Warning:</font></strong> This
+ * class is a technology preview and is subject to API changes.</font>
+ */
+public final class Durability {
+
+    /** every write is forced to disk before the next one begins */
+    private static final Durability SYNC_EVERY_WRITE = new Durability(0, 0);
+
+    /** writes are left to the operating system */
+    private static final Durability OS_BUFFERED = new Durability(-1, -1);
+
+    /** the longest a write may wait before being forced, or 0 for immediately, or -1 for never */
+    private final long maxDelay;
+
+    /** the number of written bytes that trigger a force, or 0 for immediately, or -1 for never */
+    private final int maxBytes;
+
+    private Durability(long maxDelay, int maxBytes) {
+        this.maxDelay = maxDelay;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Forces each write to disk as it happens. This is the safest and the
+     * slowest policy, and the default.
+     */
+    public static Durability syncEveryWrite() {
+        return SYNC_EVERY_WRITE;
+    }
+
+    /**
+     * Forces writes to disk in groups: once <code>maxDelay</code> milliseconds
+     * have elapsed since the first unforced write, or once <code>maxBytes</code>
+     * have been written, whichever comes first. A crash may lose any write made
+     * since the last group was forced. Entries carry checksums, so an entry
+     * that was only partially written when the crash happened is discarded
+     * when the file is next opened.
+     */
+    public static Durability groupCommit(long maxDelay, int maxBytes) {
+        if(maxDelay <= 0) throw new IllegalArgumentException("maxDelay must be positive: " + maxDelay);
+        if(maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        return new Durability(maxDelay, maxBytes);
+    }
+
+    /**
+     * Leaves writes in the operating system's buffers until <code>flush()</code>
+     * is called. This is the fastest policy, but a crash of the machine may lose
+     * an arbitrary number of writes, including older values of the entries that
+     * were changed since the last flush.
+     */
+    public static Durability osBuffered() {
+        return OS_BUFFERED;
+    }
+
+    /**
+     * Whether every write is forced as it happens.
+     */
+    public boolean isSyncEveryWrite() {
+        return maxDelay == 0;
+    }
+
+    /**
+     * Whether writes are forced only when flushed.
+     */
+    public boolean isOSBuffered() {
+        return maxDelay == -1;
+    }
+
+    /**
+     * Gets the longest that a write waits before being forced to disk in a
+     * group commit, in milliseconds.
+     */
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Gets the number of written bytes that cause a group commit.
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        if(isSyncEveryWrite()) return "syncEveryWrite";
+        if(isOSBuffered()) return "osBuffered";
+        return "groupCommit(" + maxDelay + "ms, " + maxBytes + " bytes)";
+    }
+}
@@ -9,20 +9,49 @@ import ca.odell.glazedlists.EventList;
 import ca.odell.glazedlists.TransformedList;
 import ca.odell.glazedlists.event.ListEvent;
 import ca.odell.glazedlists.impl.io.Bufferlo;
+import ca.odell.glazedlists.impl.io.CapturedListEvent;
 import ca.odell.glazedlists.impl.io.ListEventToBytes;
-import ca.odell.glazedlists.impl.pmap.Chunk;
 import ca.odell.glazedlists.impl.pmap.PersistentMap;
+import ca.odell.glazedlists.impl.pmap.PersistentMapUpdateLog;
+import ca.odell.glazedlists.impl.pmap.SegmentLog;
+import ca.odell.glazedlists.impl.pmap.UpdateLog;
 import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * An {@link EventList} that is persisted to disk.
  *
+ * <p>Each change is appended to the file as it happens. To keep the file from
+ * growing without bound, the list can periodically be {@link #compact() compacted}:
+ * a snapshot of the whole list is written and the changes it supersedes are
+ * discarded. Compaction can also be triggered automatically after a number of
+ * changes with {@link #setCompactionThreshold(int)}. Opening a file loads its
+ * latest snapshot and replays only the changes that follow it.
+ *
+ * <p>By default each change is encoded on the thread that makes it. In
+ * {@link #setWriteBehind(int,int) write-behind} mode, that thread only records
+ * the change and its values, and a background thread encodes and writes it.
+ * A bounded queue limits how far the file may fall behind the list.
+ *
+ * <p>By default the list is stored in a single file. Alternatively it can be
+ * stored as a log of memory-mapped segment files in a directory, which replays
+ * without copying, recovers from writes torn by a crash, and reclaims the space
+ * of compacted changes by deleting whole segments.
+ *
  * <p><font size="5"><strong><font color="#FF0000">Warning:</font></strong> This
  * class is a technology preview and is subject to API changes.</font>
  *
@@ -40,14 +69,17 @@ import java.util.TreeMap;
  */
 public final class FileList extends TransformedList {
 
-    /** the destination file, just for user convenience */
+    /** logging */
+    private static Logger logger = Logger.getLogger(FileList.class.toString());
+
+    /** the destination file or directory, just for user convenience */
     private File file = null;
 
     /** how bytes are encoded and decoded */
     private ByteCoder byteCoder;
 
     /** the underlying storage of ListEvents */
-    private PersistentMap storage = null;
+    private UpdateLog storage = null;
 
     /** the ID of the next update to write to disc */
     private int nextUpdateId = 81;
@@ -55,37 +87,107 @@ public final class FileList extends TransformedList {
     /** whether this list can be modified */
     private boolean writable = true;
 
+    /** guards the storage, which is shared with the compaction thread */
+    private final Object storageLock = new Object();
+
+    /** the number of changes after which to compact automatically, or 0 for never */
+    private int compactionThreshold = 0;
+
+    /** the number of changes written since the latest snapshot */
+    private int updatesSinceSnapshot = 0;
+
+    /** encodes and writes snapshots and write-behind changes in the background, created on demand */
+    private ExecutorService writer = null;
+
+    /** when the write-behind queue is full, wait for it to have room */
+    public static final int BLOCK_WHEN_FULL = 0;
+
+    /** when the write-behind queue is full, drop changes and write a snapshot once it has room */
+    public static final int SNAPSHOT_WHEN_FULL = 1;
+
+    /** limits the changes waiting to be written, or null to write them immediately */
+    private Semaphore writeBehindPermits = null;
+
+    /** what to do when the write-behind queue is full */
+    private int overflowPolicy = BLOCK_WHEN_FULL;
+
+    /** whether changes have been dropped, so that a snapshot must be written */
+    private volatile boolean snapshotRequired = false;
+
+    /** the number of changes waiting to be written */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    /** the number of changes dropped because the queue was full */
+    private volatile int droppedUpdates = 0;
+
+    /** how long the latest change written waited to be written, in milliseconds */
+    private volatile long writeLag = 0;
+
     /**
      * Create a {@link FileList} that stores its data in the specified file.
+     * Each change is forced to disc as it is written.
      */
     public FileList(File file, ByteCoder byteCoder) throws IOException {
+        this(file, byteCoder, Durability.syncEveryWrite());
+    }
+
+    /**
+     * Create a {@link FileList} that stores its data in the specified file,
+     * forcing changes to disc as specified by the {@link Durability}.
+     */
+    public FileList(File file, ByteCoder byteCoder, Durability durability) throws IOException {
+        this(file, byteCoder, new PersistentMapUpdateLog(new PersistentMap(file, GlazedListsIO.serializableByteCoder(), durability)));
+    }
+
+    /**
+     * Create a {@link FileList} that stores its data as a log of memory-mapped
+     * segment files in the specified directory, forcing changes to disc as
+     * specified by the {@link Durability}.
+     *
+     * @param segmentSize the size of each segment file, in bytes
+     */
+    public FileList(File directory, ByteCoder byteCoder, Durability durability, int segmentSize) throws IOException {
+        this(directory, byteCoder, new SegmentLog(directory, segmentSize, durability));
+    }
+
+    /**
+     * Create a {@link FileList} that stores its data in the specified log.
+     */
+    private FileList(File file, ByteCoder byteCoder, UpdateLog storage) throws IOException {
         super(new BasicEventList());
         this.file = file;
         this.byteCoder = byteCoder;
-
-        // store the updates in a persistent map
-        storage = new PersistentMap(file);
+        this.storage = storage;
 
         // sequence the updates
-        SortedMap sequentialUpdates = new TreeMap();
-        for(Iterator k = storage.keySet().iterator(); k.hasNext(); ) {
-            Integer key = (Integer)k.next();
-            Bufferlo valueBuffer = ((Chunk)storage.get(key)).getValue();
-            sequentialUpdates.put(key, valueBuffer);
-        }
-
-        // replay all the updates from the file
-        for(Iterator u = sequentialUpdates.keySet().iterator(); u.hasNext(); ) {
-            Integer key = (Integer)u.next();
-            Bufferlo update = (Bufferlo)sequentialUpdates.get(key);
-            ListEventToBytes.toListEvent(update, this, byteCoder);
-        }
+        SortedMap sequentialUpdates = storage.readUpdates();
 
         // prepare the next update id to use
         if(!sequentialUpdates.isEmpty()) {
             nextUpdateId = ((Integer)sequentialUpdates.lastKey()).intValue() + 1;
         }
 
+        // start from the latest snapshot, everything before it is superseded. This
+        // is only necessary if we were interrupted while compacting
+        List keys = new ArrayList(sequentialUpdates.keySet());
+        int firstUpdate = 0;
+        for(int k = keys.size() - 1; k > 0; k--) {
+            if(ListEventToBytes.isSnapshot((Bufferlo)sequentialUpdates.get(keys.get(k)))) {
+                firstUpdate = k;
+                break;
+            }
+        }
+        if(firstUpdate > 0) {
+            storage.discardBefore(((Integer)keys.get(firstUpdate)).intValue());
+        }
+
+        // replay the remaining updates from the file
+        for(int k = firstUpdate; k < keys.size(); k++) {
+            Bufferlo update = (Bufferlo)sequentialUpdates.get(keys.get(k));
+            ListEventToBytes.toListEvent(update, this, byteCoder);
+        }
+        updatesSinceSnapshot = keys.size() - firstUpdate;
+
         // now that we're up-to-date, listen for further events
         source.addListEventListener(this);
     }
@@ -99,28 +201,269 @@ public final class FileList extends TransformedList {
     /** {@inheritDoc} */
     @Override
     public void listChanged(ListEvent listChanges) {
+        // leave the change for the writer
+        if(writeBehindPermits != null) {
+            writeBehind(listChanges);
+            updates.forwardEvent(listChanges);
+            return;
+        }
+
         // write the change to disc
         try {
             ListEvent listChangesCopy = listChanges.copy();
             Bufferlo listChangesBytes = ListEventToBytes.toBytes(listChangesCopy, byteCoder);
-            storage.put(new Integer(nextUpdateId), new Chunk(listChangesBytes));
+            synchronized(storageLock) {
+                storage.write(nextUpdateId, listChangesBytes);
+            }
             nextUpdateId++;
 
         } catch(IOException e) {
             throw new IllegalStateException(e.getMessage());
         }
 
+        // compact if enough changes have accumulated
+        updatesSinceSnapshot++;
+        if(compactionThreshold > 0 && updatesSinceSnapshot >= compactionThreshold) {
+            compact();
+        }
+
         // forward the event to interested listeners
         updates.forwardEvent(listChanges);
     }
 
+    /**
+     * Queues the specified change to be encoded and written by the writer thread.
+     */
+    private void writeBehind(ListEvent listChanges) {
+        // if changes have been dropped, replace them all with a snapshot
+        if(snapshotRequired) {
+            if(writeBehindPermits.availablePermits() == 0) {
+                droppedUpdates++;
+            } else {
+                snapshotRequired = false;
+                compact();
+            }
+            return;
+        }
+
+        // wait for room, or drop the change
+        if(overflowPolicy == BLOCK_WHEN_FULL) {
+            writeBehindPermits.acquireUninterruptibly();
+        } else if(!writeBehindPermits.tryAcquire()) {
+            droppedUpdates++;
+            snapshotRequired = true;
+            return;
+        }
+
+        // record the change, it is encoded later
+        CapturedListEvent captured = ListEventToBytes.capture(listChanges.copy(), byteCoder);
+        queueDepth.incrementAndGet();
+        execute(new WriteUpdate(captured, nextUpdateId++, writeBehindPermits));
+
+        // compact if enough changes have accumulated
+        updatesSinceSnapshot++;
+        if(compactionThreshold > 0 && updatesSinceSnapshot >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Sets this list to write its changes in the background. The thread that
+     * changes the list only records each change and its values, and a writer
+     * thread encodes and writes it. At most <code>queueCapacity</code> changes
+     * can wait to be written. When the queue is full, the <code>overflowPolicy</code>
+     * decides what happens to further changes:
+     * <li>{@link #BLOCK_WHEN_FULL} waits for the writer to make room, so that
+     *     the writer slows down the threads that change the list.
+     * <li>{@link #SNAPSHOT_WHEN_FULL} drops changes until there is room, and
+     *     then writes a snapshot of the list in their place. The file falls
+     *     further behind the list, but changes are never delayed.
+     *
+     * <p>Use a <code>queueCapacity</code> of <code>0</code> to write each change
+     * as it is made, which is the default. Call {@link #flush()} to wait for
+     * the queue to be written.
+     */
+    public void setWriteBehind(int queueCapacity, int overflowPolicy) {
+        if(queueCapacity < 0) throw new IllegalArgumentException("queueCapacity must be non-negative: " + queueCapacity);
+        if(overflowPolicy != BLOCK_WHEN_FULL && overflowPolicy != SNAPSHOT_WHEN_FULL) throw new IllegalArgumentException("Unsupported overflow policy " + overflowPolicy);
+
+        getReadWriteLock().writeLock().lock();
+        try {
+            this.writeBehindPermits = (queueCapacity > 0) ? new Semaphore(queueCapacity) : null;
+            this.overflowPolicy = overflowPolicy;
+        } finally {
+            getReadWriteLock().writeLock().unlock();
+        }
+
+        // changes dropped so far are lost without a snapshot
+        writeRequiredSnapshot();
+    }
+
+    /**
+     * Writes a snapshot in place of any changes that have been dropped.
+     */
+    private void writeRequiredSnapshot() {
+        if(!snapshotRequired) return;
+        getReadWriteLock().writeLock().lock();
+        try {
+            if(snapshotRequired && storage != null) {
+                snapshotRequired = false;
+                compact();
+            }
+        } finally {
+            getReadWriteLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of changes waiting to be written in write-behind mode.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Gets how long the most recently written change waited in the write-behind
+     * queue, in milliseconds.
+     */
+    public long getWriteLag() {
+        return writeLag;
+    }
+
+    /**
+     * Gets the number of changes that were dropped because the write-behind
+     * queue was full. Each run of dropped changes is replaced by a snapshot.
+     */
+    public int getDroppedUpdates() {
+        return droppedUpdates;
+    }
+
+    /**
+     * Blocks until all changes so far have been written and forced to disc.
+     */
+    public void flush() {
+        writeRequiredSnapshot();
+
+        // wait for the writer to catch up
+        ExecutorService writer;
+        synchronized(storageLock) {
+            writer = this.writer;
+        }
+        if(writer != null) {
+            try {
+                writer.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        // nothing to do, everything queued before is written
+                    }
+                }).get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+
+        UpdateLog storage;
+        synchronized(storageLock) {
+            storage = this.storage;
+        }
+        if(storage == null) throw new IllegalStateException("FileList has been closed");
+        try {
+            storage.flush();
+        } catch(IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the number of changes after which this list compacts itself
+     * automatically. Use <code>0</code> to compact only when {@link #compact()}
+     * is called explicitly, which is the default.
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        if(compactionThreshold < 0) throw new IllegalArgumentException("compactionThreshold must be non-negative: " + compactionThreshold);
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Gets the number of changes after which this list compacts itself, or
+     * <code>0</code> if it never does so automatically.
+     */
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Writes a snapshot of this list to disc and discards all changes that
+     * preceed it, reclaiming their space in the file.
+     *
+     * <p>Only copying the list's elements happens on the calling thread, while
+     * holding the write lock. Encoding the snapshot and rewriting the file happen
+     * on a background thread, so writers can continue to change the list in the
+     * meantime. Their changes are written after the snapshot.
+     */
+    public void compact() {
+        getReadWriteLock().writeLock().lock();
+        try {
+            if(storage == null) throw new IllegalStateException("FileList has been closed");
+
+            // copy the elements and reserve their place in the sequence of updates
+            List snapshot = new ArrayList(source);
+            Integer snapshotId = Integer.valueOf(nextUpdateId++);
+            updatesSinceSnapshot = 0;
+
+            execute(new WriteSnapshot(snapshot, snapshotId));
+        } finally {
+            getReadWriteLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the specified task on the writer thread, after all tasks before it.
+     */
+    private void execute(Runnable task) {
+        // submit while holding the lock, so close() can't shut this writer down first
+        synchronized(storageLock) {
+            if(writer == null) writer = Executors.newSingleThreadExecutor(new WriterThreadFactory());
+            writer.execute(task);
+        }
+    }
+
     /**
      * Closes this FileList so that it consumes no disc resources. The list may
-     * continue to be read until it is {@link #dispose() disposed}.
+     * continue to be read until it is {@link #dispose() disposed}. This waits
+     * for any compaction in progress, and any changes waiting to be written,
+     * to complete.
      */
     public void close() {
-        if(storage != null) storage.close();
-        storage = null;
+        writeRequiredSnapshot();
+
+        // let pending writes finish
+        ExecutorService writer;
+        synchronized(storageLock) {
+            writer = this.writer;
+            this.writer = null;
+        }
+        if(writer != null) {
+            writer.shutdown();
+            try {
+                while(!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // keep waiting
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized(storageLock) {
+            try {
+                if(storage != null) storage.close();
+            } catch(IOException e) {
+                logger.log(Level.SEVERE, "Failed to close " + file.getPath(), e);
+            }
+            storage = null;
+        }
         writable = false;
     }
 
@@ -130,4 +473,92 @@ public final class FileList extends TransformedList {
         close();
         super.dispose();
     }
+
+    /**
+     * Encodes a snapshot and writes it in place of the changes it supersedes.
+     */
+    private class WriteSnapshot implements Runnable {
+
+        /** a copy of the list's elements */
+        private final List snapshot;
+
+        /** the update ID reserved for the snapshot */
+        private final Integer snapshotId;
+
+        public WriteSnapshot(List snapshot, Integer snapshotId) {
+            this.snapshot = snapshot;
+            this.snapshotId = snapshotId;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Bufferlo snapshotBytes = ListEventToBytes.toBytes(snapshot, byteCoder);
+
+                synchronized(storageLock) {
+                    if(storage == null) return;
+
+                    // write the snapshot before discarding anything so that
+                    // the file is always complete
+                    storage.write(snapshotId.intValue(), snapshotBytes);
+                    storage.discardBefore(snapshotId.intValue());
+                }
+            } catch(IOException e) {
+                logger.log(Level.SEVERE, "Failed to write snapshot of " + file.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Encodes a change and writes it, making room for another in the write-behind
+     * queue.
+     */
+    private class WriteUpdate implements Runnable {
+
+        /** the change and its values */
+        private final CapturedListEvent update;
+
+        /** the update ID reserved for the change */
+        private final int updateId;
+
+        /** the queue the change was waiting in */
+        private final Semaphore permits;
+
+        /** when the change was queued */
+        private final long queuedAt = System.currentTimeMillis();
+
+        public WriteUpdate(CapturedListEvent update, int updateId, Semaphore permits) {
+            this.update = update;
+            this.updateId = updateId;
+            this.permits = permits;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Bufferlo updateBytes = ListEventToBytes.toBytes(update, byteCoder);
+                synchronized(storageLock) {
+                    if(storage != null) storage.write(updateId, updateBytes);
+                }
+            } catch(IOException e) {
+                logger.log(Level.SEVERE, "Failed to write change to " + file.getPath(), e);
+            } finally {
+                writeLag = System.currentTimeMillis() - queuedAt;
+                queueDepth.decrementAndGet();
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon thread for writing snapshots and changes.
+     */
+    private static class WriterThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FileList writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -3,7 +3,9 @@
 /*                                                     O'Dell Engineering Ltd.*/
 package ca.odell.glazedlists.io;
 
+import ca.odell.glazedlists.impl.io.BeanByteCoder;
 import ca.odell.glazedlists.impl.io.BeanXMLByteCoder;
+import ca.odell.glazedlists.impl.io.SerializableBatchByteCoder;
 import ca.odell.glazedlists.impl.io.SerializableByteCoder;
 
 /**
@@ -26,6 +28,7 @@ public final class GlazedListsIO {
     /** Provide Singleton access for all ByteCoders with no internal state */
     private static ByteCoder serializableByteCoder = new SerializableByteCoder();
     private static ByteCoder beanXMLByteCoder = new BeanXMLByteCoder();
+    private static BatchByteCoder serializableBatchByteCoder = new SerializableBatchByteCoder();
 
     /**
      * Creates a {@link ByteCoder} that encodes {@link java.io.Serializable Serializable}
@@ -45,4 +48,27 @@ public final class GlazedListsIO {
         if(beanXMLByteCoder == null) beanXMLByteCoder = new BeanXMLByteCoder();
         return beanXMLByteCoder;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a {@link BatchByteCoder} that encodes {@link java.io.Serializable Serializable}
+     * Objects using an {@link java.io.ObjectOutputStream}. Since all values of a
+     * change share a single stream, class descriptors are written only once per
+     * change rather than once per value.
+     */
+    public static BatchByteCoder serializableBatchByteCoder() {
+        if(serializableBatchByteCoder == null) serializableBatchByteCoder = new SerializableBatchByteCoder();
+        return serializableBatchByteCoder;
+    }
+
+    /**
+     * Creates a {@link ByteCoder} that encodes JavaBeans as the values of the
+     * specified properties, in order. Property values that are primitive wrappers,
+     * Strings or Dates are written in a compact binary form, other values must be
+     * {@link java.io.Serializable Serializable}. Decoded beans are created using
+     * the bean class's public no-argument constructor. Updated beans are encoded
+     * as their changed properties only.
+     */
+    public static <T> DeltaByteCoder beanByteCoder(Class<T> beanClass, String[] propertyNames) {
+        return new BeanByteCoder<T>(beanClass, propertyNames);
+    }
+}
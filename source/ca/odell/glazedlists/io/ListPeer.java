@@ -6,6 +6,7 @@ package ca.odell.glazedlists.io;
 // the core Glazed Lists packages
 import ca.odell.glazedlists.BasicEventList;
 import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.impl.io.ListEventToBytes;
 import ca.odell.glazedlists.impl.rbp.Peer;
 import ca.odell.glazedlists.impl.rbp.ResourceStatus;
 
@@ -31,6 +32,18 @@ import java.io.IOException;
  */
 public class ListPeer {
 
+    /**
+     * The format that all versions of {@link NetworkList} understand. Lists
+     * published in this format can be subscribed to by older peers.
+     */
+    public static final int LEGACY_FORMAT = ListEventToBytes.LEGACY_FORMAT;
+
+    /**
+     * The format that lists are published in by default. It is much smaller
+     * than the {@link #LEGACY_FORMAT}, but peers that predate it can't read it.
+     */
+    public static final int COMPACT_FORMAT = ListEventToBytes.COMPACT_FORMAT;
+
     /** the peer manages the actual resources */
     private Peer peer;
 
@@ -60,6 +73,36 @@ public class ListPeer {
         peer.stop();
     }
 
+    /**
+     * Sets whether this peer compresses the data it exchanges with other peers.
+     * Compression is enabled by default, and is used only on connections where
+     * both peers have it enabled. Older peers that don't support compression
+     * are sent uncompressed data.
+     *
+     * <p>This applies to connections made after it is called, so it is best
+     * called before the peer is started.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        peer.setCompressionEnabled(compressionEnabled);
+    }
+
+    /**
+     * Gets the total number of bytes of snapshots and updates sent by this peer,
+     * before they were compressed.
+     */
+    public long getBytesBeforeCompression() {
+        return peer.getBytesBeforeCompression();
+    }
+
+    /**
+     * Gets the total number of bytes of snapshots and updates sent by this peer,
+     * after they were compressed. Comparing this to {@link #getBytesBeforeCompression()}
+     * tells how much compression is saving.
+     */
+    public long getBytesAfterCompression() {
+        return peer.getBytesAfterCompression();
+    }
+
     /**
      * Prints the full state of this ListPeer.
      */
@@ -83,7 +126,57 @@ public class ListPeer {
      *      with additional methods to bring the list offline. This list is writable.
      */
     public <E> NetworkList<E> publish(EventList<E> source, String path, ByteCoder byteCoder) {
+        return publish(source, path, byteCoder, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Publish the specified EventList with the specified name, coalescing the
+     * changes made within a short window into a single update. This reduces
+     * the number of updates sent at high rates of change, at the cost of
+     * delaying each change by up to <code>maxLatency</code>.
+     *
+     * @param source the {@link EventList} to publish.
+     * @param path the address that the {@link EventList} shall be published under.
+     *      The path must start with a slash character. This must be unique among
+     *      all {@link EventList}s published on this {@link ListPeer}.
+     * @param byteCoder a helper that can convert the elements of the {@link EventList}
+     *      into binary network-transmittable form.
+     * @param maxLatency the longest that a change may wait before it is sent
+     *      to subscribers, in milliseconds. If this is 0, each change is sent
+     *      immediately.
+     * @param maxBatchSize the number of changed elements that cause the pending
+     *      changes to be sent immediately.
+     * @return a simple decorator of the published {@link EventList}
+     *      with additional methods to bring the list offline. This list is writable.
+     */
+    public <E> NetworkList<E> publish(EventList<E> source, String path, ByteCoder byteCoder, long maxLatency, int maxBatchSize) {
+        return publish(source, path, byteCoder, maxLatency, maxBatchSize, COMPACT_FORMAT);
+    }
+
+    /**
+     * Publish the specified EventList with the specified name, coalescing
+     * changes as specified and sending them in the specified format.
+     *
+     * @param source the {@link EventList} to publish.
+     * @param path the address that the {@link EventList} shall be published under.
+     *      The path must start with a slash character. This must be unique among
+     *      all {@link EventList}s published on this {@link ListPeer}.
+     * @param byteCoder a helper that can convert the elements of the {@link EventList}
+     *      into binary network-transmittable form.
+     * @param maxLatency the longest that a change may wait before it is sent
+     *      to subscribers, in milliseconds. If this is 0, each change is sent
+     *      immediately.
+     * @param maxBatchSize the number of changed elements that cause the pending
+     *      changes to be sent immediately.
+     * @param format either {@link #COMPACT_FORMAT}, or {@link #LEGACY_FORMAT}
+     *      if peers running an older version of Glazed Lists will subscribe.
+     * @return a simple decorator of the published {@link EventList}
+     *      with additional methods to bring the list offline. This list is writable.
+     */
+    public <E> NetworkList<E> publish(EventList<E> source, String path, ByteCoder byteCoder, long maxLatency, int maxBatchSize, int format) {
         NetworkList<E> published = new NetworkList<E>(source, byteCoder);
+        published.setFormat(format);
+        published.setBatching(maxLatency, maxBatchSize);
         ResourceStatus resourceStatus = peer.publish(published.getResource(), path);
         published.setResourceStatus(resourceStatus);
         published.setWritable(true);
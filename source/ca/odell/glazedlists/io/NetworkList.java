@@ -7,10 +7,12 @@ package ca.odell.glazedlists.io;
 import ca.odell.glazedlists.EventList;
 import ca.odell.glazedlists.TransformedList;
 import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.impl.event.Tree4Deltas;
 import ca.odell.glazedlists.impl.io.Bufferlo;
 import ca.odell.glazedlists.impl.io.ListEventToBytes;
 import ca.odell.glazedlists.impl.rbp.Resource;
 import ca.odell.glazedlists.impl.rbp.ResourceListener;
+import ca.odell.glazedlists.impl.rbp.ResourceSnapshot;
 import ca.odell.glazedlists.impl.rbp.ResourceStatus;
 import ca.odell.glazedlists.impl.rbp.ResourceStatusListener;
 import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
@@ -19,6 +21,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * An {@link EventList} that is either published to the network or subscribed from
@@ -31,6 +35,12 @@ import java.util.List;
  * and {@link ListPeer#publish(EventList,String,ByteCoder) publish()} methods
  * of a started {@link ListPeer}.
  *
+ * <p>A published {@link NetworkList} may coalesce the changes made within a
+ * short window into a single update, see
+ * {@link ListPeer#publish(EventList,String,ByteCoder,long,int) publish()}.
+ * Lists that are subscribed to by peers running an older version of Glazed Lists
+ * must be published in the {@link ListPeer#LEGACY_FORMAT legacy format}.
+ *
  * <p>{@link NetworkList}s may be taken offline and brought back online with the
  * {@link #connect()} and {@link #disconnect()} methods. This allows an application
  * to use a {@link NetworkList} in spite of an unreliable network connection.
@@ -83,6 +93,9 @@ public final class NetworkList<E> extends TransformedList<E, E> {
     /** how bytes are encoded and decoded */
     private ByteCoder byteCoder;
 
+    /** the format that changes are published in */
+    private int format = ListEventToBytes.COMPACT_FORMAT;
+
     /** who manages this resource's connection */
     private ResourceStatus resourceStatus = null;
 
@@ -92,6 +105,23 @@ public final class NetworkList<E> extends TransformedList<E, E> {
     /** implementations of ResourceStatusListener and Resource */
     private PrivateInterfaces privateInterfaces = new PrivateInterfaces();
 
+    /** the longest a change waits to be published, or 0 to publish each change immediately */
+    private long maxLatency = 0;
+
+    /** the number of changed elements that cause the pending changes to be published */
+    private int maxBatchSize = 0;
+
+    /** the changes not yet published, relative to the list when they were last published */
+    private Tree4Deltas<E> pendingChanges = null;
+    private int pendingChangeCount = 0;
+
+    /** the size of the list when the changes were last published */
+    private int publishedSize = 0;
+
+    /** publishes pending changes once they have waited for the max latency */
+    private Timer batchTimer = null;
+    private boolean batchScheduled = false;
+
     /**
      * Create a {@link NetworkList} that brings the specified source online.
      */
@@ -122,6 +152,33 @@ public final class NetworkList<E> extends TransformedList<E, E> {
         return writable;
     }
 
+    /**
+     * Publish changes in the specified format, see {@link ListPeer#LEGACY_FORMAT}.
+     * Subscribed lists read either format.
+     */
+    void setFormat(int format) {
+        ListEventToBytes.checkFormat(format);
+        this.format = format;
+    }
+
+    /**
+     * Coalesce changes for up to <code>maxLatency</code> milliseconds, or until
+     * <code>maxBatchSize</code> elements have changed, before publishing them
+     * as a single update.
+     */
+    void setBatching(long maxLatency, int maxBatchSize) {
+        if(maxLatency < 0) throw new IllegalArgumentException("maxLatency must not be negative: " + maxLatency);
+        if(maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        this.maxLatency = maxLatency;
+        this.maxBatchSize = maxBatchSize;
+        if(maxLatency == 0) return;
+
+        pendingChanges = new Tree4Deltas<E>();
+        pendingChanges.setAllowContradictingEvents(true);
+        publishedSize = source.size();
+        batchTimer = new Timer("NetworkList batch", true);
+    }
+
     /**
      * Gets the {@link Resource} that is the peer of this NetworkList.
      */
@@ -132,22 +189,88 @@ public final class NetworkList<E> extends TransformedList<E, E> {
     /** {@inheritDoc} */
     @Override
     public void listChanged(ListEvent<E> listChanges) {
-        // notify resource listeners
-        try {
+        // nobody to notify
+        if(resourceListeners.isEmpty()) {
+            publishedSize = source.size();
+
+        // coalesce the change with those pending
+        } else if(pendingChanges != null && !listChanges.isReordering()) {
+            if(pendingChangeCount == 0) pendingChanges.reset(publishedSize);
             ListEvent<E> listChangesCopy = listChanges.copy();
-            Bufferlo listChangesBytes = ListEventToBytes.toBytes(listChangesCopy, byteCoder);
-            for(int r = 0; r < resourceListeners.size(); r++) {
-                ResourceListener listener = resourceListeners.get(r);
-                listener.resourceUpdated(privateInterfaces, listChangesBytes.duplicate());
+            while(listChangesCopy.next()) {
+                int index = listChangesCopy.getIndex();
+                int type = listChangesCopy.getType();
+                if(type == ListEvent.INSERT) pendingChanges.targetInsert(index, index + 1, ListEvent.<E>unknownValue());
+                else if(type == ListEvent.UPDATE) pendingChanges.targetUpdate(index, index + 1, listChangesCopy.getOldValue(), ListEvent.<E>unknownValue());
+                else if(type == ListEvent.DELETE) pendingChanges.targetDelete(index, index + 1, listChangesCopy.getOldValue());
+                pendingChangeCount++;
             }
-        } catch(IOException e) {
-            throw new IllegalStateException(e.getMessage());
+            if(pendingChangeCount >= maxBatchSize) {
+                publishPendingChanges();
+            } else if(!batchScheduled) {
+                batchScheduled = true;
+                batchTimer.schedule(new PublishBatch(), maxLatency);
+            }
+
+        // publish the change immediately
+        } else {
+            publishPendingChanges();
+            try {
+                publish(ListEventToBytes.toBytes(listChanges.copy(), byteCoder, format));
+            } catch(IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+            publishedSize = source.size();
         }
 
         // forward the event
         updates.forwardEvent(listChanges);
     }
 
+    /**
+     * Publishes the pending changes as a single update. This must be called
+     * while holding the write lock.
+     */
+    private void publishPendingChanges() {
+        if(pendingChangeCount == 0) return;
+        try {
+            if(!resourceListeners.isEmpty()) {
+                publish(ListEventToBytes.toBytes(pendingChanges, source, byteCoder, format));
+            }
+        } catch(IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        } finally {
+            pendingChangeCount = 0;
+            publishedSize = source.size();
+        }
+    }
+
+    /**
+     * Notify resource listeners of the specified update.
+     */
+    private void publish(Bufferlo listChangesBytes) {
+        for(int r = 0; r < resourceListeners.size(); r++) {
+            ResourceListener listener = resourceListeners.get(r);
+            listener.resourceUpdated(privateInterfaces, listChangesBytes.duplicate());
+        }
+    }
+
+    /**
+     * Publishes the pending changes once they have waited long enough.
+     */
+    private class PublishBatch extends TimerTask {
+        @Override
+        public void run() {
+            getReadWriteLock().writeLock().lock();
+            try {
+                batchScheduled = false;
+                publishPendingChanges();
+            } finally {
+                getReadWriteLock().writeLock().unlock();
+            }
+        }
+    }
+
     /**
      * Returns true if this resource is on the network. For published lists, this
      * requires that the list is being served. For subscribed lists, this requires
@@ -204,12 +327,12 @@ public final class NetworkList<E> extends TransformedList<E, E> {
 
         /** {@inheritDoc} */
         @Override
-        public Bufferlo toSnapshot() {
+        public ResourceSnapshot captureSnapshot() {
             getReadWriteLock().writeLock().lock();
             try {
-                return ListEventToBytes.toBytes(NetworkList.this, byteCoder);
-            } catch(IOException e) {
-                throw new IllegalStateException(e.getMessage());
+                // pending changes must preceed the snapshot, since it includes them
+                publishPendingChanges();
+                return new ListSnapshot(new ArrayList<E>(NetworkList.this));
             } finally {
                 getReadWriteLock().writeLock().unlock();
             }
@@ -253,6 +376,7 @@ public final class NetworkList<E> extends TransformedList<E, E> {
             for(int r = 0; r < resourceListeners.size(); r++) {
                 if(resourceListeners.get(r) == listener) {
                     resourceListeners.remove(r);
+                    if(resourceListeners.isEmpty()) pendingChangeCount = 0;
                     return;
                 }
             }
@@ -269,6 +393,24 @@ public final class NetworkList<E> extends TransformedList<E, E> {
         }
     }
 
+    /**
+     * A copy of the list's elements, which are encoded without holding the lock.
+     */
+    private class ListSnapshot implements ResourceSnapshot {
+        private final List<E> elements;
+        ListSnapshot(List<E> elements) {
+            this.elements = elements;
+        }
+        @Override
+        public Bufferlo toBytes() {
+            try {
+                return ListEventToBytes.toBytes(elements, byteCoder, format);
+            } catch(IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+    }
+
     /**
      * Registers the specified listener to receive events about the status of this
      * {@link NetworkList}.
@@ -290,6 +432,7 @@ public final class NetworkList<E> extends TransformedList<E, E> {
     public void dispose() {
         resourceStatus.removeResourceStatusListener(privateInterfaces);
         disconnect();
+        if(batchTimer != null) batchTimer.cancel();
         super.dispose();
     }
 }
@@ -0,0 +1,306 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import ca.odell.glazedlists.AbstractEventList;
+import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.impl.adt.CacheEntry;
+import ca.odell.glazedlists.impl.adt.CachePolicy;
+import ca.odell.glazedlists.util.concurrent.LockFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@link ca.odell.glazedlists.EventList} of rows that are too many to hold
+ * in memory, such as a large database result set. Only the number of rows is
+ * known up front. The rows themselves are fetched a page at a time from a
+ * {@link PageSource} on a background thread, when they are first requested.
+ *
+ * <p>Until its page arrives, each row is the placeholder. When the page arrives,
+ * an update event is fired for its rows, so that a table showing this list
+ * repaints them. Since a table only gets the rows that it shows, only the
+ * visible pages are fetched. For this to hold, show this list in a
+ * {@link ca.odell.glazedlists.swing.DefaultEventTableModel} directly, and
+ * have pages arrive on the event dispatch thread with an {@link Executor}
+ * that calls {@link javax.swing.SwingUtilities#invokeLater}. A
+ * {@link ca.odell.glazedlists.swing.GlazedListsSwing#swingThreadProxyList swing thread proxy}
+ * would instead copy, and so fetch, every row.
+ *
+ * <p>The most recently requested pages are cached. If pages are requested
+ * faster than they can be fetched, such as while a table is scrolled quickly,
+ * the pages requested last are fetched first and the oldest requests are
+ * dropped.
+ *
+ * <p><table border="1" width="100%" cellpadding="3" cellspacing="0">
+ * <tr class="TableHeadingColor"><td colspan=2><font size="+2"><b>EventList Overview</b></font></td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Writable:</b></td><td>no</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Concurrency:</b></td><td>thread ready, not thread safe</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Performance:</b></td><td>reads: O(1)</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Memory:</b></td><td>O(maxPages * pageSize)</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Unit Tests:</b></td><td>PagedEventListTest</td></tr>
+ * <tr><td class="TableSubHeadingColor"><b>Issues:</b></td><td>N/A</td></tr>
+ * </table>
+ */
+public final class PagedEventList<E> extends AbstractEventList<E> {
+
+    /** logging */
+    private static Logger logger = Logger.getLogger(PagedEventList.class.toString());
+
+    /** where the rows come from */
+    private final PageSource<E> pageSource;
+
+    /** the number of rows, which doesn't change */
+    private final int size;
+
+    /** the number of rows in each page but the last */
+    private final int pageSize;
+
+    /** the most pages to cache, and to wait to be fetched */
+    private final int maxPages;
+
+    /** the value of rows that are being fetched */
+    private final E placeholder;
+
+    /** the cached pages by page number, and the order to evict them */
+    private final Map<Integer,CacheEntry> pages = new HashMap<Integer,CacheEntry>();
+    private final CachePolicy cache = CachePolicy.leastRecentlyUsed();
+
+    /** the page numbers waiting to be fetched, most recently requested last */
+    private final List<Integer> pendingPages = new ArrayList<Integer>();
+
+    /** the page numbers that have been fetched, or are being fetched, but haven't arrived */
+    private final List<Integer> fetchingPages = new ArrayList<Integer>();
+
+    /** fetches pages, or null if none have been requested */
+    private ExecutorService fetcher = null;
+
+    /** adds fetched pages to the list and fires their events, or null to do so on the fetcher */
+    private final Executor arrivalExecutor;
+
+    /**
+     * Creates a {@link PagedEventList} of the rows of the specified {@link PageSource}.
+     * Pages arrive, and their events are fired, on the thread that fetches them.
+     *
+     * @param pageSource fetches the rows.
+     * @param pageSize the number of rows to fetch at a time.
+     * @param maxPages the number of pages to keep in memory.
+     * @param placeholder the value of rows that are being fetched.
+     */
+    public PagedEventList(PageSource<E> pageSource, int pageSize, int maxPages, E placeholder) {
+        this(pageSource, pageSize, maxPages, placeholder, null);
+    }
+
+    /**
+     * Creates a {@link PagedEventList} of the rows of the specified {@link PageSource}.
+     *
+     * @param pageSource fetches the rows.
+     * @param pageSize the number of rows to fetch at a time.
+     * @param maxPages the number of pages to keep in memory.
+     * @param placeholder the value of rows that are being fetched.
+     * @param arrivalExecutor runs the arrival of each fetched page, which
+     *      fires its event, such as on the event dispatch thread.
+     */
+    public PagedEventList(PageSource<E> pageSource, int pageSize, int maxPages, E placeholder, Executor arrivalExecutor) {
+        if(pageSize < 1) throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        if(maxPages < 1) throw new IllegalArgumentException("max pages must be positive: " + maxPages);
+        this.pageSource = pageSource;
+        this.size = pageSource.size();
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.placeholder = placeholder;
+        this.arrivalExecutor = arrivalExecutor;
+        readWriteLock = LockFactory.DEFAULT.createReadWriteLock();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public E get(int index) {
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("cannot get from list of size " + size + " at " + index);
+        int pageNumber = index / pageSize;
+
+        // readers hold only the read lock, so the cache has its own
+        synchronized(pages) {
+            CacheEntry entry = pages.get(pageNumber);
+            if(entry != null) {
+                cache.access(entry);
+                return (E)((Page)entry.getValue()).rows.get(index - pageNumber * pageSize);
+            }
+            request(pageNumber);
+            return placeholder;
+        }
+    }
+
+    /**
+     * Queues the specified page to be fetched, unless it is queued already.
+     */
+    private void request(int pageNumber) {
+        Integer page = Integer.valueOf(pageNumber);
+        if(fetchingPages.contains(page)) return;
+        int pendingIndex = pendingPages.indexOf(page);
+        if(pendingIndex == pendingPages.size() - 1 && pendingIndex != -1) return;
+
+        // the newest request goes last, and the oldest over the limit is dropped
+        if(pendingIndex != -1) pendingPages.remove(pendingIndex);
+        pendingPages.add(page);
+        if(pendingPages.size() > maxPages) pendingPages.remove(0);
+
+        if(fetcher == null) fetcher = Executors.newSingleThreadExecutor(new FetcherThreadFactory());
+        fetcher.execute(new FetchPage());
+    }
+
+    /**
+     * Gets the number of pages in memory.
+     */
+    public int getCachedPageCount() {
+        synchronized(pages) {
+            return pages.size();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dispose() {
+        synchronized(pages) {
+            if(fetcher != null) fetcher.shutdownNow();
+            fetcher = null;
+            pendingPages.clear();
+            fetchingPages.clear();
+            pages.clear();
+        }
+    }
+
+    /**
+     * Fetches the rows of this list a page at a time.
+     */
+    public interface PageSource<E> {
+
+        /**
+         * Gets the number of rows.
+         */
+        public int size();
+
+        /**
+         * Gets the rows from <code>fromIndex</code>, inclusive, to
+         * <code>toIndex</code>, exclusive. This is called on a background
+         * thread, one page at a time.
+         */
+        public List<E> getRows(int fromIndex, int toIndex);
+    }
+
+    /**
+     * The cached rows of a page.
+     */
+    private static class Page {
+        private final Integer number;
+        private final List rows;
+
+        Page(Integer number, List rows) {
+            this.number = number;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Fetches the most recently requested page that is waiting, and caches it.
+     */
+    private class FetchPage implements Runnable {
+        @Override
+        public void run() {
+            Integer pageNumber;
+            synchronized(pages) {
+                if(pendingPages.isEmpty()) return;
+                pageNumber = pendingPages.remove(pendingPages.size() - 1);
+                fetchingPages.add(pageNumber);
+            }
+
+            // fetch without any lock, so that the list can still be used
+            int fromIndex = pageNumber.intValue() * pageSize;
+            int toIndex = Math.min(size, fromIndex + pageSize);
+            List<E> rows;
+            try {
+                rows = pageSource.getRows(fromIndex, toIndex);
+                if(rows.size() != toIndex - fromIndex) throw new IllegalStateException("Expected " + (toIndex - fromIndex) + " rows but got " + rows.size());
+            } catch(RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed to fetch rows " + fromIndex + " to " + toIndex, e);
+                synchronized(pages) {
+                    fetchingPages.remove(pageNumber);
+                }
+                return;
+            }
+
+            PageArrival arrival = new PageArrival(pageNumber, rows);
+            if(arrivalExecutor == null) arrival.run();
+            else arrivalExecutor.execute(arrival);
+        }
+    }
+
+    /**
+     * Caches a fetched page, and fires an event for its rows.
+     */
+    private class PageArrival implements Runnable {
+        private final Integer pageNumber;
+        private final List<E> rows;
+
+        PageArrival(Integer pageNumber, List<E> rows) {
+            this.pageNumber = pageNumber;
+            this.rows = rows;
+        }
+
+        @Override
+        public void run() {
+            int fromIndex = pageNumber.intValue() * pageSize;
+            getReadWriteLock().writeLock().lock();
+            try {
+                synchronized(pages) {
+                    fetchingPages.remove(pageNumber);
+                    if(fetcher == null) return;
+                    CacheEntry entry = new CacheEntry(new Page(pageNumber, rows), 1);
+                    CacheEntry replaced = pages.put(pageNumber, entry);
+                    if(replaced != null) cache.remove(replaced);
+                    cache.add(entry);
+                    while(cache.getWeight() > maxPages) {
+                        CacheEntry evicted = cache.evict();
+                        pages.remove(((Page)evicted.getValue()).number);
+                    }
+                }
+
+                // without values, the updates merge into a single block
+                updates.beginEvent();
+                for(int i = 0; i < rows.size(); i++) {
+                    updates.elementUpdated(fromIndex + i, ListEvent.<E>unknownValue(), ListEvent.<E>unknownValue());
+                }
+                updates.commitEvent();
+            } finally {
+                getReadWriteLock().writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon thread for fetching pages.
+     */
+    private static class FetcherThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PagedEventList fetcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -149,6 +149,59 @@ public class CompositeListTest {
         assertEquals(mcDonalds, fastFood);
     }
 
+    /**
+     * Verifies that removing a member list finds the right member among many,
+     * including the first of several copies.
+     */
+    @Test
+    public void testRemoveAmongManyMembers() {
+        CompositeList<String> accounts = new CompositeList<String>();
+        ListConsistencyListener.install(accounts);
+        List<String> accountsVerify = new ArrayList<String>();
+
+        List<EventList<String>> members = new ArrayList<EventList<String>>();
+        for(int i = 0; i < 200; i++) {
+            EventList<String> member = accounts.createMemberList();
+            member.add("account " + i);
+            member.add("balance " + i);
+            members.add(member);
+            accounts.addMemberList(member);
+        }
+        EventList<String> duplicated = members.get(50);
+        accounts.addMemberList(duplicated);
+
+        // removes the first copy only
+        accounts.removeMemberList(duplicated);
+        accounts.removeMemberList(members.get(199));
+        accounts.removeMemberList(members.get(0));
+
+        for(int i = 1; i < 199; i++) {
+            if(i == 50) continue;
+            accountsVerify.addAll(members.get(i));
+        }
+        accountsVerify.addAll(duplicated);
+        assertEquals(accountsVerify, accounts);
+
+        // member changes are still mapped to the right indices
+        members.get(100).add(1, "pending 100");
+        duplicated.remove(0);
+        accountsVerify.clear();
+        for(int i = 1; i < 199; i++) {
+            if(i == 50) continue;
+            accountsVerify.addAll(members.get(i));
+        }
+        accountsVerify.addAll(duplicated);
+        assertEquals(accountsVerify, accounts);
+
+        accounts.removeMemberList(duplicated);
+        try {
+            accounts.removeMemberList(duplicated);
+            fail("failed to receive an IllegalArgumentException for a list which is not a member");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     /**
      * Verifies that multiple copies of the same list can be added.
      */
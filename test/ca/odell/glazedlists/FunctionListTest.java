@@ -4,6 +4,9 @@ import ca.odell.glazedlists.impl.testing.ListConsistencyListener;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -176,6 +179,198 @@ public class FunctionListTest {
         assertEquals(1, ((AdvancedIntegerToString) intsToStrings.getForwardFunction()).getDisposeCount());
     }
 
+    @Test
+    public void testLazyEvaluation() {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        source.add(ZERO);
+        source.add(ONE);
+
+        AdvancedIntegerToString function = new AdvancedIntegerToString();
+        FunctionList<Integer, String> intsToStrings = new FunctionList<Integer, String>(source, function, new StringToInteger(), 10);
+        ListConsistencyListener consistencyListener = ListConsistencyListener.install(intsToStrings);
+        consistencyListener.setPreviousElementTracked(false);
+        assertEquals(2, function.getEvaluateCount());
+
+        // reads are served from the cache
+        assertEquals("0", intsToStrings.get(0));
+        assertEquals("1", intsToStrings.get(1));
+        assertEquals(2, function.getEvaluateCount());
+        // the consistency listener read each element once already
+        assertEquals(0.5F, intsToStrings.getCacheHitRatio(), 0.0F);
+
+        // updates are reevaluated once, when the consistency listener reads them
+        source.set(0, TWO);
+        assertEquals(1, function.getReevaluateCount());
+        assertEquals("2", intsToStrings.get(0));
+        assertEquals(1, function.getReevaluateCount());
+
+        // writes through the reverse function still work
+        intsToStrings.add("9");
+        assertEquals(NINE, source.get(2));
+        assertEquals("9", intsToStrings.get(2));
+
+        source.remove(0);
+        assertEquals(1, function.getDisposeCount());
+        assertEquals("1", intsToStrings.get(0));
+        assertEquals("9", intsToStrings.get(1));
+    }
+
+    @Test
+    public void testLazyEviction() {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        AdvancedIntegerToString function = new AdvancedIntegerToString();
+        FunctionList<Integer, String> intsToStrings = new FunctionList<Integer, String>(source, function, null, 2);
+
+        // nothing is evaluated until it is read
+        source.add(ZERO);
+        source.add(ONE);
+        source.add(TWO);
+        assertEquals(0, function.getEvaluateCount());
+
+        assertEquals("0", intsToStrings.get(0));
+        assertEquals("1", intsToStrings.get(1));
+        assertEquals("0", intsToStrings.get(0));
+        assertEquals(2, function.getEvaluateCount());
+        assertEquals(1, intsToStrings.getCacheHits());
+        assertEquals(2, intsToStrings.getCacheMisses());
+
+        // updates are reevaluated only when they are read
+        source.set(1, ONE);
+        assertEquals(0, function.getReevaluateCount());
+        assertEquals("1", intsToStrings.get(1));
+        assertEquals(1, function.getReevaluateCount());
+        assertEquals(3, intsToStrings.getCacheMisses());
+
+        // reading a third element evicts the least recently read one
+        assertEquals(0, function.getDisposeCount());
+        assertEquals("2", intsToStrings.get(2));
+        assertEquals(1, function.getDisposeCount());
+        assertEquals("0", intsToStrings.get(0));
+        assertEquals(2, function.getDisposeCount());
+        assertEquals(5, intsToStrings.getCacheMisses());
+
+        // evicted elements are not disposed again when they are removed
+        source.remove(1);
+        assertEquals(2, function.getDisposeCount());
+        source.clear();
+        assertEquals(4, function.getDisposeCount());
+
+        // a stale value is disposed with the source value it was transformed from
+        source.add(ZERO);
+        source.add(ONE);
+        assertEquals("0", intsToStrings.get(0));
+        assertEquals("1", intsToStrings.get(1));
+        source.set(0, NINE);
+        source.add(TWO);
+        assertEquals("2", intsToStrings.get(2));
+        assertEquals(5, function.getDisposeCount());
+        source.clear();
+        assertEquals(7, function.getDisposeCount());
+
+        try {
+            new FunctionList<Integer, String>(source, function, null, 0);
+            fail("failed to receive an IllegalArgumentException for an empty cache");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLazyReorder() {
+        SortedList<Integer> source = new SortedList<Integer>(new BasicEventList<Integer>(), null);
+        FunctionList<Integer, String> intsToStrings = new FunctionList<Integer, String>(source, new IntegerToString(), null, 10);
+        ListConsistencyListener consistencyListener = ListConsistencyListener.install(intsToStrings);
+        consistencyListener.setPreviousElementTracked(false);
+
+        source.add(TWO);
+        source.add(ZERO);
+        source.add(ONE);
+        source.setComparator(GlazedLists.comparableComparator());
+
+        assertEquals(4, consistencyListener.getEventCount());
+        assertEquals("0", intsToStrings.get(0));
+        assertEquals("1", intsToStrings.get(1));
+        assertEquals("2", intsToStrings.get(2));
+
+        intsToStrings.setForwardFunction(new IntegerToCardinalityString());
+        assertEquals("0th", intsToStrings.get(0));
+        assertEquals("2nd", intsToStrings.get(2));
+    }
+
+    @Test
+    public void testParallelEvaluation() {
+        BasicEventList<Integer> source = new BasicEventList<Integer>();
+        for (int i = 0; i < 5000; i++)
+            source.add(new Integer(i));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            FunctionList<Integer, String> intsToStrings = new FunctionList<Integer, String>(source, new IntegerToString(), null, executor);
+            ListConsistencyListener consistencyListener = ListConsistencyListener.install(intsToStrings);
+            assertSame(executor, intsToStrings.getExecutor());
+            assertEquals(5000, intsToStrings.size());
+            for (int i = 0; i < 5000; i++)
+                assertEquals(String.valueOf(i), intsToStrings.get(i));
+
+            // a large block of inserts, updates and deletes in a single event
+            source.updates.beginEvent(true);
+            List<Integer> inserted = new ArrayList<Integer>();
+            for (int i = 0; i < 3000; i++)
+                inserted.add(new Integer(-i));
+            source.addAll(100, inserted);
+            for (int i = 4000; i < 6000; i++)
+                source.set(i, new Integer(source.get(i).intValue() * 2));
+            for (int i = 0; i < 500; i++)
+                source.remove(7000);
+            source.updates.commitEvent();
+
+            assertEquals(source.size(), intsToStrings.size());
+            for (int i = 0; i < source.size(); i++)
+                assertEquals(source.get(i).toString(), intsToStrings.get(i));
+
+            // reevaluation receives the previous value at the right index
+            PreviousValueCheckingFunction function = new PreviousValueCheckingFunction();
+            intsToStrings.setForwardFunction(function);
+            source.addAll(source.subList(0, 2000));
+            source.updates.beginEvent(true);
+            for (int i = 0; i < 2000; i++)
+                source.set(i, new Integer(source.get(i).intValue() + 1));
+            source.updates.commitEvent();
+            assertEquals(2000, function.getReevaluateCount());
+            assertEquals(0, function.getMismatchCount());
+            assertEquals(2000, function.getOtherThreadCount());
+            for (int i = 0; i < source.size(); i++)
+                assertEquals(source.get(i).toString(), intsToStrings.get(i));
+
+            // without an executor, elements are transformed serially
+            intsToStrings.setExecutor(null);
+            source.add(NINE);
+            assertEquals("9", intsToStrings.get(intsToStrings.size() - 1));
+            consistencyListener.assertConsistent();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelEvaluationFailure() {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new FunctionList<Integer, String>(source, new IntegerToCardinalityString(), null, executor);
+
+            List<Integer> values = new ArrayList<Integer>();
+            for (int i = 0; i < 2000; i++)
+                values.add(new Integer(i % 10));
+            source.addAll(values);
+            fail("failed to receive the IllegalArgumentException thrown by the Function");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private static class StringToInteger implements FunctionList.Function<String,Integer> {
         @Override
         public Integer evaluate(String value) {
@@ -215,10 +410,56 @@ public class FunctionListTest {
         }
     }
 
+    /**
+     * Verifies that each element is reevaluated with the value transformed
+     * from its predecessor, which is one less. This is safe to call from
+     * multiple threads.
+     */
+    private static class PreviousValueCheckingFunction extends IntegerToString implements FunctionList.AdvancedFunction<Integer,String> {
+        private final Thread creatingThread = Thread.currentThread();
+        private final AtomicInteger reevaluateCount = new AtomicInteger();
+        private final AtomicInteger mismatchCount = new AtomicInteger();
+        private final AtomicInteger otherThreadCount = new AtomicInteger();
+
+        @Override
+        public String reevaluate(Integer value, String oldValue) {
+            reevaluateCount.incrementAndGet();
+            if (Thread.currentThread() != creatingThread)
+                otherThreadCount.incrementAndGet();
+            if (!String.valueOf(value.intValue() - 1).equals(oldValue))
+                mismatchCount.incrementAndGet();
+            return evaluate(value);
+        }
+
+        @Override
+        public void dispose(Integer sourceValue, String transformedValue) {
+            // do nothing
+        }
+
+        public int getReevaluateCount() {
+            return reevaluateCount.get();
+        }
+
+        public int getMismatchCount() {
+            return mismatchCount.get();
+        }
+
+        public int getOtherThreadCount() {
+            return otherThreadCount.get();
+        }
+    }
+
     private static class AdvancedIntegerToString extends IntegerToString implements FunctionList.AdvancedFunction<Integer,String> {
+        private int evaluateCount = 0;
         private int reevaluateCount = 0;
         private int disposeCount = 0;
 
+        @Override
+        public String evaluate(Integer value) {
+            this.evaluateCount++;
+            return super.evaluate(value);
+        }
+
         @Override
         public String reevaluate(Integer value, String oldValue) {
             this.reevaluateCount++;
@@ -227,9 +468,15 @@ public class FunctionListTest {
 
         @Override
         public void dispose(Integer sourceValue, String transformedValue) {
+            // the transformed value must be the one produced from the source value
+            assertEquals(super.evaluate(sourceValue), transformedValue);
             this.disposeCount++;
         }
 
+        public int getEvaluateCount() {
+            return evaluateCount;
+        }
+
         public int getReevaluateCount() {
             return reevaluateCount;
         }
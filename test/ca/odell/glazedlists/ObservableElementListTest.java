@@ -18,6 +18,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.swing.JLabel;
 
@@ -69,6 +70,100 @@ public class ObservableElementListTest {
         assertEquals(1, counter.getChangeCount(3));
     }
 
+    /**
+     * Tests that changes queued within the coalescing window are broadcast
+     * as a single event.
+     */
+    @Test
+    public void testCoalescing() {
+        JLabel ottawa = new JLabel("Rough Riders");
+        JLabel wrestling = new JLabel("WWF");
+        labels.add(ottawa);
+        labels.add(wrestling);
+        labels.add(ottawa);
+        assertEquals(3, counter.getEventCount());
+
+        // a long window so only flush() broadcasts
+        labels.setCoalescingWindow(60000);
+        ottawa.setText("Renegades");
+        ottawa.setText("Redblacks");
+        wrestling.setText("WWE");
+        assertEquals(3, counter.getEventCount());
+
+        labels.flush();
+        assertEquals(4, counter.getEventCount());
+        assertEquals(3, counter.getChangeCount(3));
+        // ottawa is in the list twice, so each of its changes is a notification per listener
+        assertEquals(4, labels.getCoalescedNotificationCount());
+
+        // nothing is queued, so flushing again does nothing
+        labels.flush();
+        assertEquals(4, counter.getEventCount());
+
+        // disabling coalescing flushes queued changes
+        wrestling.setText("AEW");
+        labels.setCoalescingWindow(0);
+        assertEquals(5, counter.getEventCount());
+        assertEquals(1, counter.getChangeCount(4));
+
+        // changes are broadcast immediately again
+        wrestling.setText("NXT");
+        assertEquals(6, counter.getEventCount());
+        assertEquals(4, labels.getCoalescedNotificationCount());
+    }
+
+    /**
+     * Tests that queued changes are broadcast when the coalescing window elapses.
+     */
+    @Test
+    public void testCoalescingWindowElapses() throws InterruptedException {
+        JLabel ottawa = new JLabel("Rough Riders");
+        labels.add(ottawa);
+        labels.setCoalescingWindow(50);
+
+        ottawa.setText("Renegades");
+        ottawa.setText("Redblacks");
+
+        for (int i = 0; i < 100 && counter.getEventCount() < 2; i++)
+            Thread.sleep(50);
+        assertEquals(2, counter.getEventCount());
+        assertEquals(1, counter.getChangeCount(1));
+        assertEquals(1, labels.getCoalescedNotificationCount());
+    }
+
+    @Test
+    public void testCoalescingExecutor() throws InterruptedException {
+        final List<Runnable> flushes = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            public void execute(Runnable command) {
+                synchronized(flushes) {
+                    flushes.add(command);
+                }
+            }
+        };
+        JLabel toronto = new JLabel("Argonauts");
+        labels.add(toronto);
+        labels.setCoalescingWindow(50, executor);
+
+        toronto.setText("Argos");
+        toronto.setText("Boatmen");
+
+        // the elapsed window hands the flush to the executor instead of firing
+        for (int i = 0; i < 100 && flushes.isEmpty(); i++)
+            Thread.sleep(50);
+        assertEquals(1, counter.getEventCount());
+
+        final Runnable flush;
+        synchronized(flushes) {
+            assertEquals(1, flushes.size());
+            flush = flushes.get(0);
+        }
+        flush.run();
+        assertEquals(2, counter.getEventCount());
+        assertEquals(1, counter.getChangeCount(1));
+        assertEquals(1, labels.getCoalescedNotificationCount());
+    }
+
     @Test
     public void testAddRemoveListeners() {
         final JLabel listElement1 = new JLabel();
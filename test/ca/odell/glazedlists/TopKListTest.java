@@ -0,0 +1,146 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists;
+
+import ca.odell.glazedlists.impl.testing.GlazedListsTests;
+import ca.odell.glazedlists.impl.testing.ListConsistencyListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test {@link TopKList}.
+ */
+public class TopKListTest {
+
+    private static final Comparator<String> COMPARATOR = GlazedLists.comparableComparator();
+
+    @Test
+    public void testConstructor() {
+        EventList<String> source = new BasicEventList<String>();
+        source.addAll(GlazedListsTests.stringToList("JESSEWILSON"));
+
+        TopKList<String> topThree = new TopKList<String>(source, COMPARATOR, 3);
+        assertEquals(GlazedListsTests.stringToList("EEI"), topThree);
+        assertEquals(3, topThree.getK());
+
+        try {
+            new TopKList<String>(source, null, 3);
+            fail("failed to receive an IllegalArgumentException for a null comparator");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new TopKList<String>(source, COMPARATOR, 0);
+            fail("failed to receive an IllegalArgumentException for k of 0");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChangeSource() {
+        EventList<String> source = new BasicEventList<String>();
+        TopKList<String> topThree = new TopKList<String>(source, COMPARATOR, 3);
+        ListConsistencyListener.install(topThree);
+
+        source.addAll(GlazedListsTests.stringToList("WILSON"));
+        assertEquals(GlazedListsTests.stringToList("ILN"), topThree);
+
+        source.add("A");
+        assertEquals(GlazedListsTests.stringToList("AIL"), topThree);
+
+        // remove a shown element and let the overflow replace it
+        source.remove("I");
+        assertEquals(GlazedListsTests.stringToList("ALN"), topThree);
+
+        // an updated element moves within the window, or out of it
+        source.set(source.indexOf("N"), "B");
+        assertEquals(GlazedListsTests.stringToList("ABL"), topThree);
+        source.set(source.indexOf("A"), "Z");
+        assertEquals(GlazedListsTests.stringToList("BLO"), topThree);
+
+        // writes go through to the source
+        topThree.remove(0);
+        assertFalse(source.contains("B"));
+        assertEquals(GlazedListsTests.stringToList("LOS"), topThree);
+    }
+
+    @Test
+    public void testRescanOnlyWhenOverflowIsExhausted() {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        for(int i = 0; i < 1000; i++) source.add(new Integer(i));
+
+        TopKList<Integer> topTen = new TopKList<Integer>(source, GlazedLists.<Integer>comparableComparator(), 10);
+        ListConsistencyListener.install(topTen);
+        assertEquals(1, topTen.getRescanCount());
+
+        // ten removals are served from the overflow
+        for(int i = 0; i < 10; i++) source.remove(0);
+        assertEquals(1, topTen.getRescanCount());
+        assertEquals(new Integer(10), topTen.get(0));
+
+        // the eleventh exhausts it
+        source.remove(0);
+        assertEquals(2, topTen.getRescanCount());
+        assertEquals(new Integer(11), topTen.get(0));
+        assertEquals(new Integer(20), topTen.get(9));
+    }
+
+    @Test
+    public void testReorder() {
+        SortedList<String> source = new SortedList<String>(new BasicEventList<String>(), null);
+        source.addAll(GlazedListsTests.stringToList("GLAZEDLISTS"));
+        TopKList<String> topFour = new TopKList<String>(source, COMPARATOR, 4);
+        ListConsistencyListener.install(topFour);
+
+        source.setComparator(GlazedLists.reverseComparator());
+        assertEquals(GlazedListsTests.stringToList("ADEG"), topFour);
+
+        source.remove("A");
+        source.remove("D");
+        assertEquals(GlazedListsTests.stringToList("EGIL"), topFour);
+        assertEquals(source.get(source.size() - 1), topFour.get(0));
+    }
+
+    /**
+     * Compares against a sorted copy of the source through random changes,
+     * including multi-change events.
+     */
+    @Test
+    public void testRandomChanges() {
+        Random dice = new Random(12);
+        EventList<Integer> source = new BasicEventList<Integer>();
+        TopKList<Integer> topFive = new TopKList<Integer>(source, GlazedLists.<Integer>comparableComparator(), 5);
+        ListConsistencyListener.install(topFive);
+
+        for(int i = 0; i < 2000; i++) {
+            int operation = dice.nextInt(5);
+            if(operation == 0 || source.size() < 10) {
+                source.add(dice.nextInt(source.size() + 1), new Integer(dice.nextInt(100)));
+            } else if(operation == 1) {
+                source.remove(dice.nextInt(source.size()));
+            } else if(operation == 2) {
+                source.set(dice.nextInt(source.size()), new Integer(dice.nextInt(100)));
+            } else if(operation == 3) {
+                List<Integer> values = new ArrayList<Integer>();
+                for(int v = dice.nextInt(10); v >= 0; v--) values.add(new Integer(dice.nextInt(100)));
+                source.addAll(dice.nextInt(source.size() + 1), values);
+            } else {
+                source.removeAll(Collections.singletonList(new Integer(dice.nextInt(100))));
+            }
+
+            List<Integer> expected = new ArrayList<Integer>(source);
+            Collections.sort(expected);
+            assertEquals(expected.subList(0, Math.min(5, expected.size())), topFive);
+        }
+    }
+}
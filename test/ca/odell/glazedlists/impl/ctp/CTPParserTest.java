@@ -0,0 +1,87 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.ctp;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.text.ParseException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link CTPParser} reads headers and chunks, however the input
+ * is split up.
+ */
+public class CTPParserTest {
+
+    /**
+     * Verifies that a header is read once the blank line arrives.
+     */
+    @Test
+    public void testReadHeader() throws ParseException {
+        CTPParser parser = new CTPParser();
+        Bufferlo input = new Bufferlo();
+        input.write("POST /glazedlists HTTP/1.1\r\nHost: example.com\r\nTransfer-Encoding:  chunked\r\n");
+        assertFalse(parser.readHeader(input));
+        input.write("\r");
+        assertFalse(parser.readHeader(input));
+        input.write("\n4\r\n");
+        assertTrue(parser.readHeader(input));
+
+        assertEquals("POST /glazedlists HTTP/1.1", parser.getStartLine());
+        assertEquals(2, parser.getHeaders().size());
+        assertEquals("example.com", parser.getHeaders().get("Host"));
+        assertEquals("chunked", parser.getHeaders().get("Transfer-Encoding"));
+        assertEquals("4\r\n", input.toString());
+    }
+
+    /**
+     * Verifies that chunks are read when the input arrives a byte at a time,
+     * or many chunks at once.
+     */
+    @Test
+    public void testReadChunk() throws ParseException {
+        String stream = "5\r\nHello\r\n1a;name=value\r\nabcdefghijklmnopqrstuvwxyz\r\n0\r\n\r\n";
+
+        // a byte at a time
+        CTPParser parser = new CTPParser();
+        Bufferlo input = new Bufferlo();
+        StringBuffer chunks = new StringBuffer();
+        for(int i = 0; i < stream.length(); i++) {
+            input.write(stream.substring(i, i + 1));
+            Bufferlo chunk = parser.readChunk(input);
+            if(chunk != null) chunks.append("[").append(chunk.toString()).append("]");
+        }
+        assertEquals("[Hello][abcdefghijklmnopqrstuvwxyz][]", chunks.toString());
+        assertEquals(0, input.length());
+
+        // all at once
+        parser = new CTPParser();
+        input.write(stream);
+        assertEquals("Hello", parser.readChunk(input).toString());
+        assertEquals("abcdefghijklmnopqrstuvwxyz", parser.readChunk(input).toString());
+        assertEquals(0, parser.readChunk(input).length());
+        assertNull(parser.readChunk(input));
+    }
+
+    /**
+     * Verifies that malformed chunks are rejected.
+     */
+    @Test
+    public void testMalformedChunks() {
+        String[] malformed = { "\r\n", "x\r\n", "5 \r\n", "5\rHello", "5\r\nHello!\r\n", "5\r\nHello\r\r", "fffffffff\r\n" };
+        for(int m = 0; m < malformed.length; m++) {
+            Bufferlo input = new Bufferlo();
+            input.write(malformed[m]);
+            try {
+                new CTPParser().readChunk(input);
+                fail("failed to reject " + malformed[m]);
+            } catch(ParseException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.ctp;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link ChunkCompressor} restores the chunks it compresses.
+ */
+public class ChunkCompressorTest {
+
+    /**
+     * Verifies that small chunks are sent raw and large ones are compressed.
+     */
+    @Test
+    public void testThreshold() throws IOException {
+        ChunkCompressor sender = new ChunkCompressor();
+        ChunkCompressor receiver = new ChunkCompressor();
+
+        String small = "Action: update\r\n";
+        Bufferlo compressed = sender.compress(toBufferlo(small));
+        assertEquals(small.length() + 1, compressed.length());
+        assertEquals(small, receiver.decompress(compressed).toString());
+
+        String large = repeat("Action: update\r\n", 100);
+        compressed = sender.compress(toBufferlo(large));
+        assertTrue(compressed.length() < large.length() / 4);
+        assertEquals(large, receiver.decompress(compressed).toString());
+
+        sender.end();
+        receiver.end();
+    }
+
+    /**
+     * Verifies that chunks that don't compress are sent raw, and still train
+     * the dictionary.
+     */
+    @Test
+    public void testIncompressible() throws IOException {
+        ChunkCompressor sender = new ChunkCompressor();
+        ChunkCompressor receiver = new ChunkCompressor();
+
+        byte[] random = new byte[2000];
+        new Random(1).nextBytes(random);
+        Bufferlo compressed = sender.compress(toBufferlo(random, 0, random.length));
+        assertEquals(random.length + 1, compressed.length());
+        assertTrue(Arrays.equals(random, toBytes(receiver.decompress(compressed))));
+
+        // the random chunk is the dictionary for the next one
+        compressed = sender.compress(toBufferlo(random, 1000, 500));
+        assertTrue(compressed.length() < 50);
+        assertEquals(500, receiver.decompress(compressed).length());
+
+        sender.end();
+        receiver.end();
+    }
+
+    /**
+     * Verifies that later chunks are compressed against the last large chunk.
+     */
+    @Test
+    public void testDictionary() throws IOException {
+        ChunkCompressor sender = new ChunkCompressor();
+        ChunkCompressor receiver = new ChunkCompressor();
+        ChunkCompressor withoutDictionary = new ChunkCompressor();
+
+        StringBuffer snapshot = new StringBuffer();
+        for(int i = 0; i < 100; i++) snapshot.append("element ").append(i * 7919).append(", ");
+        assertEquals(snapshot.toString(), receiver.decompress(sender.compress(toBufferlo(snapshot.toString()))).toString());
+
+        String delta = snapshot.substring(200, 400);
+        Bufferlo compressed = sender.compress(toBufferlo(delta));
+        assertTrue(compressed.length() * 4 < withoutDictionary.compress(toBufferlo(delta)).length());
+        Bufferlo copy = compressed.duplicate();
+        assertEquals(delta, receiver.decompress(compressed).toString());
+
+        // a receiver without the dictionary can't decompress
+        try {
+            withoutDictionary.decompress(copy);
+            fail("decompressed without a dictionary");
+        } catch(IOException e) {
+            // expected
+        }
+
+        sender.end();
+        receiver.end();
+        withoutDictionary.end();
+    }
+
+    private static Bufferlo toBufferlo(String data) {
+        Bufferlo result = new Bufferlo();
+        result.write(data);
+        return result;
+    }
+
+    private static Bufferlo toBufferlo(byte[] data, int offset, int length) {
+        Bufferlo result = new Bufferlo();
+        result.append(ByteBuffer.wrap(data, offset, length));
+        return result;
+    }
+
+    private static byte[] toBytes(Bufferlo data) {
+        return data.consumeBytes(data.length());
+    }
+
+    private static String repeat(String data, int count) {
+        StringBuffer result = new StringBuffer();
+        for(int i = 0; i < count; i++) result.append(data);
+        return result.toString();
+    }
+}
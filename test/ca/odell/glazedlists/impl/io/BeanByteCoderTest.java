@@ -0,0 +1,90 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.GlazedListsIO;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the BeanByteCoder.
+ */
+public class BeanByteCoderTest {
+
+    private static final String[] PROPERTIES = { "name", "age", "salary", "born", "active", "nickname" };
+
+    /**
+     * Tests that each supported type survives encoding.
+     */
+    @Test
+    public void testCoding() throws IOException {
+        Employee bean = new Employee();
+        bean.setName("Jesse Wilson");
+        bean.setAge(27);
+        bean.setSalary(new BigDecimal("1234.56"));
+        bean.setBorn(new Date(123456789L));
+        bean.setActive(true);
+
+        ByteCoder beanByteCoder = GlazedListsIO.beanByteCoder(Employee.class, PROPERTIES);
+        Bufferlo data = new Bufferlo();
+        beanByteCoder.encode(bean, data.getOutputStream());
+        Employee beanCopy = (Employee)beanByteCoder.decode(data.getInputStream());
+
+        assertEquals(bean.getName(), beanCopy.getName());
+        assertEquals(bean.getAge(), beanCopy.getAge());
+        assertEquals(bean.getSalary(), beanCopy.getSalary());
+        assertEquals(bean.getBorn(), beanCopy.getBorn());
+        assertEquals(bean.isActive(), beanCopy.isActive());
+        assertNull(beanCopy.getNickname());
+        assertEquals(0, data.length());
+    }
+
+    /**
+     * Tests that the encoding is much smaller than the serialized bean.
+     */
+    @Test
+    public void testSize() throws IOException {
+        Employee bean = new Employee();
+        bean.setName("Jesse");
+        bean.setAge(27);
+
+        Bufferlo beanBytes = new Bufferlo();
+        GlazedListsIO.beanByteCoder(Employee.class, PROPERTIES).encode(bean, beanBytes.getOutputStream());
+        Bufferlo serializedBytes = new Bufferlo();
+        GlazedListsIO.serializableByteCoder().encode(bean, serializedBytes.getOutputStream());
+        assertTrue(beanBytes.length() * 10 < serializedBytes.length());
+    }
+
+    /**
+     * A simple bean with properties of several types.
+     */
+    public static class Employee implements Serializable {
+        private String name;
+        private int age;
+        private BigDecimal salary;
+        private Date born;
+        private boolean active;
+        private String nickname;
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public int getAge() { return age; }
+        public void setAge(int age) { this.age = age; }
+        public BigDecimal getSalary() { return salary; }
+        public void setSalary(BigDecimal salary) { this.salary = salary; }
+        public Date getBorn() { return born; }
+        public void setBorn(Date born) { this.born = born; }
+        public boolean isActive() { return active; }
+        public void setActive(boolean active) { this.active = active; }
+        public String getNickname() { return nickname; }
+        public void setNickname(String nickname) { this.nickname = nickname; }
+    }
+}
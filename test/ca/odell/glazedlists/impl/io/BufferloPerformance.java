@@ -0,0 +1,75 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.BasicEventList;
+import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.GlazedListsIO;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures streaming through a {@link Bufferlo}, and {@link ListEventToBytes}
+ * encoding and decoding of many small events and of one large snapshot.
+ */
+public class BufferloPerformance {
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws IOException {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        ByteCoder byteCoder = GlazedListsIO.serializableByteCoder();
+
+        // stream 16MB through in 1k writes and reads
+        byte[] chunk = new byte[1024];
+        long streamTime = 0;
+        for(int r = 0; r < repetitions; r++) {
+            long start = System.currentTimeMillis();
+            Bufferlo bufferlo = new Bufferlo();
+            OutputStream out = bufferlo.getOutputStream();
+            InputStream in = bufferlo.getInputStream();
+            for(int i = 0; i < 16 * 1024; i++) out.write(chunk);
+            for(int i = 0; i < 16 * 1024; i++) new DataInputStream(in).readFully(chunk);
+            streamTime += System.currentTimeMillis() - start;
+        }
+        System.out.println("stream 16MB: " + (streamTime / repetitions) + "ms");
+
+        // many small events, and one large snapshot
+        List<String> large = new ArrayList<String>();
+        for(int i = 0; i < size; i++) large.add("Element " + i);
+        for(int format = ListEventToBytes.LEGACY_FORMAT; format <= ListEventToBytes.COMPACT_FORMAT; format++) {
+            String formatName = (format == ListEventToBytes.LEGACY_FORMAT) ? "legacy" : "compact";
+
+            long smallTime = 0;
+            for(int r = 0; r < repetitions; r++) {
+                BasicEventList<String> target = new BasicEventList<String>();
+                long start = System.currentTimeMillis();
+                for(int e = 0; e < events; e++) {
+                    Bufferlo bytes = ListEventToBytes.toBytes(Collections.singletonList("Element " + e), byteCoder, format);
+                    ListEventToBytes.toListEvent(bytes, target, byteCoder);
+                }
+                smallTime += System.currentTimeMillis() - start;
+            }
+            System.out.println(events + " small events (" + formatName + "): " + (smallTime / repetitions) + "ms");
+
+            long largeTime = 0;
+            for(int r = 0; r < repetitions; r++) {
+                long start = System.currentTimeMillis();
+                Bufferlo bytes = ListEventToBytes.toBytes(large, byteCoder, format);
+                ListEventToBytes.toListEvent(bytes, new BasicEventList<String>(), byteCoder);
+                largeTime += System.currentTimeMillis() - start;
+            }
+            System.out.println(size + " element snapshot (" + formatName + "): " + (largeTime / repetitions) + "ms");
+        }
+    }
+}
@@ -273,6 +273,46 @@ public class BufferloTest {
         }
     }
 
+    /**
+     * Tests that bulk writes and reads work across buffer boundaries.
+     */
+    @Test
+    public void testBulkStreams() throws IOException {
+        byte[] data = new byte[50000];
+        for(int i = 0; i < data.length; i++) data[i] = (byte)(i * 31);
+
+        Bufferlo bufferlo = new Bufferlo();
+        OutputStream out = bufferlo.getOutputStream();
+        out.write(data, 0, 7);
+        out.write(data, 7, data.length - 7);
+        assertEquals(data.length, bufferlo.length());
+
+        InputStream in = bufferlo.getInputStream();
+        assertEquals(data.length, in.available());
+        byte[] read = new byte[data.length + 10];
+        assertEquals(3, in.read(read, 0, 3));
+        assertEquals(data.length - 3, in.read(read, 3, read.length - 3));
+        for(int i = 0; i < data.length; i++) assertEquals(data[i], read[i]);
+        assertEquals(-1, in.read(read, 0, 1));
+        assertEquals(0, in.read(read, 0, 0));
+    }
+
+    /**
+     * Tests that consuming a prefix leaves the rest intact, even when the
+     * Bufferlo is made of many small buffers.
+     */
+    @Test
+    public void testConsumeFromManyBuffers() {
+        Bufferlo bufferlo = new Bufferlo();
+        for(int i = 0; i < 100; i++) bufferlo.write(i + ",");
+        Bufferlo consumed = bufferlo.consume(6);
+        assertEquals("0,1,2,", consumed.toString());
+        consumed = bufferlo.consume(5);
+        assertEquals("3,4,5", consumed.toString());
+        assertTrue(bufferlo.toString().startsWith(",6,7,"));
+        assertTrue(bufferlo.toString().endsWith(",98,99,"));
+    }
+
     /**
      * Gets a Bufferlo with the specified contents.
      */
@@ -0,0 +1,61 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.BasicEventList;
+import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.GlazedListsIO;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compares the size and the encode and decode speed of snapshots of a list of
+ * beans using each of the available {@link ByteCoder}s.
+ */
+public class ByteCoderPerformance {
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<BeanByteCoderTest.Employee> employees = new ArrayList<BeanByteCoderTest.Employee>();
+        for(int i = 0; i < size; i++) {
+            BeanByteCoderTest.Employee employee = new BeanByteCoderTest.Employee();
+            employee.setName("Employee " + i);
+            employee.setAge(20 + i % 40);
+            employee.setBorn(new Date(i * 86400000L));
+            employee.setActive(i % 2 == 0);
+            employees.add(employee);
+        }
+
+        String[] names = { "serializable", "serializable batch", "bean" };
+        ByteCoder[] byteCoders = {
+            GlazedListsIO.serializableByteCoder(),
+            GlazedListsIO.serializableBatchByteCoder(),
+            GlazedListsIO.beanByteCoder(BeanByteCoderTest.Employee.class, new String[] { "name", "age", "born", "active" }),
+        };
+
+        for(int c = 0; c < byteCoders.length; c++) {
+            long encodeTime = 0;
+            long decodeTime = 0;
+            int length = 0;
+            for(int r = 0; r < repetitions; r++) {
+                long encodeStart = System.currentTimeMillis();
+                Bufferlo bytes = ListEventToBytes.toBytes(employees, byteCoders[c]);
+                encodeTime += System.currentTimeMillis() - encodeStart;
+                length = bytes.length();
+                long decodeStart = System.currentTimeMillis();
+                ListEventToBytes.toListEvent(bytes, new BasicEventList<BeanByteCoderTest.Employee>(), byteCoders[c]);
+                decodeTime += System.currentTimeMillis() - decodeStart;
+            }
+            System.out.println(names[c] + ": " + length + " bytes, encode " + (encodeTime / repetitions) + "ms, decode " + (decodeTime / repetitions) + "ms");
+        }
+    }
+}
@@ -5,10 +5,21 @@ package ca.odell.glazedlists.impl.io;
 
 import ca.odell.glazedlists.BasicEventList;
 import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.FilterList;
+import ca.odell.glazedlists.GlazedLists;
+import ca.odell.glazedlists.SortedList;
+import ca.odell.glazedlists.TransactionList;
+import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.event.ListEventListener;
 import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.io.GlazedListsIO;
+import ca.odell.glazedlists.matchers.Matcher;
+import ca.odell.glazedlists.matchers.Matchers;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import org.junit.Test;
@@ -73,4 +84,215 @@ public class ListEventCoderTest {
         ListEventToBytes.toListEvent(entireListEncoding, toDecode, intCoder);
         assertEquals(toEncode, toDecode);
     }
+
+    /**
+     * Tests that large contiguous changes are encoded as runs, and that both
+     * formats decode to the same result.
+     */
+    @Test
+    public void testRuns() throws IOException {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        for(int i = 0; i < 1000; i++) source.add(new Integer(i));
+        FilterList<Integer> filtered = new FilterList<Integer>(source);
+        EventList<Integer> compactCopy = GlazedLists.eventList(filtered);
+        EventList<Integer> legacyCopy = GlazedLists.eventList(filtered);
+        FormatsListener formats = new FormatsListener();
+        filtered.addListEventListener(formats);
+
+        // remove a contiguous block, then bring it back
+        filtered.setMatcher(new Matcher<Integer>() {
+            @Override
+            public boolean matches(Integer value) {
+                return value.intValue() < 100 || value.intValue() >= 900;
+            }
+        });
+        filtered.setMatcher(Matchers.<Integer>trueMatcher());
+
+        for(int e = 0; e < formats.compact.size(); e++) {
+            Bufferlo compact = (Bufferlo)formats.compact.get(e);
+            Bufferlo legacy = (Bufferlo)formats.legacy.get(e);
+            assertTrue(compact.length() * 2 < legacy.length());
+            ListEventToBytes.toListEvent(compact, compactCopy, intCoder);
+            ListEventToBytes.toListEvent(legacy, legacyCopy, intCoder);
+            assertEquals(legacyCopy, compactCopy);
+        }
+        assertEquals(filtered, compactCopy);
+
+        // the delete of 800 elements costs a handful of bytes
+        assertTrue(((Bufferlo)formats.compact.get(0)).length() < 10);
+    }
+
+    /**
+     * Tests that reorderings are encoded without their values.
+     */
+    @Test
+    public void testReorder() throws IOException {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        source.addAll(Arrays.asList(8, 6, 7, 5, 3, 0, 9));
+        SortedList<Integer> sorted = new SortedList<Integer>(source, null);
+        EventList<Integer> copy = GlazedLists.eventList(sorted);
+        FormatsListener formats = new FormatsListener();
+        sorted.addListEventListener(formats);
+
+        sorted.setComparator(GlazedLists.<Integer>comparableComparator());
+        Bufferlo compact = (Bufferlo)formats.compact.get(0);
+        assertTrue(compact.length() < 16);
+        ListEventToBytes.toListEvent(compact, copy, intCoder);
+        assertEquals(Arrays.asList(0, 3, 5, 6, 7, 8, 9), copy);
+    }
+
+    /**
+     * Tests that snapshots are recognized in both formats.
+     */
+    @Test
+    public void testSnapshotFormats() throws IOException {
+        List<Integer> entireList = Arrays.asList(8, 6, 7, 5, 3, 0, 9);
+        Bufferlo compact = ListEventToBytes.toBytes(entireList, intCoder);
+        Bufferlo legacy = ListEventToBytes.toBytes(entireList, intCoder, ListEventToBytes.LEGACY_FORMAT);
+        assertTrue(ListEventToBytes.isSnapshot(compact));
+        assertTrue(ListEventToBytes.isSnapshot(legacy));
+        assertTrue(compact.length() < legacy.length());
+
+        EventList<Integer> toDecode = new BasicEventList<Integer>();
+        toDecode.add(new Integer(1));
+        ListEventToBytes.toListEvent(legacy, toDecode, intCoder);
+        assertEquals(entireList, toDecode);
+        toDecode.add(new Integer(1));
+        ListEventToBytes.toListEvent(compact, toDecode, intCoder);
+        assertEquals(entireList, toDecode);
+    }
+
+    /**
+     * Tests that a {@link ca.odell.glazedlists.io.BatchByteCoder} encodes all
+     * values of a change together, and that snapshots are still recognized.
+     */
+    @Test
+    public void testBatchByteCoder() throws IOException {
+        ByteCoder perValue = GlazedListsIO.serializableByteCoder();
+        ByteCoder batch = GlazedListsIO.serializableBatchByteCoder();
+
+        List<Integer> entireList = new ArrayList<Integer>();
+        for(int i = 0; i < 100; i++) entireList.add(new Integer(i));
+        Bufferlo perValueSnapshot = ListEventToBytes.toBytes(entireList, perValue);
+        Bufferlo batchSnapshot = ListEventToBytes.toBytes(entireList, batch);
+        assertTrue(ListEventToBytes.isSnapshot(batchSnapshot));
+        assertTrue(batchSnapshot.length() * 4 < perValueSnapshot.length());
+
+        EventList<Integer> toDecode = new BasicEventList<Integer>();
+        toDecode.add(new Integer(1));
+        ListEventToBytes.toListEvent(batchSnapshot, toDecode, batch);
+        assertEquals(entireList, toDecode);
+
+        // inserts, updates and deletes in a single event
+        TransactionList<Integer> source = new TransactionList<Integer>(GlazedLists.eventList(entireList));
+        EventEncoderListener encoder = new EventEncoderListener(batch);
+        source.addListEventListener(encoder);
+        source.beginEvent();
+        source.set(3, new Integer(300));
+        source.remove(50);
+        source.addAll(10, Arrays.asList(-1, -2, -3));
+        source.commitEvent();
+        assertEquals(1, encoder.getEncodings().size());
+        ListEventToBytes.toListEvent((Bufferlo)encoder.getEncodings().get(0), toDecode, batch);
+        assertEquals(source, toDecode);
+    }
+
+    /**
+     * Tests that updates are encoded as deltas when the replaced value is known,
+     * and in full when it is not.
+     */
+    @Test
+    public void testDeltaUpdates() throws IOException {
+        ByteCoder beanCoder = GlazedListsIO.beanByteCoder(BeanByteCoderTest.Employee.class,
+                new String[] { "name", "age", "salary", "born", "active", "nickname" });
+        EventList<BeanByteCoderTest.Employee> source = new BasicEventList<BeanByteCoderTest.Employee>();
+        for(int i = 0; i < 10; i++) {
+            BeanByteCoderTest.Employee employee = new BeanByteCoderTest.Employee();
+            employee.setName("Employee number " + i);
+            employee.setNickname("Number " + i);
+            employee.setBorn(new Date(i * 86400000L));
+            employee.setAge(20 + i);
+            source.add(employee);
+        }
+        EventList<BeanByteCoderTest.Employee> copy = new BasicEventList<BeanByteCoderTest.Employee>();
+        ListEventToBytes.toListEvent(ListEventToBytes.toBytes(source, beanCoder), copy, beanCoder);
+        EventEncoderListener encoder = new EventEncoderListener(beanCoder);
+        source.addListEventListener(encoder);
+
+        // replace a bean with a copy that differs in one property
+        BeanByteCoderTest.Employee older = new BeanByteCoderTest.Employee();
+        older.setName(source.get(3).getName());
+        older.setNickname(source.get(3).getNickname());
+        older.setBorn(source.get(3).getBorn());
+        older.setAge(source.get(3).getAge() + 1);
+        source.set(3, older);
+        Bufferlo delta = (Bufferlo)encoder.getEncodings().remove(0);
+        Bufferlo full = new Bufferlo();
+        beanCoder.encode(older, full.getOutputStream());
+        assertTrue(delta.length() * 3 < full.length());
+        ListEventToBytes.toListEvent(delta, copy, beanCoder);
+        assertEquals(older.getAge(), copy.get(3).getAge());
+        assertEquals(older.getName(), copy.get(3).getName());
+        assertNotSame(copy.get(3), older);
+
+        // a bean that is modified in place has no base
+        source.get(5).setAge(99);
+        source.set(5, source.get(5));
+        Bufferlo fallback = (Bufferlo)encoder.getEncodings().remove(0);
+        assertTrue(fallback.length() > full.length());
+        ListEventToBytes.toListEvent(fallback, copy, beanCoder);
+        assertEquals(99, copy.get(5).getAge());
+        assertEquals(source.get(5).getNickname(), copy.get(5).getNickname());
+    }
+
+    /**
+     * Tests that captured events encode the same as the events themselves, even
+     * after the list has changed again.
+     */
+    @Test
+    public void testCapturedEvents() throws IOException {
+        EventList<Integer> source = new BasicEventList<Integer>();
+        EventEncoderListener encoder = new EventEncoderListener(intCoder);
+        source.addListEventListener(encoder);
+        final List captured = new ArrayList();
+        source.addListEventListener(new ListEventListener<Integer>() {
+            @Override
+            public void listChanged(ListEvent<Integer> listChanges) {
+                captured.add(ListEventToBytes.capture(listChanges.copy(), intCoder));
+            }
+        });
+
+        source.addAll(Arrays.asList(6, 7, 5, 3, 0, 9));
+        source.set(2, new Integer(8));
+        source.removeAll(Arrays.asList(7, 3));
+        source.add(1, new Integer(4));
+        source.clear();
+
+        EventList<Integer> decoded = new BasicEventList<Integer>();
+        for(int e = 0; e < captured.size(); e++) {
+            Bufferlo expected = (Bufferlo)encoder.getEncodings().get(e);
+            Bufferlo actual = ListEventToBytes.toBytes((CapturedListEvent)captured.get(e), intCoder);
+            assertEquals(expected.toDebugString(), actual.toDebugString());
+            ListEventToBytes.toListEvent(actual, decoded, intCoder);
+            if(e == 3) assertEquals(Arrays.asList(6, 4, 8, 0, 9), decoded);
+        }
+        assertEquals(0, decoded.size());
+    }
+
+    /**
+     * Encodes each event in both formats.
+     */
+    private class FormatsListener implements ListEventListener<Integer> {
+        private final List compact = new ArrayList();
+        private final List legacy = new ArrayList();
+        @Override
+        public void listChanged(ListEvent<Integer> listChanges) {
+            try {
+                compact.add(ListEventToBytes.toBytes(listChanges.copy(), intCoder));
+                legacy.add(ListEventToBytes.toBytes(listChanges.copy(), intCoder, ListEventToBytes.LEGACY_FORMAT));
+            } catch(IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+    }
 }
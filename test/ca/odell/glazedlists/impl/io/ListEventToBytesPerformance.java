@@ -0,0 +1,121 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.io;
+
+import ca.odell.glazedlists.BasicEventList;
+import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.FilterList;
+import ca.odell.glazedlists.GlazedLists;
+import ca.odell.glazedlists.SortedList;
+import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.event.ListEventListener;
+import ca.odell.glazedlists.io.ByteCoder;
+import ca.odell.glazedlists.matchers.Matcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the size and the encode and decode speed of the legacy and compact
+ * formats of {@link ListEventToBytes} for large events.
+ */
+public class ListEventToBytesPerformance {
+
+    /** encodes java.lang.Integer */
+    private static final ByteCoder intCoder = new IntegerCoder();
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+        EventList<Integer> source = new BasicEventList<Integer>();
+        for(int i = 0; i < size; i++) source.add(new Integer(size - i));
+        FilterList<Integer> filtered = new FilterList<Integer>(source);
+        SortedList<Integer> sorted = new SortedList<Integer>(filtered, null);
+        EventEncoder encoder = new EventEncoder(sorted);
+        sorted.addListEventListener(encoder);
+
+        // a large contiguous delete, a large insert and a reorder
+        final int keep = size / 10;
+        filtered.setMatcher(new Matcher<Integer>() {
+            @Override
+            public boolean matches(Integer value) {
+                return value.intValue() <= keep;
+            }
+        });
+        filtered.setMatcher(null);
+        sorted.setComparator(GlazedLists.<Integer>comparableComparator());
+
+        String[] names = { "delete", "insert", "reorder" };
+        for(int e = 0; e < names.length; e++) {
+            for(int format = ListEventToBytes.LEGACY_FORMAT; format <= ListEventToBytes.COMPACT_FORMAT; format++) {
+                Encoding encoding = (Encoding)encoder.encodings.get(2 * e + format - 1);
+                EventList<Integer> target = new BasicEventList<Integer>();
+                target.addAll(encoding.before);
+                int length = encoding.bytes.length();
+                long decodeStart = System.currentTimeMillis();
+                ListEventToBytes.toListEvent(encoding.bytes, target, intCoder);
+                long decodeTime = System.currentTimeMillis() - decodeStart;
+                print(names[e], format, length, encoding.encodeTime, decodeTime);
+            }
+        }
+
+        // snapshots
+        List<Integer> snapshot = new ArrayList<Integer>(source);
+        for(int format = ListEventToBytes.LEGACY_FORMAT; format <= ListEventToBytes.COMPACT_FORMAT; format++) {
+            long encodeStart = System.currentTimeMillis();
+            Bufferlo bytes = ListEventToBytes.toBytes(snapshot, intCoder, format);
+            long encodeTime = System.currentTimeMillis() - encodeStart;
+            int length = bytes.length();
+            long decodeStart = System.currentTimeMillis();
+            ListEventToBytes.toListEvent(bytes, new BasicEventList<Integer>(), intCoder);
+            long decodeTime = System.currentTimeMillis() - decodeStart;
+            print("snapshot", format, length, encodeTime, decodeTime);
+        }
+    }
+
+    private static void print(String name, int format, int length, long encodeTime, long decodeTime) {
+        String formatName = (format == ListEventToBytes.LEGACY_FORMAT) ? "legacy" : "compact";
+        System.out.println(name + " (" + formatName + "): " + length + " bytes, encode " + encodeTime + "ms, decode " + decodeTime + "ms");
+    }
+
+    /**
+     * An event encoded in one format, and the list before that event.
+     */
+    private static class Encoding {
+        private Bufferlo bytes;
+        private long encodeTime;
+        private List before;
+    }
+
+    /**
+     * Encodes each event in both formats as it arrives.
+     */
+    private static class EventEncoder implements ListEventListener<Integer> {
+        private final List encodings = new ArrayList();
+        private List current;
+        EventEncoder(List initial) {
+            current = new ArrayList(initial);
+        }
+        @Override
+        public void listChanged(ListEvent<Integer> listChanges) {
+            try {
+                for(int format = ListEventToBytes.LEGACY_FORMAT; format <= ListEventToBytes.COMPACT_FORMAT; format++) {
+                    Encoding encoding = new Encoding();
+                    long encodeStart = System.currentTimeMillis();
+                    encoding.bytes = ListEventToBytes.toBytes(listChanges.copy(), intCoder, format);
+                    encoding.encodeTime = System.currentTimeMillis() - encodeStart;
+                    encoding.before = current;
+                    encodings.add(encoding);
+                }
+            } catch(IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+            current = new ArrayList(listChanges.getSourceList());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.nio;
+
+/**
+ * Measures how many tasks per second a {@link NIODaemon} accepts and runs
+ * when they are queued by a growing number of threads.
+ */
+public class NIODaemonPerformance {
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws Exception {
+        int totalTasks = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int[] producerCounts = { 1, 2, 4, 8 };
+
+        final NIODaemon nioDaemon = new NIODaemon();
+        nioDaemon.start();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        };
+
+        for(int c = 0; c < producerCounts.length; c++) {
+            final int tasksPerProducer = totalTasks / producerCounts[c];
+            Thread[] producers = new Thread[producerCounts[c]];
+            for(int p = 0; p < producers.length; p++) {
+                producers[p] = new Thread() {
+                    @Override
+                    public void run() {
+                        for(int t = 0; t < tasksPerProducer; t++) nioDaemon.invokeLater(task);
+                    }
+                };
+            }
+
+            long start = System.currentTimeMillis();
+            for(int p = 0; p < producers.length; p++) producers[p].start();
+            for(int p = 0; p < producers.length; p++) producers[p].join();
+            nioDaemon.invokeAndWait(task);
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.out.println(producers.length + " producers: " + ((long)tasksPerProducer * producers.length * 1000L / elapsed) + " tasks/s");
+        }
+
+        nioDaemon.stop();
+    }
+}
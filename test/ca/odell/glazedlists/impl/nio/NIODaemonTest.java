@@ -0,0 +1,118 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.nio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that the {@link NIODaemon} runs queued tasks on its thread.
+ */
+public class NIODaemonTest {
+
+    private NIODaemon nioDaemon;
+
+    @Before
+    public void setUp() throws IOException {
+        nioDaemon = new NIODaemon();
+        nioDaemon.start();
+    }
+
+    @After
+    public void tearDown() {
+        nioDaemon.stop();
+    }
+
+    /**
+     * Verifies that tasks from many threads all run on the network thread, in
+     * the order each thread queued them.
+     */
+    @Test
+    public void testManyProducers() throws InterruptedException {
+        final int producerCount = 8;
+        final int tasksPerProducer = 5000;
+        final List[] ran = new List[producerCount];
+        final boolean[] onNetworkThread = { true };
+
+        Thread[] producers = new Thread[producerCount];
+        for(int p = 0; p < producerCount; p++) {
+            final List producerRan = ran[p] = new ArrayList();
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    for(int t = 0; t < tasksPerProducer; t++) {
+                        final Integer task = new Integer(t);
+                        nioDaemon.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                if(!nioDaemon.isNetworkThread()) onNetworkThread[0] = false;
+                                producerRan.add(task);
+                            }
+                        });
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        for(int p = 0; p < producerCount; p++) producers[p].join();
+
+        // tasks queued earlier run before this one
+        nioDaemon.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                // nothing to do
+            }
+        });
+
+        assertTrue(onNetworkThread[0]);
+        for(int p = 0; p < producerCount; p++) {
+            assertEquals(tasksPerProducer, ran[p].size());
+            for(int t = 0; t < tasksPerProducer; t++) {
+                assertEquals(new Integer(t), ran[p].get(t));
+            }
+        }
+    }
+
+    /**
+     * Verifies that invokeAndWait propagates failures, and runs immediately
+     * when called from the network thread.
+     */
+    @Test
+    public void testInvokeAndWait() {
+        try {
+            nioDaemon.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("expected");
+                }
+            });
+            fail("failed to propagate an exception");
+        } catch(IllegalStateException e) {
+            assertEquals("expected", e.getMessage());
+        }
+
+        final List ran = new ArrayList();
+        nioDaemon.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                nioDaemon.invokeAndWait(new Runnable() {
+                    @Override
+                    public void run() {
+                        ran.add("inner");
+                    }
+                });
+                ran.add("outer");
+            }
+        });
+        assertEquals(2, ran.size());
+        assertEquals("inner", ran.get(0));
+    }
+}
@@ -0,0 +1,76 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+import ca.odell.glazedlists.io.Durability;
+import ca.odell.glazedlists.io.GlazedListsIO;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compares the throughput and latency of a {@link PersistentMap} under each
+ * {@link Durability} policy.
+ *
+ * <p>Throughput is the rate at which a stream of small writes becomes durable,
+ * measured from the first put until a final flush returns. Latency is the time
+ * for a single put followed by a flush.
+ */
+public class PersistentMapPerformance {
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws IOException {
+        int writes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Durability[] policies = new Durability[] {
+            Durability.syncEveryWrite(),
+            Durability.groupCommit(10, 64 * 1024),
+            Durability.osBuffered(),
+        };
+
+        for(int p = 0; p < policies.length; p++) {
+            File file = File.createTempFile("performance", "j81");
+            file.deleteOnExit();
+            PersistentMap map = new PersistentMap(file, GlazedListsIO.serializableByteCoder(), policies[p]);
+
+            // throughput
+            long start = System.currentTimeMillis();
+            for(int i = 0; i < writes; i++) {
+                map.put(new Integer(i), value(i));
+            }
+            map.flush();
+            long throughputTime = Math.max(1, System.currentTimeMillis() - start);
+
+            // latency
+            long latencyTime = 0;
+            for(int i = 0; i < samples; i++) {
+                long sampleStart = System.nanoTime();
+                map.put(new Integer(i), value(i));
+                map.flush();
+                latencyTime += System.nanoTime() - sampleStart;
+            }
+            map.close();
+
+            System.out.println(policies[p] + ": "
+                + (writes * 1000L / throughputTime) + " writes/s, "
+                + (latencyTime / samples / 1000) + " us per flushed write");
+        }
+
+        // the persistence threads outlive their maps
+        System.exit(0);
+    }
+
+    /**
+     * Creates a small chunk, like a typical FileList update.
+     */
+    private static Chunk value(int i) {
+        Bufferlo data = new Bufferlo();
+        data.write("update #" + i + " for a list of several hundred bytes, padded ............................................");
+        return new Chunk(data);
+    }
+}
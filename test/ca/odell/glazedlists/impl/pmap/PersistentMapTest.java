@@ -5,11 +5,13 @@ package ca.odell.glazedlists.impl.pmap;
 
 // for being a JUnit test case
 import ca.odell.glazedlists.impl.io.Bufferlo;
+import ca.odell.glazedlists.io.Durability;
 import ca.odell.glazedlists.io.GlazedListsIO;
 
 import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 import org.junit.Test;
 
@@ -206,6 +208,143 @@ public class PersistentMapTest {
         writer.close();
     }
 
+    /**
+     * Writes, replaces and removes entries under each durability policy and
+     * verifies that the file holds them once flushed.
+     */
+    @Test
+    public void testDurability() throws IOException {
+        Durability[] policies = new Durability[] {
+            Durability.syncEveryWrite(),
+            Durability.groupCommit(20, 1024),
+            Durability.osBuffered(),
+        };
+
+        for(int p = 0; p < policies.length; p++) {
+            File mapFile = File.createTempFile("durability", "j81");
+            mapFile.deleteOnExit();
+            PersistentMap writer = new PersistentMap(mapFile, GlazedListsIO.serializableByteCoder(), policies[p]);
+            assertSame(policies[p], writer.getDurability());
+
+            for(int i = 0; i < 100; i++) {
+                writer.put(new Integer(i % 10), chunkify(new Integer(i)));
+            }
+            writer.remove(new Integer(3));
+            writer.flush();
+
+            PersistentMap reader = new PersistentMap(mapFile);
+            assertEquals(policies[p].toString(), 9, reader.size());
+            assertNull(reader.get(new Integer(3)));
+            assertEquals(new Integer(97), deChunkify((Chunk)reader.get(new Integer(7))));
+            reader.close();
+
+            // closing is a barrier too
+            writer.put(new Integer(3), chunkify(new Integer(-3)));
+            writer.close();
+            reader = new PersistentMap(mapFile);
+            assertEquals(new Integer(-3), deChunkify((Chunk)reader.get(new Integer(3))));
+            reader.close();
+        }
+
+        try {
+            Durability.groupCommit(0, 1024);
+            fail("failed to receive an IllegalArgumentException for a maxDelay of 0");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Verifies that a compaction interrupted between deleting the original
+     * file and renaming the compact copy is recovered on open.
+     */
+    @Test
+    public void testInterruptedCompaction() throws IOException {
+        File mapFile = File.createTempFile("compact", "j81");
+        mapFile.deleteOnExit();
+        File compactFile = new File(mapFile.getPath() + ".compact");
+        compactFile.deleteOnExit();
+
+        PersistentMap writer = new PersistentMap(mapFile);
+        writer.put("red", chunkify(Color.red));
+        writer.put("blue", chunkify(Color.blue));
+        writer.close();
+
+        // only the complete copy remains
+        assertTrue(mapFile.renameTo(compactFile));
+        PersistentMap reader = new PersistentMap(mapFile);
+        assertEquals(Color.red, deChunkify((Chunk)reader.get("red")));
+        assertEquals(Color.blue, deChunkify((Chunk)reader.get("blue")));
+        reader.close();
+        assertFalse(compactFile.exists());
+
+        // a partial copy beside the original is discarded
+        assertTrue(compactFile.createNewFile());
+        reader = new PersistentMap(mapFile);
+        assertEquals(2, reader.size());
+        reader.close();
+        assertFalse(compactFile.exists());
+    }
+
+    /**
+     * Verifies that the writes a crash interrupted before they were forced are
+     * discarded on open: a chunk whose data doesn't match its checksum, a
+     * partially written chunk header at the end of the file, and an old value
+     * whose replacement was written but not yet turned off.
+     */
+    @Test
+    public void testTornWrites() throws IOException {
+        File mapFile = File.createTempFile("torn", "j81");
+        mapFile.deleteOnExit();
+
+        PersistentMap writer = new PersistentMap(mapFile);
+        writer.put("red", chunkify(Color.red));
+        writer.put("blue", chunkify(Color.blue));
+        writer.put("green", chunkify(Color.green));
+        writer.close();
+        long length = mapFile.length();
+
+        // corrupt the last value and follow it with half a chunk header
+        RandomAccessFile file = new RandomAccessFile(mapFile, "rw");
+        file.seek(length - 1);
+        int lastByte = file.read();
+        file.seek(length - 1);
+        file.write(lastByte ^ 0xFF);
+        file.write(new byte[] { 0, 0, 0, 2, 0, 0 });
+        file.close();
+
+        PersistentMap reader = new PersistentMap(mapFile);
+        assertEquals(2, reader.size());
+        assertEquals(Color.red, deChunkify((Chunk)reader.get("red")));
+        assertEquals(Color.blue, deChunkify((Chunk)reader.get("blue")));
+        assertNull(reader.get("green"));
+        reader.close();
+        assertEquals(length, mapFile.length());
+
+        // replace a value, then turn the replaced chunk back on
+        writer = new PersistentMap(mapFile);
+        writer.put("red", chunkify(Color.orange));
+        writer.close();
+        file = new RandomAccessFile(mapFile, "rw");
+        file.seek(8);
+        assertEquals(0, file.readInt());
+        file.seek(8);
+        file.writeInt(2);
+        file.close();
+
+        // the newer value wins, and the older one is turned off for good
+        for(int i = 0; i < 2; i++) {
+            reader = new PersistentMap(mapFile);
+            assertEquals(2, reader.size());
+            assertEquals(Color.orange, deChunkify((Chunk)reader.get("red")));
+            reader.close();
+        }
+        file = new RandomAccessFile(mapFile, "r");
+        file.seek(8);
+        assertEquals(0, file.readInt());
+        file.close();
+    }
+
     /**
      * Ignores a value callback.
      */
@@ -0,0 +1,115 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.pmap;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+import ca.odell.glazedlists.io.Durability;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * This test verifies that the SegmentLog works.
+ */
+public class SegmentLogTest {
+
+    /**
+     * Creates an empty temporary directory.
+     */
+    static File createTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "j81");
+        if(!directory.delete() || !directory.mkdir()) throw new IOException("Failed to create " + directory);
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static Bufferlo update(String value) {
+        Bufferlo bufferlo = new Bufferlo();
+        bufferlo.write(value);
+        return bufferlo;
+    }
+
+    private static File[] segments(File directory) {
+        File[] files = directory.listFiles();
+        for(int f = 0; f < files.length; f++) files[f].deleteOnExit();
+        return files;
+    }
+
+    /**
+     * Writes enough updates to span several segments and reads them back.
+     */
+    @Test
+    public void testRollover() throws IOException {
+        File directory = createTempDirectory("rollover");
+        SegmentLog log = new SegmentLog(directory, 256, Durability.osBuffered());
+        for(int i = 0; i < 50; i++) {
+            log.write(i, update("update #" + i));
+        }
+
+        // an update larger than a segment gets its own
+        StringBuffer large = new StringBuffer();
+        for(int i = 0; i < 100; i++) large.append("large ");
+        log.write(50, update(large.toString()));
+        log.close();
+        int segmentCount = segments(directory).length;
+        assertTrue(segmentCount > 3);
+
+        log = new SegmentLog(directory, 256, Durability.osBuffered());
+        SortedMap updates = log.readUpdates();
+        assertEquals(51, updates.size());
+        assertEquals("update #17", updates.get(new Integer(17)).toString());
+        assertEquals(large.toString(), updates.get(new Integer(50)).toString());
+
+        // discarding deletes whole segments only
+        log.discardBefore(30);
+        assertTrue(segments(directory).length < segmentCount);
+        updates = log.readUpdates();
+        assertTrue(updates.containsKey(new Integer(30)));
+        assertFalse(updates.containsKey(new Integer(0)));
+        log.close();
+    }
+
+    /**
+     * Corrupts the last record in a segment and verifies that recovery drops it,
+     * along with any later segments, but keeps everything before it.
+     */
+    @Test
+    public void testTornWrite() throws IOException {
+        File directory = createTempDirectory("torn");
+        SegmentLog log = new SegmentLog(directory, 4096, Durability.syncEveryWrite());
+        for(int i = 0; i < 10; i++) {
+            log.write(i, update("update #" + i));
+        }
+        log.close();
+
+        // flip a byte in the payload of the last record
+        File segment = segments(directory)[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        int recordSize = 12 + "update #9".length();
+        int lastRecord = 8 + 9 * recordSize;
+        file.seek(lastRecord + 14);
+        file.write('X');
+        file.close();
+
+        log = new SegmentLog(directory, 4096, Durability.syncEveryWrite());
+        SortedMap updates = log.readUpdates();
+        assertEquals(9, updates.size());
+        assertEquals("update #8", updates.get(new Integer(8)).toString());
+
+        // the torn tail is reused
+        log.write(9, update("update #9 again"));
+        log.close();
+        log = new SegmentLog(directory, 4096, Durability.syncEveryWrite());
+        updates = log.readUpdates();
+        assertEquals(10, updates.size());
+        assertEquals("update #9 again", updates.get(new Integer(9)).toString());
+        log.close();
+    }
+}
@@ -0,0 +1,92 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.rbp;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Measures how many updates per second can be framed and written to a growing
+ * number of subscribers of a single resource. The socket is replaced by a
+ * channel that copies everything written into a direct buffer, which is what
+ * the operating system does with socket writes.
+ */
+public class FanOutPerformance {
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws Exception {
+        int payloadSize = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int totalWrites = args.length > 1 ? Integer.parseInt(args[1]) : 300000;
+        int[] subscriberCounts = { 1, 10, 100, 300 };
+
+        byte[] payloadBytes = new byte[payloadSize];
+        for(int b = 0; b < payloadBytes.length; b++) payloadBytes[b] = (byte)b;
+        ResourceUri resourceUri = ResourceUri.local("/prices");
+        SinkChannel sink = new SinkChannel();
+
+        for(int c = 0; c < subscriberCounts.length; c++) {
+            int subscribers = subscriberCounts[c];
+            int updates = Math.max(1, totalWrites / subscribers);
+            Bufferlo[] writers = new Bufferlo[subscribers];
+            for(int s = 0; s < subscribers; s++) writers[s] = new Bufferlo();
+
+            long start = System.currentTimeMillis();
+            for(int u = 0; u < updates; u++) {
+                Bufferlo payload = new Bufferlo();
+                payload.append(ByteBuffer.wrap(payloadBytes));
+                PeerBlock block = PeerBlock.update(resourceUri, 1234, u, payload);
+
+                // as PeerResource and SendChunk do for each subscriber
+                for(int s = 0; s < subscribers; s++) {
+                    Bufferlo data = block.toBytes("localhost", 5100);
+                    writers[s].write(Integer.toString(data.length(), 16));
+                    writers[s].write("\r\n");
+                    writers[s].append(data);
+                    writers[s].write("\r\n");
+                    writers[s].writeToChannel(sink);
+                }
+            }
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.out.println(subscribers + " subscribers: " + (updates * 1000L / elapsed) + " updates/s, "
+                    + ((long)updates * subscribers * 1000L / elapsed) + " writes/s");
+        }
+    }
+
+    /**
+     * Copies everything written into a reusable direct buffer.
+     */
+    private static class SinkChannel implements GatheringByteChannel {
+        private final ByteBuffer sink = ByteBuffer.allocateDirect(1024 * 1024);
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            long written = 0;
+            for(int i = offset; i < offset + length; i++) {
+                written += write(sources[i]);
+            }
+            return written;
+        }
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+        @Override
+        public int write(ByteBuffer source) {
+            int written = source.remaining();
+            if(sink.remaining() < written) sink.clear();
+            sink.put(source);
+            return written;
+        }
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.impl.rbp;
+
+import ca.odell.glazedlists.impl.io.Bufferlo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Validates PeerBlock.
+ */
+public class PeerBlockTest {
+
+    /**
+     * Verifies that the encoded bytes are shared between connections without
+     * reading one connection's copy affecting another's.
+     */
+    @Test
+    public void testSharedEncoding() throws Exception {
+        Bufferlo payload = new Bufferlo();
+        payload.write("eight six seven five three oh nine");
+        PeerBlock block = PeerBlock.update(ResourceUri.local("/Numbers"), 42, 7, payload);
+
+        Bufferlo first = block.toBytes("localhost", 1000);
+        Bufferlo second = block.toBytes("localhost", 1000);
+        assertEquals(first.toString(), second.toString());
+
+        // consume the first entirely
+        PeerBlock decoded = PeerBlock.fromBytes(first, "localhost", 1000);
+        assertEquals(0, first.length());
+        assertTrue(decoded.isUpdate());
+        assertEquals(42, decoded.getSessionId());
+        assertEquals(7, decoded.getUpdateId());
+        assertEquals(ResourceUri.local("/Numbers"), decoded.getResourceUri());
+        assertEquals("eight six seven five three oh nine", decoded.getPayload().toString());
+
+        // the second is unaffected, and so is the payload
+        PeerBlock decodedAgain = PeerBlock.fromBytes(second, "localhost", 1000);
+        assertEquals("eight six seven five three oh nine", decodedAgain.getPayload().toString());
+        assertEquals("eight six seven five three oh nine", payload.toString());
+
+        // a different local address is encoded separately
+        Bufferlo remote = block.toBytes("example.com", 2000);
+        assertTrue(remote.toString().indexOf("example.com:2000") != -1);
+    }
+}
@@ -27,10 +27,23 @@ public class StringResource implements Resource {
     private List listeners = new ArrayList();
 
     /**
-     * Get a binary snapshot of this resource in its current state.
+     * Capture the current state of this resource.
      */
     @Override
-    public Bufferlo toSnapshot() {
+    public ResourceSnapshot captureSnapshot() {
+        final String snapshotValue = value;
+        return new ResourceSnapshot() {
+            @Override
+            public Bufferlo toBytes() {
+                return StringResource.toBytes(snapshotValue);
+            }
+        };
+    }
+
+    /**
+     * Get the specified value in binary form.
+     */
+    private static Bufferlo toBytes(String value) {
         Bufferlo result = new Bufferlo();
         result.write(value);
         return result;
@@ -96,7 +109,7 @@ public class StringResource implements Resource {
     private void notifyListeners() {
         for(int i = 0; i < listeners.size(); i++) {
             ResourceListener listener = (ResourceListener)listeners.get(i);
-            listener.resourceUpdated(this, toSnapshot());
+            listener.resourceUpdated(this, toBytes(value));
         }
     }
 }
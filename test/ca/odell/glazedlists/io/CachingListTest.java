@@ -5,10 +5,16 @@ package ca.odell.glazedlists.io;
 
 import ca.odell.glazedlists.BasicEventList;
 import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.FunctionList;
 import ca.odell.glazedlists.TransformedList;
 import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.event.ListEventListener;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -359,6 +365,243 @@ public class CachingListTest {
         }
     }
 
+    /**
+     * Validates that an updated value is fetched again rather than served
+     * from the cache.
+     */
+    @Test
+    public void testUpdateEvictsCachedValue() {
+        for(int i = 0;i < 5;i++) {
+            source.add(new Integer(i));
+            cache.get(i);
+        }
+        source.set(2, new Integer(20));
+        assertEquals(new Integer(20), cache.get(2));
+        assertEquals(6, cache.getCacheMisses());
+        assertEquals(5, cache.getCacheWeight());
+    }
+
+    /**
+     * Validates that a single pass over the whole list evicts the working set
+     * from an LRU cache, but not from a W-TinyLFU cache.
+     */
+    @Test
+    public void testScanResistance() {
+        for(int i = 0;i < 1000;i++) {
+            source.add(new Integer(i));
+        }
+        CachingList lru = new CachingList(source, 100, CachingList.LEAST_RECENTLY_USED, null);
+        CachingList tinyLfu = new CachingList(source, 100, CachingList.WINDOW_TINY_LFU, null);
+        CachingList[] caches = { lru, tinyLfu };
+
+        for(int c = 0;c < caches.length;c++) {
+            // warm up on a working set
+            for(int round = 0;round < 5;round++) {
+                for(int i = 0;i < 50;i++) caches[c].get(i);
+            }
+
+            // scroll through the whole list
+            for(int i = 0;i < source.size();i++) caches[c].get(i);
+            assertEquals(100, caches[c].getCacheWeight());
+            assertTrue(caches[c].getEvictions() > 800);
+        }
+
+        // revisit the working set
+        int lruHits = lru.getCacheHits();
+        int tinyLfuHits = tinyLfu.getCacheHits();
+        for(int i = 0;i < 50;i++) {
+            lru.get(i);
+            tinyLfu.get(i);
+        }
+        assertEquals(0, lru.getCacheHits() - lruHits);
+        assertTrue(tinyLfu.getCacheHits() - tinyLfuHits >= 45);
+
+        lru.dispose();
+        tinyLfu.dispose();
+    }
+
+    /**
+     * Validates that weighed elements are evicted when their total weight
+     * exceeds the maximum.
+     */
+    @Test
+    public void testWeighedElements() {
+        for(int i = 0;i < 10;i++) {
+            source.add(new Integer(i));
+        }
+        CachingList weighed = new CachingList(source, 10, CachingList.LEAST_RECENTLY_USED, new FunctionList.Function() {
+            @Override
+            public Object evaluate(Object sourceValue) {
+                return sourceValue;
+            }
+        });
+
+        weighed.get(1);
+        weighed.get(2);
+        weighed.get(3);
+        weighed.get(4);
+        assertEquals(10, weighed.getCacheWeight());
+        assertEquals(0, weighed.getEvictions());
+
+        // making room for 5 evicts 1, 2 and 3
+        weighed.get(5);
+        assertEquals(9, weighed.getCacheWeight());
+        assertEquals(3, weighed.getEvictions());
+        weighed.get(4);
+        assertEquals(1, weighed.getCacheHits());
+
+        // an element heavier than the whole cache isn't kept
+        source.add(new Integer(11));
+        assertEquals(new Integer(11), weighed.get(10));
+        assertEquals(9, weighed.getCacheWeight());
+        weighed.dispose();
+    }
+
+    /**
+     * Validates that elements are fetched in batches ahead of sequential requests.
+     */
+    @Test
+    public void testReadAhead() throws InterruptedException {
+        for(int i = 0;i < 100;i++) {
+            source.add(new Integer(i));
+        }
+        RecordingRangeSource rangeSource = new RecordingRangeSource(source);
+        CachingList readAhead = new CachingList(source, 50, CachingList.LEAST_RECENTLY_USED, null);
+        readAhead.setReadAhead(rangeSource, 10, "loading");
+        EventCounter events = new EventCounter();
+        readAhead.addListEventListener(events);
+
+        // the first request waits for its batch
+        assertEquals("loading", readAhead.get(0));
+        events.await(1);
+        assertEquals(new Integer(0), readAhead.get(0));
+        assertEquals("[0, 10)", rangeSource.getRanges());
+
+        // scrolling forward fetches the next batch
+        for(int i = 1;i <= 5;i++) {
+            assertEquals(new Integer(i), readAhead.get(i));
+        }
+        events.await(1);
+        assertEquals("[0, 10)[10, 20)", rangeSource.getRanges());
+        for(int i = 6;i < 20;i++) {
+            assertEquals(new Integer(i), readAhead.get(i));
+        }
+        events.await(1);
+        assertEquals("[0, 10)[10, 20)[20, 30)", rangeSource.getRanges());
+
+        // scrolling backward fetches the previous batch
+        assertEquals("loading", readAhead.get(40));
+        events.await(1);
+        assertEquals("loading", readAhead.get(39));
+        events.await(1);
+        for(int i = 38;i >= 30;i--) {
+            assertEquals(new Integer(i), readAhead.get(i));
+        }
+
+        // batches that are already cached aren't fetched again
+        assertEquals("[0, 10)[10, 20)[20, 30)[40, 50)[30, 40)", rangeSource.getRanges());
+        assertEquals(0, events.count());
+        readAhead.dispose();
+    }
+
+    /**
+     * Validates that a batch is discarded if the source changes while it is
+     * being fetched.
+     */
+    @Test
+    public void testReadAheadDiscardedOnChange() throws InterruptedException {
+        for(int i = 0;i < 100;i++) {
+            source.add(new Integer(i));
+        }
+        RecordingRangeSource rangeSource = new RecordingRangeSource(source);
+        rangeSource.gate = new Semaphore(0);
+        CachingList readAhead = new CachingList(source, 50, CachingList.LEAST_RECENTLY_USED, null);
+        readAhead.setReadAhead(rangeSource, 10, "loading");
+        EventCounter events = new EventCounter();
+        readAhead.addListEventListener(events);
+
+        assertEquals("loading", readAhead.get(0));
+        source.add(0, new Integer(-1));
+        events.await(1);
+        rangeSource.gate.release();
+
+        // the stale batch is refetched
+        assertEquals("loading", readAhead.get(0));
+        rangeSource.gate.release();
+        events.await(1);
+        assertEquals(new Integer(-1), readAhead.get(0));
+        assertEquals(new Integer(8), readAhead.get(9));
+        assertEquals(10, readAhead.getCacheWeight());
+        readAhead.dispose();
+    }
+
+    /**
+     * Validates that an element fetched in a batch but too heavy to cache is
+     * then gotten directly, rather than fetched again and again.
+     */
+    @Test
+    public void testReadAheadUncacheable() throws InterruptedException {
+        for(int i = 0;i < 100;i++) {
+            source.add(new Integer(i));
+        }
+        RecordingRangeSource rangeSource = new RecordingRangeSource(source);
+        CachingList readAhead = new CachingList(source, 50, CachingList.LEAST_RECENTLY_USED, new FunctionList.Function() {
+            @Override
+            public Object evaluate(Object value) {
+                return new Integer(value.equals(new Integer(5)) ? 100 : 1);
+            }
+        });
+        readAhead.setReadAhead(rangeSource, 10, "loading");
+        EventCounter events = new EventCounter();
+        readAhead.addListEventListener(events);
+
+        assertEquals("loading", readAhead.get(5));
+        events.await(1);
+        for(int i = 0;i < 3;i++) {
+            assertEquals(new Integer(5), readAhead.get(5));
+        }
+        assertEquals(new Integer(6), readAhead.get(6));
+        assertEquals("[5, 15)", rangeSource.getRanges());
+        assertEquals(0, events.count());
+        readAhead.dispose();
+    }
+
+    /**
+     * Validates that a batch with the wrong number of elements is dropped
+     * without leaving an event open.
+     */
+    @Test
+    public void testReadAheadShortRange() throws InterruptedException {
+        for(int i = 0;i < 100;i++) {
+            source.add(new Integer(i));
+        }
+        CachingList readAhead = new CachingList(source, 50);
+        readAhead.setReadAhead(new CachingList.RangeSource() {
+            @Override
+            public List getRange(int fromIndex, int toIndex) {
+                return new ArrayList(source.subList(fromIndex, toIndex - 1));
+            }
+        }, 10, "loading");
+        EventCounter events = new EventCounter();
+        readAhead.addListEventListener(events);
+
+        assertEquals("loading", readAhead.get(0));
+        Thread.sleep(200);
+        assertEquals(0, events.count());
+        assertEquals("loading", readAhead.get(0));
+
+        // let the second fetch fail before the source is replaced
+        Thread.sleep(200);
+        assertEquals(0, events.count());
+
+        // the list still works with a good source
+        readAhead.setReadAhead(new RecordingRangeSource(source), 10, "loading");
+        assertEquals("loading", readAhead.get(20));
+        events.await(1);
+        assertEquals(new Integer(20), readAhead.get(20));
+        readAhead.dispose();
+    }
+
 
 
     /**
@@ -659,3 +902,59 @@ class CacheTestHelper {
         return (float)cacheHits / (float)(cacheHits + cacheMisses);
     }
 }
+
+/**
+ * A RangeSource that records the ranges it is asked for.
+ */
+class RecordingRangeSource implements CachingList.RangeSource {
+    private final List source;
+    private final StringBuffer ranges = new StringBuffer();
+
+    /** if non-null, each range waits for a permit */
+    Semaphore gate = null;
+
+    RecordingRangeSource(List source) {
+        this.source = source;
+    }
+
+    @Override
+    public List getRange(int fromIndex, int toIndex) {
+        if(gate != null) gate.acquireUninterruptibly();
+        synchronized(ranges) {
+            ranges.append("[").append(fromIndex).append(", ").append(toIndex).append(")");
+        }
+        return new ArrayList(source.subList(fromIndex, toIndex));
+    }
+
+    String getRanges() {
+        synchronized(ranges) {
+            return ranges.toString();
+        }
+    }
+}
+
+/**
+ * Counts the events fired by a list, on any thread.
+ */
+class EventCounter implements ListEventListener {
+    private final Semaphore events = new Semaphore(0);
+
+    @Override
+    public void listChanged(ListEvent listChanges) {
+        events.release();
+    }
+
+    /**
+     * Gets the number of events since the last wait.
+     */
+    int count() {
+        return events.availablePermits();
+    }
+
+    /**
+     * Waits for the specified number of events since the last wait.
+     */
+    void await(int count) throws InterruptedException {
+        if(!events.tryAcquire(count, 5, TimeUnit.SECONDS)) throw new AssertionError("timed out waiting for events");
+    }
+}
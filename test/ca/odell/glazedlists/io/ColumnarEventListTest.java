@@ -0,0 +1,169 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import ca.odell.glazedlists.FilterList;
+import ca.odell.glazedlists.GlazedLists;
+import ca.odell.glazedlists.SortedList;
+import ca.odell.glazedlists.matchers.Matcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link ColumnarEventList} reads back the rows that were written,
+ * and that its overlay of changes works with sorted and filtered lists.
+ */
+public class ColumnarEventListTest {
+
+    private static final String[] SYMBOLS = { "ABC", "DEF", "GHI", null };
+
+    /** the columns of a trade */
+    private static final int ID = 0;
+    private static final int TIME = 1;
+    private static final int PRICE = 2;
+    private static final int SYMBOL = 3;
+
+    private ColumnarEventList trades;
+
+    /**
+     * Writes and opens a list of trades.
+     */
+    @Before
+    public void setUp() throws IOException {
+        File directory = File.createTempFile("trades", "j81");
+        assertTrue(directory.delete());
+        directory.deleteOnExit();
+
+        ColumnarEventList.Writer writer = new ColumnarEventList.Writer(directory,
+                new String[] { "id", "time", "price", "symbol" },
+                new int[] { ColumnarEventList.INT_COLUMN, ColumnarEventList.LONG_COLUMN, ColumnarEventList.DOUBLE_COLUMN, ColumnarEventList.STRING_COLUMN });
+        for(int i = 0; i < 1000; i++) {
+            writer.addRow(trade(i));
+        }
+        writer.close();
+
+        File[] files = directory.listFiles();
+        for(int f = 0; f < files.length; f++) files[f].deleteOnExit();
+        trades = new ColumnarEventList(directory);
+    }
+
+    private static Object[] trade(int id) {
+        return new Object[] { new Integer(id), new Long(1000000000000L + id), new Double(id / 4.0), SYMBOLS[Math.abs(id) % SYMBOLS.length] };
+    }
+
+    /**
+     * Verifies that the written rows are read back.
+     */
+    @Test
+    public void testRead() {
+        assertEquals(1000, trades.size());
+        assertEquals(4, trades.getColumnCount());
+        assertEquals("price", trades.getColumnName(PRICE));
+        assertEquals(SYMBOL, trades.getColumnIndex("symbol"));
+        assertEquals(ColumnarEventList.LONG_COLUMN, trades.getColumnType(TIME));
+
+        ColumnarEventList.Row row = trades.get(7);
+        assertEquals(7, row.getInt(ID));
+        assertEquals(1000000000007L, row.getLong(TIME));
+        assertEquals(1.75, row.getDouble(PRICE), 0.0);
+        assertNull(row.getString(SYMBOL));
+        assertEquals("DEF", trades.get(5).getString(SYMBOL));
+        assertEquals("[5, 1000000000005, 1.25, DEF]", trades.get(5).toString());
+
+        // rows are equal by value
+        assertEquals(trades.createRow(trade(7)), row);
+        assertEquals(row, trades.createRow(trade(7)));
+        assertEquals(row.hashCode(), trades.createRow(trade(7)).hashCode());
+        assertEquals(7, trades.indexOf(trades.createRow(trade(7))));
+
+        try {
+            row.getString(ID);
+            fail("read an int column as a String");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Verifies that changes are held in the overlay.
+     */
+    @Test
+    public void testOverlay() {
+        // rows are views, so compare a copy by value rather than by identity
+        List<ColumnarEventList.Row> copy = new ArrayList<ColumnarEventList.Row>(trades);
+        GlazedLists.syncEventListToList(trades, copy);
+
+        trades.add(0, trades.createRow(trade(-1)));
+        trades.remove(501);
+        trades.set(10, trades.createRow(trade(2000)));
+        trades.set(0, trades.createRow(trade(-2)));
+        trades.add(trades.createRow(trade(1000)));
+        trades.remove(11);
+        assertEquals(copy, trades);
+
+        assertEquals(1000, trades.size());
+        assertEquals(-2, trades.get(0).getInt(ID));
+        assertEquals(0, trades.get(1).getInt(ID));
+        assertEquals(2000, trades.get(10).getInt(ID));
+        assertEquals(11, trades.get(11).getInt(ID));
+        assertEquals(499, trades.get(499).getInt(ID));
+        assertEquals(501, trades.get(500).getInt(ID));
+        assertEquals(1000, trades.get(999).getInt(ID));
+
+        try {
+            trades.createRow(new Object[] { "1", new Long(0), new Double(0), null });
+            fail("created a row with a String id");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+
+        // many changes scattered over the list and its overlay
+        Random dice = new Random(49);
+        for(int i = 0; i < 3000; i++) {
+            int operation = dice.nextInt(3);
+            if(operation == 0 || trades.isEmpty()) trades.add(dice.nextInt(trades.size() + 1), trades.createRow(trade(3000 + i)));
+            else if(operation == 1) trades.set(dice.nextInt(trades.size()), trades.createRow(trade(3000 + i)));
+            else trades.remove(dice.nextInt(trades.size()));
+        }
+        assertEquals(copy, trades);
+    }
+
+    /**
+     * Verifies that the rows can be sorted and filtered, including changes.
+     */
+    @Test
+    public void testSortedAndFiltered() {
+        SortedList<ColumnarEventList.Row> byPrice = new SortedList<ColumnarEventList.Row>(trades, new Comparator<ColumnarEventList.Row>() {
+            @Override
+            public int compare(ColumnarEventList.Row a, ColumnarEventList.Row b) {
+                return Double.compare(b.getDouble(PRICE), a.getDouble(PRICE));
+            }
+        });
+        FilterList<ColumnarEventList.Row> abc = new FilterList<ColumnarEventList.Row>(byPrice, new Matcher<ColumnarEventList.Row>() {
+            @Override
+            public boolean matches(ColumnarEventList.Row row) {
+                return "ABC".equals(row.getString(SYMBOL));
+            }
+        });
+        assertEquals(250, abc.size());
+        assertEquals(996, abc.get(0).getInt(ID));
+        assertEquals(0, abc.get(249).getInt(ID));
+
+        trades.add(trades.createRow(trade(4000)));
+        trades.remove(996);
+        assertEquals(250, abc.size());
+        assertEquals(4000, abc.get(0).getInt(ID));
+        assertEquals(992, abc.get(1).getInt(ID));
+    }
+}
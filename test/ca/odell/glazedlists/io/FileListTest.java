@@ -6,6 +6,10 @@ package ca.odell.glazedlists.io;
 // for being a JUnit test case
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -59,4 +63,154 @@ public class FileListTest {
             expectedLast = current;
         }
     }
+
+    /**
+     * Compacting replaces the log of changes with a snapshot, which shrinks
+     * the file but restores the same list.
+     */
+    @Test
+    public void testCompact() throws IOException {
+        File logFile = File.createTempFile("log", "j81");
+        logFile.deleteOnExit();
+        File compactFile = File.createTempFile("compact", "j81");
+        compactFile.deleteOnExit();
+
+        FileList log = new FileList(logFile, GlazedListsIO.serializableByteCoder());
+        FileList compact = new FileList(compactFile, GlazedListsIO.serializableByteCoder());
+        compact.setCompactionThreshold(25);
+        for(int i = 0; i < 100; i++) {
+            log.add(new Integer(i));
+            log.set(log.size() - 1, new Integer(i * 2));
+            if(i % 3 == 0) log.remove(0);
+            compact.add(new Integer(i));
+            compact.set(compact.size() - 1, new Integer(i * 2));
+            if(i % 3 == 0) compact.remove(0);
+        }
+        compact.compact();
+        assertEquals(log, compact);
+        log.close();
+        compact.close();
+
+        assertTrue(compactFile.length() < logFile.length() / 4);
+
+        // the snapshot and the changes since restore the list
+        FileList reopened = new FileList(compactFile, GlazedListsIO.serializableByteCoder());
+        FileList reopenedLog = new FileList(logFile, GlazedListsIO.serializableByteCoder());
+        assertEquals(reopenedLog, reopened);
+        assertEquals(66, reopened.size());
+
+        // and it can still be written to
+        reopened.add(new Integer(-1));
+        reopened.close();
+        reopenedLog.close();
+        reopened = new FileList(compactFile, GlazedListsIO.serializableByteCoder());
+        assertEquals(67, reopened.size());
+        assertEquals(new Integer(-1), reopened.get(66));
+        reopened.close();
+    }
+
+    /**
+     * Stores the list in a directory of segments, which is compacted by deleting
+     * the segments that only hold superseded changes.
+     */
+    @Test
+    public void testSegments() throws IOException {
+        File directory = File.createTempFile("segments", "j81");
+        assertTrue(directory.delete());
+        directory.deleteOnExit();
+
+        FileList list = new FileList(directory, GlazedListsIO.serializableByteCoder(), Durability.osBuffered(), 1024);
+        for(int i = 0; i < 100; i++) {
+            list.add(new Integer(i));
+        }
+        list.flush();
+        int segmentCount = directory.listFiles().length;
+        list.compact();
+        list.add(new Integer(100));
+        list.close();
+        File[] segments = directory.listFiles();
+        for(int s = 0; s < segments.length; s++) segments[s].deleteOnExit();
+        assertTrue(segments.length < segmentCount);
+
+        list = new FileList(directory, GlazedListsIO.serializableByteCoder(), Durability.osBuffered(), 1024);
+        assertEquals(101, list.size());
+        assertEquals(new Integer(0), list.get(0));
+        assertEquals(new Integer(100), list.get(100));
+        list.close();
+    }
+
+    /**
+     * Writes changes in the background, and makes the thread that changes the
+     * list wait when too many changes are queued.
+     */
+    @Test
+    public void testWriteBehind() throws IOException {
+        File file = File.createTempFile("writebehind", "j81");
+        file.deleteOnExit();
+
+        FileList list = new FileList(file, new SlowByteCoder(), Durability.osBuffered());
+        list.setWriteBehind(4, FileList.BLOCK_WHEN_FULL);
+        for(int i = 0; i < 40; i++) {
+            list.add(new Integer(i));
+            if(i % 4 == 0) list.set(0, new Integer(-i));
+            assertTrue(list.getQueueDepth() <= 4);
+        }
+        list.flush();
+        assertEquals(0, list.getQueueDepth());
+        assertEquals(0, list.getDroppedUpdates());
+        List expected = new ArrayList(list);
+        list.close();
+
+        list = new FileList(file, new SlowByteCoder());
+        assertEquals(expected, list);
+        list.close();
+    }
+
+    /**
+     * Drops changes when too many are queued, and writes a snapshot in their
+     * place.
+     */
+    @Test
+    public void testWriteBehindSnapshotWhenFull() throws IOException {
+        File file = File.createTempFile("writebehind", "j81");
+        file.deleteOnExit();
+
+        FileList list = new FileList(file, new SlowByteCoder(), Durability.osBuffered());
+        list.setWriteBehind(2, FileList.SNAPSHOT_WHEN_FULL);
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < 40; i++) {
+            list.add(new Integer(i));
+        }
+        assertTrue(System.currentTimeMillis() - start < 40 * SlowByteCoder.DELAY);
+        assertTrue(list.getDroppedUpdates() > 0);
+        list.flush();
+        assertTrue(list.getWriteLag() > 0);
+        List expected = new ArrayList(list);
+        list.close();
+
+        list = new FileList(file, new SlowByteCoder());
+        assertEquals(expected, list);
+        list.close();
+    }
+
+    /**
+     * Encodes values slowly.
+     */
+    private static class SlowByteCoder implements ByteCoder {
+        static final long DELAY = 10;
+        private final ByteCoder delegate = GlazedListsIO.serializableByteCoder();
+        @Override
+        public void encode(Object source, OutputStream target) throws IOException {
+            try {
+                Thread.sleep(DELAY);
+            } catch(InterruptedException e) {
+                throw new IOException(e.getMessage());
+            }
+            delegate.encode(source, target);
+        }
+        @Override
+        public Object decode(InputStream source) throws IOException {
+            return delegate.decode(source);
+        }
+    }
 }
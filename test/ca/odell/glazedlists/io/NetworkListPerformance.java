@@ -0,0 +1,50 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import ca.odell.glazedlists.BasicEventList;
+import ca.odell.glazedlists.EventList;
+import ca.odell.glazedlists.GlazedLists;
+
+/**
+ * Measures how many updates per second reach a subscriber when a pair of
+ * {@link ListPeer}s are connected over loopback.
+ */
+public class NetworkListPerformance {
+
+    /**
+     * Execute a performance test that is specified on the command line.
+     */
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5300;
+
+        ListPeer publisher = new ListPeer(port);
+        ListPeer subscriber = new ListPeer(port + 1);
+        publisher.start();
+        subscriber.start();
+
+        EventList<Integer> source = GlazedLists.threadSafeList(new BasicEventList<Integer>());
+        publisher.publish(source, "/integers", GlazedListsIO.serializableByteCoder());
+        NetworkList target = subscriber.subscribe("localhost", port, "/integers", GlazedListsIO.serializableByteCoder());
+        while(!target.isConnected()) Thread.sleep(10);
+
+        long start = System.currentTimeMillis();
+        for(int u = 0; u < updates; u++) source.add(new Integer(u));
+        while(true) {
+            target.getReadWriteLock().readLock().lock();
+            try {
+                if(target.size() == updates) break;
+            } finally {
+                target.getReadWriteLock().readLock().unlock();
+            }
+            Thread.sleep(1);
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(updates + " updates in " + elapsed + "ms, " + (updates * 1000L / elapsed) + " updates/s");
+
+        subscriber.stop();
+        publisher.stop();
+    }
+}
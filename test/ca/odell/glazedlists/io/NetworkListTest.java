@@ -6,8 +6,19 @@ package ca.odell.glazedlists.io;
 import ca.odell.glazedlists.BasicEventList;
 import ca.odell.glazedlists.EventList;
 import ca.odell.glazedlists.GlazedLists;
+import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.event.ListEventListener;
+import ca.odell.glazedlists.impl.io.Bufferlo;
+import ca.odell.glazedlists.impl.io.ListEventToBytes;
+import ca.odell.glazedlists.impl.rbp.Peer;
+import ca.odell.glazedlists.impl.rbp.Resource;
+import ca.odell.glazedlists.impl.rbp.ResourceListener;
+import ca.odell.glazedlists.impl.rbp.ResourceSnapshot;
+import ca.odell.glazedlists.util.concurrent.ReadWriteLock;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -377,6 +388,355 @@ public class NetworkListTest {
         }
     }
 
+    /**
+     * Verifies that batched changes are coalesced into few updates, including
+     * when a client subscribes while changes are pending.
+     */
+    @Test
+    public void testBatchedUpdates() {
+        try {
+            // prepare the source list
+            String path = "/integers";
+            EventList<Integer> sourceListTS = GlazedLists.threadSafeList(new BasicEventList<Integer>());
+            NetworkList<Integer> sourceList = peer.publish(sourceListTS, path, GlazedListsIO.serializableByteCoder(), 200, 100);
+            for(int i = 0; i < 10; i++) sourceListTS.add(new Integer(i));
+
+            // subscribe while those changes are pending
+            NetworkList targetList = peer.subscribe("localhost", serverPort, path, GlazedListsIO.serializableByteCoder());
+            waitFor(1000);
+            assertEquals(sourceList, targetList);
+
+            // a flurry of changes that undo and overwrite one another
+            ListEventCounter counter = new ListEventCounter();
+            targetList.addListEventListener(counter);
+            for(int i = 0; i < 60; i++) {
+                sourceListTS.add(5, new Integer(100 + i));
+                sourceListTS.set(0, new Integer(i));
+                if(i % 3 == 0) sourceListTS.remove(5);
+            }
+            sourceListTS.remove(sourceListTS.size() - 1);
+            waitFor(1000);
+            assertEquals(sourceList, targetList);
+            assertTrue(counter.getEventCount() <= 5);
+
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Verifies that a subscriber that reconnects receives only the updates it
+     * missed, unless it missed too many of them.
+     */
+    @Test
+    public void testResumeSubscription() {
+        try {
+            // prepare the source list
+            String path = "/integers";
+            EventList<Integer> sourceListTS = GlazedLists.threadSafeList(new BasicEventList<Integer>());
+            NetworkList<Integer> sourceList = peer.publish(sourceListTS, path, GlazedListsIO.serializableByteCoder());
+            for(int i = 0; i < 100; i++) sourceListTS.add(new Integer(i));
+
+            // prepare the target list
+            NetworkList targetList = peer.subscribe("localhost", serverPort, path, GlazedListsIO.serializableByteCoder());
+            waitFor(1000);
+            assertEquals(sourceList, targetList);
+
+            // miss a few updates and resume, without the delete of a snapshot
+            ListEventCounter counter = new ListEventCounter();
+            targetList.addListEventListener(counter);
+            targetList.disconnect();
+            waitFor(500);
+            sourceListTS.add(new Integer(100));
+            sourceListTS.remove(0);
+            targetList.connect();
+            waitFor(1000);
+            assertTrue(targetList.isConnected());
+            assertEquals(sourceList, targetList);
+            assertEquals(2, counter.getEventCount());
+            assertEquals(1, counter.getDeleteCount());
+
+            // miss more updates than are kept, and get a snapshot
+            targetList.disconnect();
+            waitFor(500);
+            for(int i = 0; i < 1500; i++) sourceListTS.set(i % 100, new Integer(i));
+            targetList.connect();
+            waitFor(1000);
+            assertEquals(sourceList, targetList);
+            assertEquals(3, counter.getEventCount());
+            assertEquals(101, counter.getDeleteCount());
+
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Verifies that writers to a published list aren't blocked while a
+     * snapshot is encoded for a new subscriber.
+     */
+    @Test
+    public void testSnapshotDoesNotBlockWriters() {
+        try {
+            // prepare a source list that is slow to encode
+            String path = "/integers";
+            EventList<Integer> sourceListTS = GlazedLists.threadSafeList(new BasicEventList<Integer>());
+            NetworkList<Integer> sourceList = peer.publish(sourceListTS, path, new SlowByteCoder());
+            for(int i = 0; i < 20; i++) sourceListTS.add(new Integer(-1 - i));
+
+            // subscribe, and change the list while the snapshot is encoded
+            NetworkList targetList = peer.subscribe("localhost", serverPort, path, GlazedListsIO.serializableByteCoder());
+            waitFor(200);
+            long start = System.currentTimeMillis();
+            for(int i = 0; i < 10; i++) sourceListTS.add(new Integer(i));
+            assertTrue(System.currentTimeMillis() - start < 500);
+
+            // the subscriber sees the snapshot followed by the changes
+            waitFor(2000);
+            assertEquals(sourceList, targetList);
+
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Verifies that snapshots and updates are compressed between peers that
+     * support it, and sent as is to peers that don't.
+     */
+    @Test
+    public void testCompression() {
+        ListPeer uncompressedPeer = new ListPeer(serverPort + 100);
+        try {
+            uncompressedPeer.setCompressionEnabled(false);
+            uncompressedPeer.start();
+
+            // prepare a source list with plenty of repetition
+            String path = "/strings";
+            EventList<String> sourceListTS = GlazedLists.threadSafeList(new BasicEventList<String>());
+            NetworkList<String> sourceList = peer.publish(sourceListTS, path, GlazedListsIO.serializableByteCoder());
+            for(int i = 0; i < 200; i++) sourceListTS.add("Glazed Lists element " + i);
+
+            // a compressed snapshot and updates
+            NetworkList targetList = peer.subscribe("localhost", serverPort, path, GlazedListsIO.serializableByteCoder());
+            waitFor(1000);
+            for(int i = 0; i < 20; i++) sourceListTS.add("Glazed Lists element " + i);
+            waitFor(1000);
+            assertEquals(sourceList, targetList);
+            assertTrue(peer.getBytesAfterCompression() * 2 < peer.getBytesBeforeCompression());
+
+            // an uncompressed snapshot and updates
+            long bytesBefore = peer.getBytesBeforeCompression();
+            long bytesAfter = peer.getBytesAfterCompression();
+            NetworkList uncompressedTargetList = uncompressedPeer.subscribe("localhost", serverPort, path, GlazedListsIO.serializableByteCoder());
+            waitFor(1000);
+            sourceListTS.remove(0);
+            waitFor(1000);
+            assertEquals(sourceList, uncompressedTargetList);
+            assertEquals(sourceList, targetList);
+            long uncompressedBytes = uncompressedPeer.getBytesBeforeCompression();
+            assertTrue(uncompressedBytes > 0);
+            assertEquals(uncompressedBytes, uncompressedPeer.getBytesAfterCompression());
+            assertTrue(peer.getBytesAfterCompression() - bytesAfter > (peer.getBytesBeforeCompression() - bytesBefore) / 2);
+
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            uncompressedPeer.stop();
+        }
+    }
+
+    /**
+     * Verifies that a list published in the legacy format can be subscribed to
+     * by a peer that only reads that format, while the default compact format
+     * can't.
+     */
+    @Test
+    public void testLegacyFormat() {
+        Peer legacyPeer = new Peer(serverPort + 100);
+        try {
+            legacyPeer.start();
+
+            // publish the same list in both formats, batching the legacy updates
+            EventList<Integer> sourceListTS = GlazedLists.threadSafeList(new BasicEventList<Integer>());
+            for(int i = 0; i < 10; i++) sourceListTS.add(new Integer(i));
+            peer.publish(sourceListTS, "/legacy", GlazedListsIO.serializableByteCoder(), 100, 100, ListPeer.LEGACY_FORMAT);
+            peer.publish(sourceListTS, "/compact", GlazedListsIO.serializableByteCoder());
+
+            // a legacy peer receives the snapshot and updates
+            LegacyListResource legacyList = new LegacyListResource();
+            legacyPeer.subscribe(legacyList, "localhost", serverPort, "/legacy");
+            LegacyListResource compactList = new LegacyListResource();
+            legacyPeer.subscribe(compactList, "localhost", serverPort, "/compact");
+            waitFor(1000);
+            sourceListTS.add(5, new Integer(100));
+            sourceListTS.remove(0);
+            sourceListTS.set(2, new Integer(200));
+            waitFor(1000);
+            assertEquals(sourceListTS, legacyList.getList());
+            assertEquals(0, legacyList.getUnreadableCount());
+
+            // but can't read the compact format
+            assertTrue(compactList.getUnreadableCount() > 0);
+
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            legacyPeer.stop();
+        }
+    }
+
+    /**
+     * A subscribed list that reads only the legacy format, like peers that
+     * predate the compact one.
+     */
+    private static class LegacyListResource implements Resource {
+        private final EventList<Object> list = GlazedLists.threadSafeList(new BasicEventList<Object>());
+        private int unreadableCount = 0;
+        @Override
+        public ResourceSnapshot captureSnapshot() {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public void fromSnapshot(Bufferlo snapshot) {
+            update(snapshot);
+        }
+        @Override
+        public void update(Bufferlo delta) {
+            list.getReadWriteLock().writeLock().lock();
+            try {
+                // legacy data always starts with a zero byte
+                if(delta.length() > 0 && delta.charAt(0) != 0) {
+                    unreadableCount++;
+                    return;
+                }
+                ListEventToBytes.toListEvent(delta, list, GlazedListsIO.serializableByteCoder());
+            } catch(IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            } finally {
+                list.getReadWriteLock().writeLock().unlock();
+            }
+        }
+        @Override
+        public void addResourceListener(ResourceListener listener) {
+            // never published
+        }
+        @Override
+        public void removeResourceListener(ResourceListener listener) {
+            // never published
+        }
+        @Override
+        public ReadWriteLock getReadWriteLock() {
+            return list.getReadWriteLock();
+        }
+        public List<Object> getList() {
+            list.getReadWriteLock().readLock().lock();
+            try {
+                return new ArrayList<Object>(list);
+            } finally {
+                list.getReadWriteLock().readLock().unlock();
+            }
+        }
+        public int getUnreadableCount() {
+            list.getReadWriteLock().writeLock().lock();
+            try {
+                return unreadableCount;
+            } finally {
+                list.getReadWriteLock().writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Verifies that a subscriber whose snapshot cannot be encoded is
+     * disconnected rather than left waiting.
+     */
+    @Test
+    public void testSnapshotFailureDisconnects() {
+        try {
+            // prepare a source list that cannot be encoded, before it is
+            // published so that only the snapshot has to encode it
+            String path = "/integers";
+            EventList<Integer> sourceListTS = GlazedLists.threadSafeList(new BasicEventList<Integer>());
+            sourceListTS.add(new Integer(-1));
+            peer.publish(sourceListTS, path, new FailingByteCoder());
+
+            // the subscriber is turned away
+            NetworkList targetList = peer.subscribe("localhost", serverPort, path, GlazedListsIO.serializableByteCoder());
+            SimpleNetworkListStatusListener targetListener = new SimpleNetworkListStatusListener(targetList);
+            waitFor(1000);
+            assertFalse(targetListener.isConnected());
+            assertNotNull(targetListener.getDisconnectReason());
+
+            // and isn't sent the updates that were held back for it
+            sourceListTS.add(new Integer(1));
+            waitFor(500);
+            assertEquals(0, targetList.size());
+
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Fails to encode negative values.
+     */
+    private static class FailingByteCoder implements ByteCoder {
+        private final ByteCoder delegate = GlazedListsIO.serializableByteCoder();
+        @Override
+        public void encode(Object source, OutputStream target) throws IOException {
+            if(((Integer)source).intValue() < 0) throw new IOException("cannot encode " + source);
+            delegate.encode(source, target);
+        }
+        @Override
+        public Object decode(InputStream source) throws IOException {
+            return delegate.decode(source);
+        }
+    }
+
+    /**
+     * Encodes negative values slowly.
+     */
+    private static class SlowByteCoder implements ByteCoder {
+        private final ByteCoder delegate = GlazedListsIO.serializableByteCoder();
+        @Override
+        public void encode(Object source, OutputStream target) throws IOException {
+            if(((Integer)source).intValue() < 0) waitFor(50);
+            delegate.encode(source, target);
+        }
+        @Override
+        public Object decode(InputStream source) throws IOException {
+            return delegate.decode(source);
+        }
+    }
+
+    /**
+     * Counts the events received by a list.
+     */
+    private static class ListEventCounter implements ListEventListener {
+        private int eventCount = 0;
+        private int deleteCount = 0;
+        @Override
+        public void listChanged(ListEvent listChanges) {
+            eventCount++;
+            while(listChanges.next()) {
+                if(listChanges.getType() == ListEvent.DELETE) deleteCount++;
+            }
+        }
+        public int getDeleteCount() {
+            return deleteCount;
+        }
+        public int getEventCount() {
+            return eventCount;
+        }
+    }
+
     /**
      * Waits for the specified duration of time. This hack method should be replaced
      * with something else that uses notification.
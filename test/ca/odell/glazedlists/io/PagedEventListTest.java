@@ -0,0 +1,193 @@
+/* Glazed Lists                                                 (c) 2003-2006 */
+/* http://publicobject.com/glazedlists/                      publicobject.com,*/
+/*                                                     O'Dell Engineering Ltd.*/
+package ca.odell.glazedlists.io;
+
+import ca.odell.glazedlists.event.ListEvent;
+import ca.odell.glazedlists.event.ListEventListener;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link PagedEventList} fetches only the pages that are requested.
+ */
+public class PagedEventListTest {
+
+    /** a list of fifty million rows */
+    private GeneratedPageSource pageSource;
+    private PagedEventList<Integer> pagedList;
+    private PageEvents events;
+
+    /**
+     * Prepare for the test.
+     */
+    @Before
+    public void setUp() {
+        pageSource = new GeneratedPageSource(50000000);
+        pagedList = new PagedEventList<Integer>(pageSource, 100, 3, null);
+        events = new PageEvents();
+        pagedList.addListEventListener(events);
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void tearDown() {
+        pagedList.dispose();
+    }
+
+    /**
+     * Verifies that a page is fetched when it is first requested.
+     */
+    @Test
+    public void testFetchOnDemand() throws InterruptedException {
+        assertEquals(50000000, pagedList.size());
+        assertEquals("", pageSource.getRequests());
+
+        assertNull(pagedList.get(250));
+        assertEquals("200-300 ", events.await());
+        assertEquals(new Integer(250), pagedList.get(250));
+        assertEquals(new Integer(299), pagedList.get(299));
+        assertNull(pagedList.get(300));
+        assertEquals("300-400 ", events.await());
+
+        // the last page is short
+        assertNull(pagedList.get(49999999));
+        assertEquals("49999900-50000000 ", events.await());
+        assertEquals(new Integer(49999999), pagedList.get(49999999));
+        assertEquals("200-300 300-400 49999900-50000000 ", pageSource.getRequests());
+    }
+
+    /**
+     * Verifies that the least recently used page is evicted.
+     */
+    @Test
+    public void testEviction() throws InterruptedException {
+        for(int page = 0; page < 3; page++) {
+            assertNull(pagedList.get(page * 100));
+            events.await();
+        }
+        assertEquals(3, pagedList.getCachedPageCount());
+        assertEquals(new Integer(0), pagedList.get(0));
+
+        // page 1 has been used least recently
+        assertNull(pagedList.get(300));
+        events.await();
+        assertEquals(3, pagedList.getCachedPageCount());
+        assertEquals(new Integer(0), pagedList.get(0));
+        assertEquals(new Integer(200), pagedList.get(200));
+        assertNull(pagedList.get(100));
+    }
+
+    /**
+     * Verifies that pages requested while others are fetched are fetched
+     * newest first, and that the oldest requests are dropped.
+     */
+    @Test
+    public void testFastScrolling() throws InterruptedException {
+        pageSource.gate = new Semaphore(0);
+        assertNull(pagedList.get(1000));
+        while(!pageSource.gate.hasQueuedThreads()) Thread.sleep(10);
+
+        // only the three newest of these are kept waiting
+        for(int page = 11; page <= 20; page++) {
+            assertNull(pagedList.get(page * 100));
+        }
+        pageSource.gate.release(10);
+        assertEquals("1000-1100 ", events.await());
+        assertEquals("2000-2100 ", events.await());
+        assertEquals("1900-2000 ", events.await());
+        assertEquals("1800-1900 ", events.await());
+        pagedList.dispose();
+        assertEquals("1000-1100 2000-2100 1900-2000 1800-1900 ", pageSource.getRequests());
+    }
+
+    /**
+     * Generates each row from its index, and records the pages requested.
+     */
+    private static class GeneratedPageSource implements PagedEventList.PageSource<Integer> {
+        private final int size;
+        private final StringBuffer requests = new StringBuffer();
+
+        /** if non-null, each page waits for a permit */
+        private volatile Semaphore gate = null;
+
+        GeneratedPageSource(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public List<Integer> getRows(final int fromIndex, final int toIndex) {
+            if(gate != null) gate.acquireUninterruptibly();
+            synchronized(requests) {
+                requests.append(fromIndex).append("-").append(toIndex).append(" ");
+            }
+            return new AbstractList<Integer>() {
+                @Override
+                public Integer get(int index) {
+                    return new Integer(fromIndex + index);
+                }
+                @Override
+                public int size() {
+                    return toIndex - fromIndex;
+                }
+            };
+        }
+
+        String getRequests() {
+            synchronized(requests) {
+                return requests.toString();
+            }
+        }
+    }
+
+    /**
+     * Records the range of updated rows in each event.
+     */
+    private static class PageEvents implements ListEventListener<Integer> {
+        private final StringBuffer ranges = new StringBuffer();
+        private final Semaphore events = new Semaphore(0);
+
+        @Override
+        public void listChanged(ListEvent<Integer> listChanges) {
+            // each page is a single block, so that a table repaints it at once
+            assertTrue(listChanges.nextBlock());
+            assertEquals(ListEvent.UPDATE, listChanges.getType());
+            int first = listChanges.getBlockStartIndex();
+            int last = listChanges.getBlockEndIndex();
+            assertFalse(listChanges.nextBlock());
+            synchronized(ranges) {
+                ranges.append(first).append("-").append(last + 1).append(" ");
+            }
+            events.release();
+        }
+
+        /**
+         * Waits for the next event and gets its range.
+         */
+        String await() throws InterruptedException {
+            if(!events.tryAcquire(5, TimeUnit.SECONDS)) throw new AssertionError("timed out waiting for a page");
+            synchronized(ranges) {
+                int end = ranges.indexOf(" ") + 1;
+                String range = ranges.substring(0, end);
+                ranges.delete(0, end);
+                return range;
+            }
+        }
+    }
+}